@@ -0,0 +1,228 @@
+package com.artemzin.android.vk.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Equivalence check and benchmark of request url building with VKQueryEncoder
+ * against the previous URLEncoder and String concatenation path <br/>
+ * It is not part of the library, run it on desktop JVM with library sources and org.json in classpath:
+ * java com.artemzin.android.vk.api.VKQueryEncoderBenchmark <br/>
+ * Both paths put params of request and build its url the same way as VKApi.createRequestUrl:
+ * the previous path joined list params to strings with commas and encoded every value with URLEncoder,
+ * now values are encoded directly to reusable builder of thread <br/>
+ * Known differences: the previous params were not sorted, here both paths write params in name order;
+ * the previous url of request without params had "&amp;" before access_token
+ * @author Artem Zinnatullin
+ */
+public class VKQueryEncoderBenchmark {
+
+    private static final String BASE_URL = "https://api.vk.com/method/";
+
+    private static final String ACCESS_TOKEN = "533bacf01e11f55b536a565b57531ac114461ae8736d6506a3";
+
+    /**
+     * Chars of random values: safe chars, chars encoded with one, two, three and four bytes, broken surrogates
+     */
+    private static final char[] CHARS = {
+            'a', 'Z', '0', '.', '-', '*', '_', ' ', ',', '&', '=', '%', '+', '"', '\n',
+            '\u00e9', '\u043f', '\u20ac', '\ud83d', '\ude00'
+    };
+
+    /**
+     * Typical requests: api method name and pairs of param name and value,
+     * value is String, List of elements or array of elements
+     */
+    private static final Object[][] SAMPLES;
+
+    static {
+        final List<Long> uIds = new ArrayList<Long>();
+        for (long uId = 1000000; uId < 1000100; uId++) {
+            uIds.add(uId);
+        }
+        final String[] fields = {"uid", "first_name", "last_name", "nickname", "sex", "bdate", "city", "country",
+                "photo_50", "photo_200_orig", "online", "last_seen", "relation"};
+        SAMPLES = new Object[][] {
+                {"users.get", "uids", uIds, "fields", fields},
+                {"friends.get", "uid", "1", "order", "hints", "fields", Arrays.asList("first_name", "last_name")},
+                {"groups.search", "q", "\u041c\u0443\u0437\u044b\u043a\u0430 & \u043a\u0438\u043d\u043e \ud83d\ude00", "count", "100", "offset", "0"},
+                {"messages.send", "uid", "12345", "message", "Hello, world! How are you? \u041f\u0440\u0438\u0432\u0435\u0442!"}
+        };
+    }
+
+    private VKQueryEncoderBenchmark() {}
+
+    /**
+     * Previous implementation of VKRequestParams.putListParam: VKUtils.listToParams
+     */
+    static String listToParams(List<?> list) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < list.size(); i++) {
+            if (i != list.size() -1)
+                buffer.append(list.get(i).toString()).append(",");
+            else
+                buffer.append(list.get(i).toString());
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Previous implementation of VKRequestParams.putArrayParam: VKUtils.arrayToParams
+     */
+    static String arrayToParams(Object[] array) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < array.length; i++) {
+            if (i != array.length - 1) {
+                buffer.append(array[i]).append(",");
+            } else {
+                buffer.append(array[i]);
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Previous implementation of VKApi.createRequestUrl with VKRequestParams.getParamsAsRequestString
+     */
+    static String createRequestUrlWithURLEncoder(Object[] sample) {
+        final Map<String, String> params = new TreeMap<String, String>();
+        for (int i = 1; i < sample.length; i += 2) {
+            final Object value = sample[i + 1];
+            if (value instanceof List) {
+                params.put((String) sample[i], listToParams((List<?>) value));
+            } else if (value instanceof Object[]) {
+                params.put((String) sample[i], arrayToParams((Object[]) value));
+            } else {
+                params.put((String) sample[i], (String) value);
+            }
+        }
+
+        StringBuilder resultString = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (resultString.length() != 0) {
+                resultString.append("&");
+            }
+            try {
+                resultString.append(param.getKey()).append("=").append(URLEncoder.encode(param.getValue(), "UTF-8"));
+            } catch (UnsupportedEncodingException ignored) {
+            }
+        }
+
+        StringBuilder requestUrl = new StringBuilder(BASE_URL);
+        requestUrl.append(sample[0]).append("?");
+        requestUrl.append(resultString.toString());
+        if (requestUrl.length() != 0) {
+            requestUrl.append("&");
+        }
+        requestUrl.append("access_token=").append(ACCESS_TOKEN);
+        return requestUrl.toString();
+    }
+
+    /**
+     * Current implementation of VKApi.createRequestUrl
+     */
+    static String createRequestUrlWithEncoder(Object[] sample) {
+        final VKRequestParams requestParams = new VKRequestParams((String) sample[0]);
+        for (int i = 1; i < sample.length; i += 2) {
+            final Object value = sample[i + 1];
+            if (value instanceof List) {
+                requestParams.putListParam((String) sample[i], (List<?>) value);
+            } else if (value instanceof Object[]) {
+                requestParams.putArrayParam((String) sample[i], (Object[]) value);
+            } else {
+                requestParams.putParam((String) sample[i], (String) value);
+            }
+        }
+
+        final StringBuilder requestUrl = VKQueryEncoder.obtainBuilder();
+        requestUrl.append(BASE_URL).append(requestParams.apiMethodName).append('?');
+        requestParams.appendParamsAsRequestString(requestUrl);
+        if (!requestParams.isEmpty()) {
+            requestUrl.append('&');
+        }
+        requestUrl.append("access_token=").append(ACCESS_TOKEN);
+        return VKQueryEncoder.release(requestUrl);
+    }
+
+    public static void main(String[] args) {
+        checkEquivalence();
+        benchmark();
+    }
+
+    private static void checkEquivalence() {
+        for (Object[] sample : SAMPLES) {
+            check(sample);
+        }
+
+        final Random random = new Random(42);
+        final StringBuilder value = new StringBuilder();
+        final int count = 200000;
+        for (int i = 0; i < count; i++) {
+            value.setLength(0);
+            final int length = 1 + random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                value.append(CHARS[random.nextInt(CHARS.length)]);
+            }
+            check(new Object[] {"method", "q", value.toString(), "uids", Arrays.asList(random.nextLong(), -1L)});
+        }
+
+        check(new Object[] {"account.getCounters"}, BASE_URL + "account.getCounters?access_token=" + ACCESS_TOKEN);
+
+        System.out.println("Equivalence: " + count + " random requests are equal");
+    }
+
+    private static void check(Object[] sample) {
+        check(sample, createRequestUrlWithURLEncoder(sample));
+    }
+
+    private static void check(Object[] sample, String expected) {
+        final String actual = createRequestUrlWithEncoder(sample);
+        if (!actual.equals(expected))
+            throw new AssertionError("url is \"" + actual + "\", expected \"" + expected + "\"");
+    }
+
+    private static void benchmark() {
+        final int iterations = 500000;
+        // Warming up of JIT
+        for (int round = 0; round < 3; round++) {
+            run(true, iterations / 10);
+            run(false, iterations / 10);
+        }
+        for (Object[] sample : SAMPLES) {
+            final long urlEncoderNanos = run(sample, true, iterations);
+            final long encoderNanos = run(sample, false, iterations);
+            System.out.println(String.format("URLEncoder %7.1f ns, VKQueryEncoder %7.1f ns: %s",
+                    (double) urlEncoderNanos / iterations, (double) encoderNanos / iterations, sample[0]));
+        }
+    }
+
+    private static void run(boolean withURLEncoder, int iterations) {
+        for (Object[] sample : SAMPLES) {
+            run(sample, withURLEncoder, iterations);
+        }
+    }
+
+    /**
+     * @return time of all iterations in nanos
+     */
+    private static long run(Object[] sample, boolean withURLEncoder, int iterations) {
+        int length = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            length += withURLEncoder
+                    ? createRequestUrlWithURLEncoder(sample).length()
+                    : createRequestUrlWithEncoder(sample).length();
+        }
+        final long nanos = System.nanoTime() - start;
+        // Result is used, so JIT could not remove the loop
+        if (length == 42)
+            System.out.println();
+        return nanos;
+    }
+}
@@ -0,0 +1,145 @@
+package com.artemzin.android.vk.api;
+
+import java.util.Random;
+
+/**
+ * Equivalence check and benchmark of VKUtils.unescape against the previous chain of String.replace calls <br/>
+ * It is not part of the library, run it on desktop JVM with library sources and org.json in classpath:
+ * java com.artemzin.android.vk.api.VKUtilsUnescapeBenchmark <br/>
+ * Known differences: the previous chain decoded text produced by its own replacements,
+ * so "&amp;amp;quot;" became "\"" and "&amp;lt;br/&gt;" became "\n", now every entity is decoded once;
+ * numeric entities other than &amp;#39; and &amp;#33; are decoded now
+ * @author Artem Zinnatullin
+ */
+public class VKUtilsUnescapeBenchmark {
+
+    /**
+     * Fragments of random texts, only entities, which the previous chain decoded
+     */
+    private static final String[] FRAGMENTS = {
+            "&amp;", "&quot;", "&gt;", "&lt;", "&#39;", "&#33;", "&ndash;", "<br>", "<br/>",
+            "&", ";", "<", ">", "br", "amp", "quot", "a", " ", "\n", "\u043f"
+    };
+
+    /**
+     * Entities, which the previous chain decoded once more after "&amp;" was replaced by "&"
+     */
+    private static final String[] DOUBLE_DECODED = {
+            "&amp;quot;", "&amp;gt;", "&amp;lt;", "&amp;#39;", "&amp;#33;", "&amp;ndash;", "&lt;br/>"
+    };
+
+    /**
+     * Typical message bodies
+     */
+    private static final String[] SAMPLES = {
+            "Hello, world",
+            "  Hello, world!  ",
+            "Tom &amp; Jerry &ndash; &quot;The Movie&quot;<br>Watch it&#33;",
+            "a &lt; b &amp;&amp; b &gt; c<br/>it&#39;s true",
+            "\u041f\u0440\u0438\u0432\u0435\u0442 &amp; \u043f\u043e\u043a\u0430<br>",
+            "No entities in this rather long message body, which is the most common case of vk.com messages"
+    };
+
+    private VKUtilsUnescapeBenchmark() {}
+
+    /**
+     * Previous implementation of VKUtils.unescape
+     */
+    static String unescapeWithReplace(String text) {
+        return text.replace("&amp;", "&").replace("&quot;", "\"").replace("<br>", "\n").replace("&gt;", ">").replace("&lt;", "<")
+                .replace("&#39;", "'").replace("<br/>", "\n").replace("&ndash;", "-").replace("&#33;", "!").trim();
+    }
+
+    public static void main(String[] args) {
+        checkEquivalence();
+        benchmark();
+    }
+
+    private static void checkEquivalence() {
+        for (String sample : SAMPLES) {
+            check(sample);
+        }
+
+        final Random random = new Random(42);
+        final StringBuilder text = new StringBuilder();
+        int checked = 0;
+        int skipped = 0;
+        for (int i = 0; i < 1000000; i++) {
+            text.setLength(0);
+            final int fragmentCount = random.nextInt(12);
+            for (int j = 0; j < fragmentCount; j++) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            if (isDoubleDecoded(text.toString())) {
+                skipped++;
+            } else {
+                check(text.toString());
+                checked++;
+            }
+        }
+
+        check("&#x21;", "!");
+        check("&#1087;", "\u043f");
+        check("&amp;quot;", "&quot;");
+        check("&lt;br/>", "<br/>");
+        check("&unknown;", "&unknown;");
+
+        System.out.println("Equivalence: " + checked + " random texts are equal, "
+                + skipped + " texts with double decoded entities are skipped");
+    }
+
+    private static boolean isDoubleDecoded(String text) {
+        for (String entity : DOUBLE_DECODED) {
+            if (text.contains(entity))
+                return true;
+        }
+        return false;
+    }
+
+    private static void check(String text) {
+        check(text, unescapeWithReplace(text));
+    }
+
+    private static void check(String text, String expected) {
+        final String actual = VKUtils.unescape(text);
+        if (!actual.equals(expected))
+            throw new AssertionError("unescape(\"" + text + "\") is \"" + actual + "\", expected \"" + expected + "\"");
+    }
+
+    private static void benchmark() {
+        final int iterations = 2000000;
+        // Warming up of JIT
+        for (int round = 0; round < 3; round++) {
+            run(true, iterations / 10);
+            run(false, iterations / 10);
+        }
+        for (String sample : SAMPLES) {
+            final long replaceNanos = run(sample, true, iterations);
+            final long scanNanos = run(sample, false, iterations);
+            System.out.println(String.format("replace %6.1f ns, scan %6.1f ns: %s",
+                    (double) replaceNanos / iterations, (double) scanNanos / iterations, sample.trim()));
+        }
+    }
+
+    private static void run(boolean withReplace, int iterations) {
+        for (String sample : SAMPLES) {
+            run(sample, withReplace, iterations);
+        }
+    }
+
+    /**
+     * @return time of all iterations in nanos
+     */
+    private static long run(String sample, boolean withReplace, int iterations) {
+        int length = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            length += withReplace ? unescapeWithReplace(sample).length() : VKUtils.unescape(sample).length();
+        }
+        final long nanos = System.nanoTime() - start;
+        // Result is used, so JIT could not remove the loop
+        if (length == 42)
+            System.out.println();
+        return nanos;
+    }
+}
@@ -0,0 +1,388 @@
+package com.artemzin.android.vk.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Per api method choice of gzip compression <br/>
+ * It measures decoded size and compression ratio of responses of every api method, time of reading bytes
+ * from network and time of decompression, and requests gzip only for methods, which responses are
+ * transferred faster compressed than plain: big responses are compressed, tiny ones are not <br/>
+ * Until first response of api method is measured, gzip is requested for it, then every
+ * probeInterval-th request uses other choice, so estimations follow changes of network and payloads
+ * @author Artem Zinnatullin
+ * @see VKApi#setAdaptiveGzip(VKAdaptiveGzip)
+ */
+public class VKAdaptiveGzip {
+
+    /**
+     * Default decoded size of response in bytes, below which gzip is not requested
+     */
+    public static final int MIN_SIZE_DEFAULT;
+
+    /**
+     * Default count of requests of api method, after which other choice is probed
+     */
+    public static final int PROBE_INTERVAL_DEFAULT;
+
+    /**
+     * Weight of new measurement in moving averages
+     */
+    private static final double SMOOTHING;
+
+    /**
+     * Min size of body in bytes, which time of reading is used to estimate network speed,
+     * time of reading small bodies is mostly latency
+     */
+    private static final int MIN_TIMED_SIZE;
+
+    static {
+        MIN_SIZE_DEFAULT = 1024;
+        PROBE_INTERVAL_DEFAULT = 50;
+        SMOOTHING = 0.2;
+        MIN_TIMED_SIZE = 8 * 1024;
+    }
+
+    private final int minSize;
+
+    private final int probeInterval;
+
+    private final HashMap<String, MethodStats> methods = new HashMap<String, MethodStats>();
+
+    /**
+     * Average time of reading one byte from network in nanos, -1 if it was not measured yet
+     */
+    private double transferNanosPerByte = -1;
+
+    /**
+     * Average time of decompression of one decoded byte in nanos, -1 if it was not measured yet
+     */
+    private double inflateNanosPerByte = -1;
+
+    /**
+     * Measurements of one api method
+     */
+    private static class MethodStats {
+
+        long requestCount;
+
+        long gzipRequestCount;
+
+        /**
+         * Average decoded size of response in bytes, -1 if it was not measured yet
+         */
+        double size = -1;
+
+        /**
+         * Average compressed size divided by decoded size, -1 if it was not measured yet
+         */
+        double ratio = -1;
+
+        /**
+         * Current choice, used between probes
+         */
+        boolean gzip = true;
+    }
+
+    /**
+     * Creating adaptive gzip with default params
+     */
+    public VKAdaptiveGzip() {
+        this(MIN_SIZE_DEFAULT, PROBE_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * Creating adaptive gzip
+     * @param minSize decoded size of response in bytes, below which gzip is not requested, should not be negative
+     * @param probeInterval count of requests of api method, after which other choice is probed, should be positive
+     * @throws InvalidParameterException if minSize is negative or probeInterval is not positive
+     */
+    public VKAdaptiveGzip(int minSize, int probeInterval) throws InvalidParameterException {
+        if (minSize < 0)
+            throw new InvalidParameterException("minSize could not be negative");
+        if (probeInterval <= 0)
+            throw new InvalidParameterException("probeInterval should be positive");
+        this.minSize = minSize;
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Choosing gzip for next request of api method
+     * @param apiMethodName name of api method
+     * @return true if gzip should be requested
+     */
+    synchronized boolean shouldUseGzip(String apiMethodName) {
+        MethodStats stats = methods.get(apiMethodName);
+        if (stats == null) {
+            stats = new MethodStats();
+            methods.put(apiMethodName, stats);
+        }
+        stats.requestCount++;
+        final boolean gzip = stats.requestCount % probeInterval == 0 ? !stats.gzip : stats.gzip;
+        if (gzip)
+            stats.gzipRequestCount++;
+        return gzip;
+    }
+
+    /**
+     * Wrapping response body to measure it
+     * @param apiMethodName name of api method
+     * @param body raw response body
+     * @param gzipped true if body is compressed
+     * @return measurement, which decoded stream should be read instead of body
+     * @throws IOException if problems with reading gzip header
+     */
+    Measurement measure(String apiMethodName, InputStream body, boolean gzipped) throws IOException {
+        return new Measurement(apiMethodName, body, gzipped);
+    }
+
+    private synchronized void record(String apiMethodName, boolean gzipped, long rawSize, long rawReadNanos,
+                                     long decodedSize, long decodedReadNanos) {
+        final MethodStats stats = methods.get(apiMethodName);
+        if (stats == null)
+            return;
+
+        stats.size = average(stats.size, decodedSize);
+
+        if (gzipped && decodedSize > 0)
+            stats.ratio = average(stats.ratio, (double) rawSize / decodedSize);
+
+        if (rawSize >= MIN_TIMED_SIZE)
+            transferNanosPerByte = average(transferNanosPerByte, (double) rawReadNanos / rawSize);
+
+        if (gzipped && decodedSize >= MIN_TIMED_SIZE)
+            inflateNanosPerByte = average(inflateNanosPerByte,
+                    (double) Math.max(0, decodedReadNanos - rawReadNanos) / decodedSize);
+
+        stats.gzip = isGzipFaster(stats);
+    }
+
+    private static double average(double average, double value) {
+        return average < 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    /**
+     * Comparing estimated time of receiving of average response with and without gzip
+     */
+    private boolean isGzipFaster(MethodStats stats) {
+        if (stats.size < minSize)
+            return false;
+        // Until compression or speeds are measured, big responses are compressed
+        if (stats.ratio < 0 || transferNanosPerByte < 0)
+            return true;
+        final double plainNanos = stats.size * transferNanosPerByte;
+        final double gzipNanos = stats.size * (stats.ratio * transferNanosPerByte + Math.max(0, inflateNanosPerByte));
+        return gzipNanos < plainNanos;
+    }
+
+    /**
+     * Measurement of one response body
+     */
+    class Measurement {
+
+        private final String apiMethodName;
+
+        private final boolean gzipped;
+
+        private final TimedInputStream raw;
+
+        private final TimedInputStream decoded;
+
+        private Measurement(String apiMethodName, InputStream body, boolean gzipped) throws IOException {
+            this.apiMethodName = apiMethodName;
+            this.gzipped = gzipped;
+            raw = new TimedInputStream(body);
+            decoded = gzipped ? new TimedInputStream(new GZIPInputStream(raw)) : raw;
+        }
+
+        /**
+         * @return decoded body, closing of it closes raw body
+         */
+        InputStream getStream() {
+            return decoded;
+        }
+
+        /**
+         * Recording measured sizes and times, should be called after body was read
+         */
+        void finish() {
+            record(apiMethodName, gzipped, raw.count, raw.nanos, decoded.count, decoded.nanos);
+        }
+    }
+
+    /**
+     * Stream, which counts read bytes and time spent in reading,
+     * the first read is not timed, because it mostly waits for the server
+     */
+    private static class TimedInputStream extends FilterInputStream {
+
+        long count;
+
+        long nanos;
+
+        private boolean firstRead = true;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int b = super.read();
+            if (b != -1)
+                count++;
+            addTime(start);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final long start = System.nanoTime();
+            final int read = super.read(buffer, offset, length);
+            if (read > 0)
+                count += read;
+            addTime(start);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        private void addTime(long start) {
+            if (firstRead)
+                firstRead = false;
+            else
+                nanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Snapshot of measurements of api method
+     */
+    public static class MethodStatistics {
+
+        private MethodStatistics() {}
+
+        private long requestCount;
+
+        /**
+         * @return count of requests of api method
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        private long gzipRequestCount;
+
+        /**
+         * @return count of requests of api method, which asked for gzip
+         */
+        public long getGzipRequestCount() {
+            return gzipRequestCount;
+        }
+
+        private double averageSize;
+
+        /**
+         * @return average decoded size of response in bytes, -1 if it was not measured yet
+         */
+        public double getAverageSize() {
+            return averageSize;
+        }
+
+        private double compressionRatio;
+
+        /**
+         * @return average compressed size divided by decoded size, -1 if it was not measured yet
+         */
+        public double getCompressionRatio() {
+            return compressionRatio;
+        }
+
+        private boolean gzip;
+
+        /**
+         * @return true if gzip is chosen for api method at the moment of statistics creation
+         */
+        public boolean isGzip() {
+            return gzip;
+        }
+    }
+
+    /**
+     * Snapshot of measurements
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private double transferNanosPerByte;
+
+        /**
+         * @return average time of reading one byte from network in nanos, -1 if it was not measured yet
+         */
+        public double getTransferNanosPerByte() {
+            return transferNanosPerByte;
+        }
+
+        private double inflateNanosPerByte;
+
+        /**
+         * @return average time of decompression of one decoded byte in nanos, -1 if it was not measured yet
+         */
+        public double getInflateNanosPerByte() {
+            return inflateNanosPerByte;
+        }
+
+        private Map<String, MethodStatistics> methods;
+
+        /**
+         * @return unmodifiable map of api method names to their statistics
+         */
+        public Map<String, MethodStatistics> getMethods() {
+            return methods;
+        }
+    }
+
+    /**
+     * @return snapshot of measurements, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        final Statistics statistics = new Statistics();
+        statistics.transferNanosPerByte = transferNanosPerByte;
+        statistics.inflateNanosPerByte = inflateNanosPerByte;
+        final HashMap<String, MethodStatistics> methodsStatistics = new HashMap<String, MethodStatistics>();
+        for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+            final MethodStats stats = entry.getValue();
+            final MethodStatistics methodStatistics = new MethodStatistics();
+            methodStatistics.requestCount = stats.requestCount;
+            methodStatistics.gzipRequestCount = stats.gzipRequestCount;
+            methodStatistics.averageSize = stats.size;
+            methodStatistics.compressionRatio = stats.ratio;
+            methodStatistics.gzip = stats.gzip;
+            methodsStatistics.put(entry.getKey(), methodStatistics);
+        }
+        statistics.methods = Collections.unmodifiableMap(methodsStatistics);
+        return statistics;
+    }
+
+    /**
+     * Removing all measurements
+     */
+    public synchronized void reset() {
+        methods.clear();
+        transferNanosPerByte = -1;
+        inflateNanosPerByte = -1;
+    }
+}
@@ -3,11 +3,13 @@ package com.artemzin.android.vk.api;
 import android.util.Log;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.StringReader;
 import java.security.InvalidParameterException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -28,6 +30,11 @@ public class VKApi {
      */
     private static final String BASIC_API_URL;
 
+    /**
+     * Default transport, it has no state, so it is shared between VKApi instances
+     */
+    private static final VKTransport DEFAULT_TRANSPORT;
+
     /**
      * Default value for gzip compression is disabled
      */
@@ -43,14 +50,35 @@ public class VKApi {
      */
     public static final int CONNECTION_TIMEOUT_DEFAULT;
 
+    /**
+     * Default total time in millis of one request including retries, 0 means no limit
+     */
+    public static final long REQUEST_TIMEOUT_DEFAULT;
+
     /**
      * Exception message if response from vk.com was incorrect
      */
     public static final String EXCEPTION_MESSAGE_INCORRECT_RESPONSE;
 
+    /**
+     * Default count of threads in executor for async api
+     */
+    public static final int ASYNC_THREADS_COUNT_DEFAULT;
+
+    /**
+     * Default time in millis, while batch of queries is collected
+     */
+    public static final int REQUEST_BATCH_WINDOW_DEFAULT;
+
+    /**
+     * Default max count of concurrently sent chunks of bulk query
+     */
+    public static final int BULK_PARALLELISM_DEFAULT;
+
     static {
         TAG = "VKApi";
         BASIC_API_URL = "https://api.vk.com/method/";
+        DEFAULT_TRANSPORT = new VKHttpURLConnectionTransport();
         // By default, gzip compression is disabled
         // Because on slow devices compression time is too big
         GZIP_COMPRESSION_DEFAULT = false;
@@ -58,7 +86,11 @@ public class VKApi {
         QUERY_RETRY_LIMIT_DEFAULT = 3;
         // By default, connection timeout will be 30 seconds
         CONNECTION_TIMEOUT_DEFAULT = 30000;
+        REQUEST_TIMEOUT_DEFAULT = 0;
         EXCEPTION_MESSAGE_INCORRECT_RESPONSE = "Incorrect response from vk.com";
+        ASYNC_THREADS_COUNT_DEFAULT = 4;
+        REQUEST_BATCH_WINDOW_DEFAULT = 20;
+        BULK_PARALLELISM_DEFAULT = 4;
     }
 
     /**
@@ -82,14 +114,96 @@ public class VKApi {
     private int queryRetryLimit;
 
     /**
-     * Connection timeout in millis
+     * Connect timeout in millis
+     */
+    private int connectTimeout;
+
+    /**
+     * Read timeout in millis
+     */
+    private int readTimeout;
+
+    /**
+     * Total time in millis of one request including retries, 0 means no limit
+     */
+    private long requestTimeout;
+
+    /**
+     * Transport of http requests
      */
-    private int connectionTimeout;
+    private volatile VKTransport transport = DEFAULT_TRANSPORT;
+
+    /**
+     * Url of api methods
+     */
+    private volatile String baseUrl = BASIC_API_URL;
+
+    /**
+     * Executor for async api, created on first usage if it was not set
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * Batcher of queries into "execute" queries, null if batching is disabled
+     */
+    private volatile VKRequestBatcher requestBatcher;
+
+    /**
+     * Suppressor of duplicated concurrent queries, null if coalescing is disabled
+     */
+    private volatile VKRequestCoalescer requestCoalescer;
+
+    /**
+     * Limiter of requests per second, null if limiting is disabled
+     */
+    private volatile VKRateLimiter rateLimiter;
+
+    /**
+     * Scheduler of requests with priority lanes, null if it is disabled
+     */
+    private volatile VKRequestScheduler requestScheduler;
+
+    /**
+     * Receiver of measurements of requests, null if instrumentation is disabled
+     */
+    private volatile VKInstrumentation instrumentation;
+
+    /**
+     * Cache of users, null if caching is disabled
+     */
+    private volatile VKUserCache userCache;
+
+    /**
+     * Per api method choice of gzip compression, null if isGzipEnable is used for all methods
+     */
+    private volatile VKAdaptiveGzip adaptiveGzip;
+
+    /**
+     * Policy of retries, null if requests are retried immediately only after network errors
+     */
+    private volatile VKRetryPolicy retryPolicy;
+
+    /**
+     * Circuit breaker of api methods, null if it is disabled
+     */
+    private volatile VKCircuitBreaker circuitBreaker;
+
+    /**
+     * Policy of hedged requests, null if hedging is disabled
+     */
+    private volatile VKHedgePolicy hedgePolicy;
+
+    /**
+     * Max count of concurrently sent chunks of bulk query
+     */
+    private volatile int bulkParallelism = BULK_PARALLELISM_DEFAULT;
 
     {
         isGzipEnable = GZIP_COMPRESSION_DEFAULT;
         queryRetryLimit = QUERY_RETRY_LIMIT_DEFAULT;
-        connectionTimeout = CONNECTION_TIMEOUT_DEFAULT;
+        connectTimeout = CONNECTION_TIMEOUT_DEFAULT;
+        readTimeout = CONNECTION_TIMEOUT_DEFAULT;
+        requestTimeout = REQUEST_TIMEOUT_DEFAULT;
     }
 
     /**
@@ -100,6 +214,13 @@ public class VKApi {
         this.accessToken = accessToken;
     }
 
+    /**
+     * @return user access token of this instance
+     */
+    public String getAccessToken() {
+        return this.accessToken;
+    }
+
     /**
      * Enable/Disable debug mode (Will cause LogCat debug messages)
      * @param debugMode true to enable, false to disable
@@ -131,6 +252,22 @@ public class VKApi {
         return this.isGzipEnable;
     }
 
+    /**
+     * Setting adaptive gzip compression, which chooses gzip for every api method by measured
+     * sizes of its responses and speed of network and decompression, it overrides setGzipCompression()
+     * @param adaptiveGzip to use, put null to use setGzipCompression() choice for all methods (default)
+     */
+    public void setAdaptiveGzip(VKAdaptiveGzip adaptiveGzip) {
+        this.adaptiveGzip = adaptiveGzip;
+    }
+
+    /**
+     * @return adaptive gzip compression or null if it is disabled
+     */
+    public VKAdaptiveGzip getAdaptiveGzip() {
+        return this.adaptiveGzip;
+    }
+
     /**
      * Setting query retry limit
      * @param limit number of query retries
@@ -147,10 +284,427 @@ public class VKApi {
     }
 
     /**
-     * @return current connection timeout in millis
+     * Setting retry policy with backoff, retry budget and retryable vk.com errors, it overrides query retry limit
+     * @param retryPolicy to use, could be shared between VKApi instances,
+     *                    put null to retry only network errors immediately up to query retry limit (default)
+     */
+    public void setRetryPolicy(VKRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return retry policy or null if it is not set
+     */
+    public VKRetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Setting circuit breaker, which fails calls of api method fast with VKCircuitBreaker.CircuitOpenException
+     * while too many of its calls are failed or slow, batched calls are recorded under their own api methods, not as "execute"
+     * @param circuitBreaker to use, could be shared between VKApi instances, put null to disable (default)
+     */
+    public void setCircuitBreaker(VKCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return circuit breaker or null if it is disabled
+     */
+    public VKCircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    /**
+     * Setting hedge policy: slow requests of hedged api methods are duplicated by async executor,
+     * result of the first completed request is used
+     * @param hedgePolicy to use, could be shared between VKApi instances, put null to disable (default)
+     * @see #setAsyncExecutor(java.util.concurrent.Executor)
+     */
+    public void setHedgePolicy(VKHedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * @return hedge policy or null if hedging is disabled
+     */
+    public VKHedgePolicy getHedgePolicy() {
+        return this.hedgePolicy;
+    }
+
+    /**
+     * @return current connect timeout in millis
+     * @see #getConnectTimeout()
      */
     public int getConnectionTimeout() {
-        return this.connectionTimeout;
+        return this.connectTimeout;
+    }
+
+    /**
+     * Setting timeout of establishing of connection
+     * @param connectTimeout in millis
+     * @throws java.security.InvalidParameterException if connect timeout negative or zero
+     */
+    public void setConnectTimeout(int connectTimeout) throws InvalidParameterException {
+        if (connectTimeout <= 0)
+            throw new InvalidParameterException("Connect timeout should be positive");
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return current connect timeout in millis
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * Setting timeout of waiting for data from connection
+     * @param readTimeout in millis
+     * @throws java.security.InvalidParameterException if read timeout negative or zero
+     */
+    public void setReadTimeout(int readTimeout) throws InvalidParameterException {
+        if (readTimeout <= 0)
+            throw new InvalidParameterException("Read timeout should be positive");
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return current read timeout in millis
+     */
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * Setting total time of one request including all retries and backoff delays,
+     * after it request fails with SocketTimeoutException
+     * @param requestTimeout in millis, 0 means no limit (default)
+     * @throws java.security.InvalidParameterException if request timeout negative
+     */
+    public void setRequestTimeout(long requestTimeout) throws InvalidParameterException {
+        if (requestTimeout < 0)
+            throw new InvalidParameterException("Request timeout could not be negative");
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @return total time in millis of one request including retries, 0 means no limit
+     */
+    public long getRequestTimeout() {
+        return this.requestTimeout;
+    }
+
+    /**
+     * Executing blocking api code with priority: requests of callable, which params have no priority,
+     * are scheduled by request scheduler in lane of this priority
+     * @param priority of requests, null is denied
+     * @param callable to execute by current thread, null is denied
+     * @return result of callable
+     * @throws Exception of callable
+     * @see #setRequestScheduler(VKRequestScheduler)
+     */
+    public <T> T callWithPriority(VKRequestScheduler.Priority priority, Callable<T> callable) throws Exception {
+        if (priority == null)
+            throw new IllegalArgumentException("priority param could not be null");
+        if (callable == null)
+            throw new IllegalArgumentException("callable param could not be null");
+
+        final VKCall call = VKCall.current();
+
+        if (call == null) {
+            final VKCall priorityCall = new VKCall();
+            priorityCall.setPriority(priority);
+            VKCall.setCurrent(priorityCall);
+            try {
+                return callable.call();
+            } finally {
+                VKCall.setCurrent(null);
+            }
+        }
+
+        final VKRequestScheduler.Priority previousPriority = call.getPriority();
+        call.setPriority(priority);
+        try {
+            return callable.call();
+        } finally {
+            call.setPriority(previousPriority);
+        }
+    }
+
+    /**
+     * Executing blocking api code with deadline: all requests of callable fail with SocketTimeoutException
+     * after timeout, connect and read timeouts of requests are shortened to fit into it <br/>
+     * Nested deadlines could only shorten outer deadline
+     * @param timeout in millis, should be positive
+     * @param callable to execute by current thread, null is denied
+     * @return result of callable
+     * @throws Exception of callable
+     * @see VKAsyncApi#submit(java.util.concurrent.Callable, long)
+     */
+    public <T> T callWithTimeout(long timeout, Callable<T> callable) throws Exception {
+        if (timeout <= 0)
+            throw new InvalidParameterException("timeout should be positive");
+        if (callable == null)
+            throw new IllegalArgumentException("callable param could not be null");
+
+        final long deadline = System.currentTimeMillis() + timeout;
+        final VKCall call = VKCall.current();
+
+        if (call == null) {
+            final VKCall deadlineCall = new VKCall();
+            deadlineCall.setDeadline(deadline);
+            VKCall.setCurrent(deadlineCall);
+            try {
+                return callable.call();
+            } finally {
+                VKCall.setCurrent(null);
+            }
+        }
+
+        final long previousDeadline = call.getDeadline();
+        call.setDeadline(previousDeadline == 0 ? deadline : Math.min(previousDeadline, deadline));
+        try {
+            return callable.call();
+        } finally {
+            call.setDeadline(previousDeadline);
+        }
+    }
+
+    /**
+     * Enabling pooled transport mode: queries will reuse keep-alive connections from the pool
+     * instead of opening new connection for every query
+     * @param connectionPool to use, put null to disable pooling (default)
+     * @see #setTransport(VKTransport)
+     */
+    public void setConnectionPool(VKConnectionPool connectionPool) {
+        setTransport(connectionPool);
+    }
+
+    /**
+     * @return current connection pool or null if pooling is disabled
+     */
+    public VKConnectionPool getConnectionPool() {
+        final VKTransport transport = this.transport;
+        return transport instanceof VKConnectionPool ? (VKConnectionPool) transport : null;
+    }
+
+    /**
+     * Setting transport, which sends http requests
+     * @param transport to use, put null to use default VKHttpURLConnectionTransport
+     * @see VKConnectionPool
+     */
+    public void setTransport(VKTransport transport) {
+        this.transport = transport != null ? transport : DEFAULT_TRANSPORT;
+    }
+
+    /**
+     * @return current transport, never returns null
+     */
+    public VKTransport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Setting url of api methods, useful to test your code with stub server
+     * @param baseUrl url, which method name is appended to, for example: "http://127.0.0.1:8080/method/",
+     *                put null to use default "https://api.vk.com/method/"
+     */
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl != null ? baseUrl : BASIC_API_URL;
+    }
+
+    /**
+     * @return current url of api methods
+     */
+    public String getBaseUrl() {
+        return this.baseUrl;
+    }
+
+    /**
+     * Setting executor, which will execute async api calls
+     * @param asyncExecutor to use, put null to use default executor
+     *                      with ASYNC_THREADS_COUNT_DEFAULT daemon threads
+     * @see #async
+     */
+    public synchronized void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @return executor for async api calls, never returns null
+     */
+    public synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = Executors.newFixedThreadPool(ASYNC_THREADS_COUNT_DEFAULT, new ThreadFactory() {
+                private int threadNumber;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VKApi-async-" + (++threadNumber));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Enabling/Disabling batching of queries <br/>
+     * If enabled, queries from different threads which come during batch window
+     * are sent as one "execute" query (up to 25 queries), so it reduces count of http requests,
+     * but every query waits for batch window
+     * @param enabled true to enable batching, false to disable (default)
+     * @see #setRequestBatchWindow(int)
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=execute">Documentation on vk.com</a>
+     */
+    public synchronized void setRequestBatching(boolean enabled) {
+        if (!enabled) {
+            requestBatcher = null;
+        } else if (requestBatcher == null) {
+            requestBatcher = new VKRequestBatcher(this, REQUEST_BATCH_WINDOW_DEFAULT);
+        }
+    }
+
+    /**
+     * @return true if batching of queries is enabled
+     */
+    public boolean getRequestBatching() {
+        return requestBatcher != null;
+    }
+
+    /**
+     * Setting time while batch of queries is collected
+     * @param window in millis, could not be negative
+     * @throws InvalidParameterException if window is negative
+     * @throws IllegalStateException if batching is disabled
+     */
+    public synchronized void setRequestBatchWindow(int window) throws InvalidParameterException {
+        if (window < 0)
+            throw new InvalidParameterException("Batch window could not be negative");
+        if (requestBatcher == null)
+            throw new IllegalStateException("Request batching is disabled");
+        requestBatcher.setWindow(window);
+    }
+
+    /**
+     * Enabling/Disabling coalescing of equal concurrent queries <br/>
+     * If enabled, query with same method, params and parser as query in flight
+     * does not send http request, but waits for query in flight and gets its result <br/>
+     * Result objects are shared between coalesced callers, so they should not be modified
+     * @param enabled true to enable coalescing, false to disable (default)
+     */
+    public synchronized void setRequestCoalescing(boolean enabled) {
+        if (!enabled) {
+            requestCoalescer = null;
+        } else if (requestCoalescer == null) {
+            requestCoalescer = new VKRequestCoalescer(this);
+        }
+    }
+
+    /**
+     * @return true if coalescing of equal concurrent queries is enabled
+     */
+    public boolean getRequestCoalescing() {
+        return requestCoalescer != null;
+    }
+
+    /**
+     * @return count of queries, which got result of equal query in flight instead of sending http request,
+     * 0 if coalescing is disabled
+     */
+    public long getCoalescedRequestCount() {
+        final VKRequestCoalescer requestCoalescer = this.requestCoalescer;
+        return requestCoalescer != null ? requestCoalescer.getCoalescedCount() : 0;
+    }
+
+    /**
+     * Setting max count of concurrently sent chunks of bulk query <br/>
+     * Calling thread sends chunks too, other chunks are sent by async executor
+     * @param bulkParallelism should be positive
+     * @throws InvalidParameterException if bulkParallelism is not positive
+     * @see VKUsersApi#getBulk(java.util.Collection, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase)
+     * @see VKGroupsApi#getByIdBulk(java.util.Collection, com.artemzin.android.vk.api.elements.VKGroup.Fields[])
+     */
+    public void setBulkParallelism(int bulkParallelism) throws InvalidParameterException {
+        if (bulkParallelism <= 0)
+            throw new InvalidParameterException("bulkParallelism should be positive");
+        this.bulkParallelism = bulkParallelism;
+    }
+
+    /**
+     * @return max count of concurrently sent chunks of bulk query
+     */
+    public int getBulkParallelism() {
+        return this.bulkParallelism;
+    }
+
+    /**
+     * Setting client side limiter of requests per second <br/>
+     * Every http request (including retries) waits for permit of its access token
+     * @param rateLimiter to use, could be shared between VKApi instances, put null to disable limiting (default)
+     */
+    public void setRateLimiter(VKRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return current limiter of requests per second or null if limiting is disabled
+     */
+    public VKRateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Setting scheduler of requests with priority lanes <br/>
+     * Every http request (including retries) waits for permit of its access token in lane of its priority,
+     * so interactive requests are not delayed by background ones, usually it replaces rate limiter
+     * @param requestScheduler to use, could be shared between VKApi instances, put null to disable scheduling (default)
+     * @see #callWithPriority(VKRequestScheduler.Priority, java.util.concurrent.Callable)
+     */
+    public void setRequestScheduler(VKRequestScheduler requestScheduler) {
+        this.requestScheduler = requestScheduler;
+    }
+
+    /**
+     * @return current scheduler of requests or null if scheduling is disabled
+     */
+    public VKRequestScheduler getRequestScheduler() {
+        return this.requestScheduler;
+    }
+
+    /**
+     * Setting instrumentation, which receives measurements of every attempt of request:
+     * phases latencies, received bytes and error
+     * @param instrumentation to use, for example VKMetrics, put null to disable instrumentation (default)
+     */
+    public void setInstrumentation(VKInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * @return current instrumentation or null if it is disabled
+     */
+    public VKInstrumentation getInstrumentation() {
+        return this.instrumentation;
+    }
+
+    /**
+     * Setting cache of users <br/>
+     * If set, users.get takes cached users from it and requests only missed uIds,
+     * users.get and friends.get with users put results to it
+     * @param userCache to use, could be shared between VKApi instances of one user, put null to disable caching (default)
+     */
+    public void setUserCache(VKUserCache userCache) {
+        this.userCache = userCache;
+    }
+
+    /**
+     * @return current cache of users or null if caching is disabled
+     */
+    public VKUserCache getUserCache() {
+        return this.userCache;
     }
 
     /**
@@ -182,7 +736,7 @@ public class VKApi {
     }
 
     /**
-     * Setting new connection timeout for network operations
+     * Setting new connection timeout for network operations, it is used as connect and read timeouts
      * @param connectionTimeout in millis
      * @throws java.security.InvalidParameterException if connection timeout negative or zero
      */
@@ -192,7 +746,8 @@ public class VKApi {
         } else if (connectionTimeout == 0) {
             throw new InvalidParameterException("Connection timeout could not be zero");
         } else {
-            this.connectionTimeout = connectionTimeout;
+            this.connectTimeout = connectionTimeout;
+            this.readTimeout = connectionTimeout;
         }
     }
 
@@ -202,14 +757,15 @@ public class VKApi {
      * @return url with needed GET params
      */
     String createRequestUrl(VKRequestParams requestParams) {
-        StringBuilder requestUrl = new StringBuilder(BASIC_API_URL);
-        requestUrl.append(requestParams.apiMethodName).append("?");
-        requestUrl.append(requestParams.getParamsAsRequestString());
-        if (requestUrl.length() != 0) {
-            requestUrl.append("&");
+        // Url is written to reusable builder of thread, so only result string is created
+        final StringBuilder requestUrl = VKQueryEncoder.obtainBuilder();
+        requestUrl.append(baseUrl).append(requestParams.apiMethodName).append('?');
+        requestParams.appendParamsAsRequestString(requestUrl);
+        if (!requestParams.isEmpty()) {
+            requestUrl.append('&');
         }
         requestUrl.append("access_token=").append(accessToken);
-        return requestUrl.toString();
+        return VKQueryEncoder.release(requestUrl);
     }
 
     /**
@@ -220,31 +776,410 @@ public class VKApi {
      * @throws java.io.IOException
      * @throws VKException if vk.com response contains error code
      */
-    JSONObject sendRequest(VKRequestParams requestParams) throws Exception {
-        final String requestUrl = createRequestUrl(requestParams);
-        String response = null;
+    JSONObject sendRequest(final VKRequestParams requestParams) throws Exception {
+        final VKRequestCoalescer requestCoalescer = this.requestCoalescer;
+        if (requestCoalescer != null) {
+            return requestCoalescer.execute(requestParams, null, new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() throws Exception {
+                    return sendRequestUncoalesced(requestParams);
+                }
+            });
+        }
+        return sendRequestUncoalesced(requestParams);
+    }
+
+    private JSONObject sendRequestUncoalesced(VKRequestParams requestParams) throws Exception {
+        final VKRequestBatcher requestBatcher = this.requestBatcher;
+        if (requestBatcher != null && VKRequestBatcher.isBatchable(requestParams)) {
+            return requestBatcher.send(requestParams);
+        }
+        return sendRequestDirect(requestParams);
+    }
+
+    /**
+     * Sending request to vk.com api with needed params and parsing server reply directly from response stream
+     * without creating String and JSONObject with whole server reply
+     * @param requestParams container with params to send
+     * @param responseParser parser of "response" field of server reply
+     * @return result of responseParser
+     * @throws Exception
+     * @throws java.io.IOException
+     * @throws VKException if vk.com response contains error code
+     */
+    <T> T sendRequest(final VKRequestParams requestParams,
+                      final VKResponseParser<T> responseParser) throws Exception {
+        final VKRequestCoalescer requestCoalescer = this.requestCoalescer;
+        if (requestCoalescer != null) {
+            return requestCoalescer.execute(requestParams, responseParser, new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return sendRequestUncoalesced(requestParams, responseParser);
+                }
+            });
+        }
+        return sendRequestUncoalesced(requestParams, responseParser);
+    }
+
+    private <T> T sendRequestUncoalesced(VKRequestParams requestParams,
+                                         VKResponseParser<T> responseParser) throws Exception {
+        final VKRequestBatcher requestBatcher = this.requestBatcher;
+        if (requestBatcher != null && VKRequestBatcher.isBatchable(requestParams)) {
+            // Batched reply is already parsed to JSONObject, so parsing its string form
+            final JSONObject json = requestBatcher.send(requestParams);
+            return parseResponse(new VKJSONReader(new StringReader(json.toString())), responseParser);
+        }
+        return sendRequestDirect(requestParams, responseParser);
+    }
+
+    /**
+     * Sending request to vk.com api with needed params without batching
+     * @param requestParams container with params to send
+     * @return JSONObject with server reply
+     * @throws Exception
+     * @throws java.io.IOException
+     * @throws VKException if vk.com response contains error code
+     */
+    JSONObject sendRequestDirect(VKRequestParams requestParams) throws Exception {
+        return sendRequestWithRetries(requestParams.apiMethodName, createRequestUrl(requestParams),
+                requestDeadline(requestParams), requestPriority(requestParams), circuitBreaker, jsonBodyHandler);
+    }
+
+    /**
+     * Sending request of batch to vk.com api without circuit breaker,
+     * because batched queries are checked and recorded by circuit breaker under their own api methods
+     * @param requestParams container with params to send
+     * @return JSONObject with server reply
+     * @throws Exception
+     * @throws java.io.IOException
+     * @throws VKException if vk.com response contains error code
+     * @see VKRequestBatcher#send(VKRequestParams)
+     */
+    JSONObject sendBatchedRequest(VKRequestParams requestParams) throws Exception {
+        return sendRequestWithRetries(requestParams.apiMethodName, createRequestUrl(requestParams),
+                requestDeadline(requestParams), requestPriority(requestParams), null, jsonBodyHandler);
+    }
+
+    /**
+     * Sending request to vk.com api with needed params without batching and parsing server reply from response stream
+     * @param requestParams container with params to send
+     * @param responseParser parser of "response" field of server reply
+     * @return result of responseParser
+     * @throws Exception
+     * @throws java.io.IOException
+     * @throws VKException if vk.com response contains error code
+     */
+    <T> T sendRequestDirect(VKRequestParams requestParams, final VKResponseParser<T> responseParser) throws Exception {
+        return sendRequestWithRetries(requestParams.apiMethodName, createRequestUrl(requestParams),
+                requestDeadline(requestParams), requestPriority(requestParams), circuitBreaker, new ResponseBodyHandler<T>() {
+            @Override
+            public T handle(InputStream body, long contentLength) throws Exception {
+                final VKUtf8Reader reader = new VKUtf8Reader(body);
+                try {
+                    return parseResponse(new VKJSONReader(reader), responseParser);
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculating deadline of request of current thread: the earliest of deadlines of request params,
+     * call of current thread and request timeout <br/>
+     * If current thread executes request shared between several callers,
+     * it is deadline of shared call, which is already merged from deadlines of callers
+     * @param requestParams of request
+     * @return deadline in millis, 0 if request has no deadline
+     */
+    long requestDeadline(VKRequestParams requestParams) {
+        final VKCall call = VKCall.current();
+        if (call != null && call.isShared())
+            return call.getDeadline();
+        long deadline = earliestDeadline(requestParams.getDeadline(), call != null ? call.getDeadline() : 0);
+        if (requestTimeout > 0) {
+            deadline = earliestDeadline(deadline, System.currentTimeMillis() + requestTimeout);
+        }
+        return deadline;
+    }
+
+    /**
+     * Choosing priority of request of current thread in request scheduler <br/>
+     * If current thread executes request shared between several callers,
+     * priority of request params is ignored, because priority of shared call is already merged from priorities of callers
+     * @param requestParams of request
+     * @return priority of request, null if scheduling is disabled
+     */
+    VKRequestScheduler.Priority requestPriority(VKRequestParams requestParams) {
+        final VKRequestScheduler requestScheduler = this.requestScheduler;
+        if (requestScheduler == null)
+            return null;
+        final VKCall call = VKCall.current();
+        return requestScheduler.priorityOf(requestParams.apiMethodName,
+                call != null && call.isShared() ? null : requestParams.getPriority());
+    }
+
+    /**
+     * Parsing server reply: checking it for error and parsing "response" field
+     * Error is detected on the fly, without reading of whole reply
+     * @param reader positioned at server reply
+     * @param responseParser parser of "response" field
+     * @return result of responseParser
+     * @throws VKException if vk.com response contains error code
+     * @throws Exception if server reply is incorrect
+     */
+    static <T> T parseResponse(VKJSONReader reader, VKResponseParser<T> responseParser) throws Exception {
+        T result = null;
+        boolean hasResponse = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name.equals("error")) {
+                throw VKUtils.readVKError(reader);
+            } else if (name.equals("response") && !hasResponse) {
+                result = responseParser.parseResponse(reader);
+                hasResponse = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasResponse)
+            throw new Exception(EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+        return result;
+    }
+
+    /**
+     * Handler of http response body
+     */
+    private interface ResponseBodyHandler<T> {
+
+        /**
+         * @param body of http response, it will be closed after handling
+         * @param contentLength of decoded body in bytes, -1 if it is unknown
+         */
+        T handle(InputStream body, long contentLength) throws Exception;
+    }
+
+    /**
+     * Reads whole http response body as String
+     */
+    private static final ResponseBodyHandler<String> STRING_BODY_HANDLER = new ResponseBodyHandler<String>() {
+        @Override
+        public String handle(InputStream body, long contentLength) throws Exception {
+            return VKUtils.convertStreamToString(body, contentLength);
+        }
+    };
+
+    /**
+     * Reads whole http response body as JSONObject and checks it for vk.com error,
+     * so errors are checked inside of retry loop
+     */
+    private final ResponseBodyHandler<JSONObject> jsonBodyHandler = new ResponseBodyHandler<JSONObject>() {
+        @Override
+        public JSONObject handle(InputStream body, long contentLength) throws Exception {
+            final String response = VKUtils.convertStreamToString(body, contentLength);
+            log(Log.DEBUG, "Server response: " + response);
+            JSONObject json = new JSONObject(response);
+            VKUtils.checkJSONForVKError(json);
+            return json;
+        }
+    };
+
+    /**
+     * Sending http request, retrying it if it was failed because of network problems
+     * or retryable vk.com error of retry policy
+     * @param apiMethodName name of api method, could be null if it is unknown
+     * @param requestUrl is url with get params
+     * @param deadline of request, 0 if there is no deadline
+     * @param priority of request, null if it was not set
+     * @param circuitBreaker which checks and records request, null if request should not be checked
+     * @param bodyHandler handler of response body
+     * @return result of bodyHandler
+     * @throws java.net.SocketTimeoutException if deadline of request, its call or request timeout was exceeded
+     * @throws Exception if request was failed
+     */
+    private <T> T sendRequestWithRetries(String apiMethodName, String requestUrl, long deadline,
+                                         VKRequestScheduler.Priority priority, VKCircuitBreaker circuitBreaker,
+                                         ResponseBodyHandler<T> bodyHandler) throws Exception {
         log(Log.DEBUG, "Request url: " + requestUrl);
-        for (int i = 1; i <= queryRetryLimit; i++) {
+        final VKCall call = VKCall.current();
+        final VKRetryPolicy retryPolicy = this.retryPolicy;
+        final int maxAttempts = Math.max(1, retryPolicy != null ? retryPolicy.getMaxAttempts() : this.queryRetryLimit);
+        if (apiMethodName == null) {
+            circuitBreaker = null;
+        }
+        final VKRequestScheduler requestScheduler = this.requestScheduler;
+        if (requestScheduler != null) {
+            priority = requestScheduler.priorityOf(apiMethodName, priority);
+        }
+        final VKInstrumentation instrumentation = this.instrumentation;
+        for (int i = 1; ; i++) {
+            VKCall.throwIfCurrentCanceled();
+            if (call != null && call.isShared()) {
+                // Callers, who joined shared request after its first attempt, could extend its deadline and raise priority
+                deadline = call.getDeadline();
+                if (requestScheduler != null) {
+                    priority = requestScheduler.priorityOf(apiMethodName, null);
+                }
+            }
             if (i != 1) {
                 log(Log.WARN, "Request was failed, trying again (" + i + ")");
             }
+            final long queueStartTime = instrumentation != null ? System.nanoTime() : 0;
+            // Circuit is checked before waiting in scheduler and rate limiter, so open circuit fails fast
+            // and does not take permits from other requests
+            final boolean trialCall = circuitBreaker != null && circuitBreaker.acquire(apiMethodName);
+            final int connectTimeout;
+            final int readTimeout;
             try {
-                response = sendRequestInternal(requestUrl);
-                log(Log.DEBUG, "Server response: " + response);
-                break;
-            } catch (javax.net.ssl.SSLException e) {
-                if (i == this.queryRetryLimit) {
+                if (requestScheduler != null) {
+                    requestScheduler.acquire(accessToken, priority, deadline);
+                }
+                final VKRateLimiter rateLimiter = this.rateLimiter;
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(accessToken, deadline);
+                }
+                final int attemptTimeout = retryPolicy != null ? retryPolicy.getAttemptTimeout() : 0;
+                connectTimeout = timeoutBeforeDeadline(attemptTimeout > 0 ? attemptTimeout : this.connectTimeout, deadline);
+                readTimeout = timeoutBeforeDeadline(attemptTimeout > 0 ? attemptTimeout : this.readTimeout, deadline);
+            } catch (Exception e) {
+                if (circuitBreaker != null) {
+                    // Request was not sent, so trial call of half-open circuit is given back
+                    circuitBreaker.release(apiMethodName, trialCall);
+                }
+                throw e;
+            }
+            final VKAttemptTimer timer = instrumentation != null
+                    ? new VKAttemptTimer(i, System.nanoTime() - queueStartTime)
+                    : null;
+            final long attemptStartTime = System.currentTimeMillis();
+            try {
+                if (retryPolicy != null) {
+                    retryPolicy.onAttempt();
+                }
+                final T result;
+                if (timer != null) {
+                    VKAttemptTimer.setCurrent(timer);
+                }
+                try {
+                    result = sendRequestAttempt(apiMethodName, requestUrl, bodyHandler,
+                            connectTimeout, readTimeout, deadline, requestScheduler, priority);
+                } finally {
+                    if (timer != null) {
+                        VKAttemptTimer.setCurrent(null);
+                    }
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResult(apiMethodName, trialCall, System.currentTimeMillis() - attemptStartTime, null);
+                }
+                if (timer != null) {
+                    instrumentation.onAttempt(timer.toAttempt(apiMethodName, null));
+                }
+                return result;
+            } catch (Exception e) {
+                if (timer != null) {
+                    instrumentation.onAttempt(timer.toAttempt(apiMethodName, e));
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResult(apiMethodName, trialCall, System.currentTimeMillis() - attemptStartTime, e);
+                }
+                final boolean retryable = retryPolicy != null
+                        ? retryPolicy.isRetryable(e)
+                        : e instanceof javax.net.ssl.SSLException || e instanceof java.net.SocketException;
+                if (!retryable) {
                     throw e;
                 }
-            } catch (java.net.SocketException e) {
-                if (i == this.queryRetryLimit) {
+                VKCall.throwIfCurrentCanceled();
+                if (i >= maxAttempts) {
                     throw e;
                 }
+                if (retryPolicy != null) {
+                    if (!retryPolicy.tryAcquireRetry(System.currentTimeMillis() - attemptStartTime)) {
+                        log(Log.WARN, "Retry budget is exhausted");
+                        throw e;
+                    }
+                    final long backoff = retryPolicy.nextBackoff(i);
+                    if (deadline != 0 && System.currentTimeMillis() + backoff >= deadline) {
+                        // There is no time for next attempt
+                        throw e;
+                    }
+                    if (backoff > 0) {
+                        Thread.sleep(backoff);
+                    }
+                }
             }
         }
-        JSONObject json = new JSONObject(response);
-        VKUtils.checkJSONForVKError(json);
-        return json;
+    }
+
+    /**
+     * @return the earliest of two deadlines, 0 means no deadline
+     */
+    private static long earliestDeadline(long deadline1, long deadline2) {
+        if (deadline1 == 0)
+            return deadline2;
+        if (deadline2 == 0)
+            return deadline1;
+        return Math.min(deadline1, deadline2);
+    }
+
+    /**
+     * Shortening timeout to time left before deadline
+     * @param timeout in millis
+     * @param deadline 0 if there is no deadline
+     * @return timeout in millis, which ends not later than deadline
+     * @throws java.net.SocketTimeoutException if deadline was exceeded
+     */
+    private static int timeoutBeforeDeadline(int timeout, long deadline) throws java.net.SocketTimeoutException {
+        if (deadline == 0)
+            return timeout;
+        final long timeLeft = deadline - System.currentTimeMillis();
+        if (timeLeft <= 0)
+            throw new java.net.SocketTimeoutException("Request deadline exceeded");
+        return (int) Math.min(timeout, timeLeft);
+    }
+
+    /**
+     * Sending one attempt of http request, hedged if hedge policy is set
+     * @param apiMethodName name of api method, could be null if it is unknown
+     * @param requestUrl is url with get params
+     * @param bodyHandler handler of response body
+     * @param connectTimeout in millis
+     * @param readTimeout in millis
+     * @param deadline of request, 0 if there is no deadline
+     * @param requestScheduler scheduler, which gives permit to duplicate, null if scheduling is disabled
+     * @param priority of request in scheduler
+     * @return result of bodyHandler
+     * @throws Exception if request was failed
+     */
+    private <T> T sendRequestAttempt(final String apiMethodName, final String requestUrl,
+                                     final ResponseBodyHandler<T> bodyHandler,
+                                     final int connectTimeout, final int readTimeout, final long deadline,
+                                     final VKRequestScheduler requestScheduler,
+                                     final VKRequestScheduler.Priority priority) throws Exception {
+        final VKHedgePolicy hedgePolicy = this.hedgePolicy;
+        if (hedgePolicy == null || apiMethodName == null || !hedgePolicy.isHedged(apiMethodName)) {
+            return sendRequestInternal(apiMethodName, requestUrl, bodyHandler, connectTimeout, readTimeout);
+        }
+        return hedgePolicy.execute(this, apiMethodName, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return sendRequestInternal(apiMethodName, requestUrl, bodyHandler, connectTimeout, readTimeout);
+            }
+        }, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                // Duplicate is a request too, so it waits for its permit
+                if (requestScheduler != null) {
+                    requestScheduler.acquire(accessToken, priority, deadline);
+                }
+                final VKRateLimiter rateLimiter = VKApi.this.rateLimiter;
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(accessToken, deadline);
+                }
+                return sendRequestInternal(apiMethodName, requestUrl, bodyHandler, connectTimeout, readTimeout);
+            }
+        });
     }
 
     /**
@@ -255,36 +1190,76 @@ public class VKApi {
      * @throws Exception if problem with server response code, may be keep-alive problem
      */
     String sendRequestInternal(final String requestUrl) throws Exception {
-        HttpURLConnection connection = null;
-        // Server response code
-        int responseCode;
+        return sendRequestInternal(null, requestUrl, STRING_BODY_HANDLER, this.connectTimeout, this.readTimeout);
+    }
+
+    /**
+     * Sending http request
+     * @param apiMethodName name of api method, could be null if it is unknown
+     * @param requestUrl is url with get params
+     * @param bodyHandler handler of response body
+     * @param connectTimeout in millis
+     * @param readTimeout in millis
+     * @return result of bodyHandler
+     * @throws java.io.IOException if problems with input stream from server response
+     * @throws Exception if problem with server response code, may be keep-alive problem
+     */
+    private <T> T sendRequestInternal(String apiMethodName, String requestUrl, ResponseBodyHandler<T> bodyHandler,
+                                      int connectTimeout, int readTimeout) throws Exception {
+        final VKAdaptiveGzip adaptiveGzip = apiMethodName != null ? this.adaptiveGzip : null;
+        final boolean gzip = adaptiveGzip != null ? adaptiveGzip.shouldUseGzip(apiMethodName) : this.isGzipEnable;
+        final VKAttemptTimer timer = VKAttemptTimer.current();
         try {
-            connection = (HttpURLConnection) new URL(requestUrl).openConnection();
-            connection.setConnectTimeout(this.connectionTimeout);
-            connection.setReadTimeout(this.connectionTimeout);
-            connection.setUseCaches(false);
-            connection.setDoOutput(false);
-            connection.setDoInput(true);
-            if (this.isGzipEnable) {
-                connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (timer != null) {
+                timer.onSend();
             }
-            responseCode = connection.getResponseCode();
-            log(Log.DEBUG, "Server responce code: " + responseCode);
-            // Because of using keep-alive, we could get responseCode == -1
-            if (responseCode == -1) {
-                throw new Exception("Got response code -1, may be http keep-alive problem");
+            final VKTransport.Response response = transport.execute(new VKTransport.Request(requestUrl,
+                    gzip, connectTimeout, readTimeout));
+            if (timer != null) {
+                timer.onResponse();
             }
-            InputStream is = new BufferedInputStream(connection.getInputStream(), 8192);
-            final String contentEncoding = connection.getContentEncoding();
-            if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
-                is = new GZIPInputStream(is);
-            }
-            return VKUtils.convertStreamToString(is);
-        }
-        finally {
-            if (connection != null) {
-                connection.disconnect();
+            log(Log.DEBUG, "Server responce code: " + response.code);
+            InputStream is = response.body;
+            // Closing of stream releases connection
+            try {
+                // Because of using keep-alive, we could get responseCode == -1
+                if (response.code == -1)
+                    throw new Exception("Got response code -1, may be http keep-alive problem");
+                if (response.code >= 400)
+                    throw new java.io.IOException("Server returned HTTP response code: " + response.code);
+                long contentLength = response.contentLength;
+                final boolean gzipped = response.contentEncoding != null
+                        && response.contentEncoding.equalsIgnoreCase("gzip");
+                if (gzipped) {
+                    // Content-Length is size of compressed body
+                    contentLength = -1;
+                }
+                if (timer != null) {
+                    is = timer.measureRaw(is);
+                }
+                VKAdaptiveGzip.Measurement measurement = null;
+                if (adaptiveGzip != null) {
+                    measurement = adaptiveGzip.measure(apiMethodName, is, gzipped);
+                    is = measurement.getStream();
+                } else if (gzipped) {
+                    is = new GZIPInputStream(is);
+                }
+                if (timer != null) {
+                    is = timer.measureDecoded(is);
+                }
+                final T result = bodyHandler.handle(is, contentLength);
+                if (timer != null) {
+                    timer.onHandled();
+                }
+                if (measurement != null) {
+                    measurement.finish();
+                }
+                return result;
+            } finally {
+                is.close();
             }
+        } finally {
+            VKCall.setCurrentAbortHook(null);
         }
     }
 
@@ -298,4 +1273,15 @@ public class VKApi {
      */
     public final VKFriendsApi friends = new VKFriendsApi(this);
 
+    /**
+     * Use it to work with groups api
+     */
+    public final VKGroupsApi groups = new VKGroupsApi(this);
+
+    /**
+     * Use it to work with api asynchronously, for example: api.async.users.get(...)
+     * @see #setAsyncExecutor(java.util.concurrent.Executor)
+     */
+    public final VKAsyncApi async = new VKAsyncApi(this);
+
 }
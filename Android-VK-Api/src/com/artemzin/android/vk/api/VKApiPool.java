@@ -0,0 +1,446 @@
+package com.artemzin.android.vk.api;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Pool of VKApi instances with different access tokens for token-agnostic calls, for example users.get <br/>
+ * vk.com limits requests per second for every access token, so spreading of calls over many tokens
+ * multiplies total throughput: every call is routed to the healthy token, which request would be sent
+ * earliest by shared rate limiter, and then which has the least count of executing calls <br/>
+ * Token with error 5 "User authorization failed" becomes invalid and is not used until resetToken(),
+ * token with captcha (error 14) is blocked for captcha cooldown, token with error 6 "Too many requests per second"
+ * is blocked for flood cooldown, in all these cases call is repeated with other token
+ * @author Artem Zinnatullin
+ */
+public class VKApiPool {
+
+    /**
+     * Default time in millis, while token with captcha is not used
+     */
+    public static final long CAPTCHA_COOLDOWN_DEFAULT;
+
+    /**
+     * Default time in millis, while token with error 6 "Too many requests per second" is not used
+     */
+    public static final long FLOOD_COOLDOWN_DEFAULT;
+
+    private static final int ERROR_CODE_AUTHORIZATION_FAILED;
+
+    private static final int ERROR_CODE_TOO_MANY_REQUESTS;
+
+    private static final int ERROR_CODE_CAPTCHA_NEEDED;
+
+    static {
+        CAPTCHA_COOLDOWN_DEFAULT = 60000;
+        FLOOD_COOLDOWN_DEFAULT = 1000;
+        ERROR_CODE_AUTHORIZATION_FAILED = 5;
+        ERROR_CODE_TOO_MANY_REQUESTS = 6;
+        ERROR_CODE_CAPTCHA_NEEDED = 14;
+    }
+
+    /**
+     * Token-agnostic api call
+     */
+    public interface Call<T> {
+
+        /**
+         * Executing call with chosen VKApi
+         * @param api with chosen access token
+         * @return result of call
+         * @throws Exception if call was failed
+         */
+        T call(VKApi api) throws Exception;
+    }
+
+    /**
+     * State of access token
+     */
+    public enum TokenState {
+        /**
+         * Token is used for calls
+         */
+        HEALTHY,
+        /**
+         * Token is not used until cooldown ends, because of captcha or error 6
+         */
+        BLOCKED,
+        /**
+         * Token is not used until resetToken(), because of error 5
+         */
+        INVALID
+    }
+
+    /**
+     * Exception, which is thrown if there is no healthy token for call
+     */
+    public static class NoHealthyTokenException extends Exception {
+
+        private static final long serialVersionUID = 4127563470123985642L;
+
+        NoHealthyTokenException() {
+            super("There is no healthy access token in pool");
+        }
+    }
+
+    /**
+     * VKApi of one access token and its state
+     */
+    private static class Token {
+
+        final VKApi api;
+
+        int executingCount;
+
+        boolean invalid;
+
+        /**
+         * Time in millis, until which token is blocked, 0 if it is not blocked
+         */
+        long blockedUntil;
+
+        long callCount;
+
+        long captchaCount;
+
+        long floodCount;
+
+        Token(VKApi api) {
+            this.api = api;
+        }
+
+        TokenState getState(long now) {
+            if (invalid)
+                return TokenState.INVALID;
+            return blockedUntil > now ? TokenState.BLOCKED : TokenState.HEALTHY;
+        }
+    }
+
+    private final Token[] tokens;
+
+    private final VKRateLimiter rateLimiter;
+
+    private volatile long captchaCooldown = CAPTCHA_COOLDOWN_DEFAULT;
+
+    private volatile long floodCooldown = FLOOD_COOLDOWN_DEFAULT;
+
+    /**
+     * Index of token, from which next search starts, so equally loaded tokens are used in turn
+     */
+    private int nextIndex;
+
+    /**
+     * Creating pool with default rate limiter
+     * @param accessTokens access tokens, should not be empty
+     * @throws InvalidParameterException if accessTokens is null or empty
+     */
+    public VKApiPool(List<String> accessTokens) throws InvalidParameterException {
+        this(accessTokens, new VKRateLimiter());
+    }
+
+    /**
+     * Creating pool, VKApi instance is created for every access token and could be configured by getApis()
+     * @param accessTokens access tokens, should not be empty
+     * @param rateLimiter limiter, which is set to all VKApi instances of pool, null is denied
+     * @throws InvalidParameterException if accessTokens is null or empty
+     */
+    public VKApiPool(List<String> accessTokens, VKRateLimiter rateLimiter) throws InvalidParameterException {
+        if (accessTokens == null || accessTokens.isEmpty())
+            throw new InvalidParameterException("accessTokens could not be empty");
+        if (rateLimiter == null)
+            throw new IllegalArgumentException("rateLimiter param could not be null");
+
+        this.rateLimiter = rateLimiter;
+        tokens = new Token[accessTokens.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            final VKApi api = new VKApi(accessTokens.get(i));
+            api.setRateLimiter(rateLimiter);
+            tokens[i] = new Token(api);
+        }
+    }
+
+    /**
+     * @return unmodifiable list of VKApi instances of pool, in order of access tokens
+     */
+    public List<VKApi> getApis() {
+        final ArrayList<VKApi> apis = new ArrayList<VKApi>(tokens.length);
+        for (Token token : tokens) {
+            apis.add(token.api);
+        }
+        return Collections.unmodifiableList(apis);
+    }
+
+    /**
+     * @return rate limiter shared by VKApi instances of pool
+     */
+    public VKRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Setting time, while token with captcha is not used
+     * @param captchaCooldown in millis, could not be negative
+     * @return this pool
+     * @throws InvalidParameterException if captchaCooldown is negative
+     */
+    public VKApiPool setCaptchaCooldown(long captchaCooldown) throws InvalidParameterException {
+        if (captchaCooldown < 0)
+            throw new InvalidParameterException("captchaCooldown could not be negative");
+        this.captchaCooldown = captchaCooldown;
+        return this;
+    }
+
+    /**
+     * @return time in millis, while token with captcha is not used
+     */
+    public long getCaptchaCooldown() {
+        return captchaCooldown;
+    }
+
+    /**
+     * Setting time, while token with error 6 "Too many requests per second" is not used
+     * @param floodCooldown in millis, could not be negative
+     * @return this pool
+     * @throws InvalidParameterException if floodCooldown is negative
+     */
+    public VKApiPool setFloodCooldown(long floodCooldown) throws InvalidParameterException {
+        if (floodCooldown < 0)
+            throw new InvalidParameterException("floodCooldown could not be negative");
+        this.floodCooldown = floodCooldown;
+        return this;
+    }
+
+    /**
+     * @return time in millis, while token with error 6 "Too many requests per second" is not used
+     */
+    public long getFloodCooldown() {
+        return floodCooldown;
+    }
+
+    /**
+     * Executing call with the least loaded healthy token <br/>
+     * If token becomes invalid or blocked by call, call is repeated with other token,
+     * every token is tried at most once
+     * @param call to execute, null is denied
+     * @return result of call
+     * @throws NoHealthyTokenException if there is no healthy token, which was not tried yet
+     * @throws Exception if call was failed
+     */
+    public <T> T execute(Call<T> call) throws Exception {
+        if (call == null)
+            throw new IllegalArgumentException("call param could not be null");
+
+        final boolean[] tried = new boolean[tokens.length];
+        VKException lastTokenError = null;
+
+        for (int attempt = 0; attempt < tokens.length; attempt++) {
+            final Token token = acquire(tried);
+            if (token == null) {
+                if (lastTokenError != null)
+                    throw lastTokenError;
+                throw new NoHealthyTokenException();
+            }
+
+            try {
+                return call.call(token.api);
+            } catch (VKException e) {
+                if (!onTokenError(token, e))
+                    throw e;
+                lastTokenError = e;
+            } finally {
+                release(token);
+            }
+        }
+
+        throw lastTokenError;
+    }
+
+    /**
+     * Executing call with the least loaded healthy token asynchronously
+     * @param call to execute, null is denied
+     * @return Future with result of call
+     * @see #execute(com.artemzin.android.vk.api.VKApiPool.Call)
+     */
+    public <T> Future<T> submit(final Call<T> call) {
+        if (call == null)
+            throw new IllegalArgumentException("call param could not be null");
+
+        return tokens[0].api.async.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return execute(call);
+            }
+        });
+    }
+
+    /**
+     * Choosing healthy token, which request would be sent earliest, and then which has the least executing calls
+     * @param tried tokens, which should be skipped, chosen token is marked in it
+     * @return chosen token or null if there is no such token
+     */
+    private synchronized Token acquire(boolean[] tried) {
+        final long now = System.currentTimeMillis();
+        Token bestToken = null;
+        int bestIndex = -1;
+        long bestDelay = 0;
+
+        for (int i = 0; i < tokens.length; i++) {
+            final int index = (nextIndex + i) % tokens.length;
+            final Token token = tokens[index];
+            if (tried[index] || token.getState(now) != TokenState.HEALTHY)
+                continue;
+
+            final long delay = rateLimiter.getDelayNanos(token.api.getAccessToken());
+            if (bestToken == null || delay < bestDelay
+                    || (delay == bestDelay && token.executingCount < bestToken.executingCount)) {
+                bestToken = token;
+                bestIndex = index;
+                bestDelay = delay;
+                if (delay == 0 && token.executingCount == 0)
+                    break;
+            }
+        }
+
+        if (bestToken == null)
+            return null;
+
+        tried[bestIndex] = true;
+        nextIndex = (bestIndex + 1) % tokens.length;
+        bestToken.executingCount++;
+        bestToken.callCount++;
+        return bestToken;
+    }
+
+    private synchronized void release(Token token) {
+        token.executingCount--;
+    }
+
+    /**
+     * Updating state of token by error of its call
+     * @return true if error is caused by token and call could be repeated with other token
+     */
+    private synchronized boolean onTokenError(Token token, VKException e) {
+        if (e.errorCode == ERROR_CODE_AUTHORIZATION_FAILED) {
+            token.invalid = true;
+            return true;
+        }
+        if (e.errorCode == ERROR_CODE_CAPTCHA_NEEDED || e.isCaptchaAttached()) {
+            token.captchaCount++;
+            token.blockedUntil = System.currentTimeMillis() + captchaCooldown;
+            return true;
+        }
+        if (e.errorCode == ERROR_CODE_TOO_MANY_REQUESTS) {
+            token.floodCount++;
+            token.blockedUntil = System.currentTimeMillis() + floodCooldown;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Making token healthy again, for example after captcha was entered or token was refreshed
+     * @param accessToken to reset
+     * @return true if pool contains such token
+     */
+    public synchronized boolean resetToken(String accessToken) {
+        boolean found = false;
+        for (Token token : tokens) {
+            if (accessToken != null && accessToken.equals(token.api.getAccessToken())) {
+                token.invalid = false;
+                token.blockedUntil = 0;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return count of tokens, which are used for calls now
+     */
+    public synchronized int getHealthyTokenCount() {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        for (Token token : tokens) {
+            if (token.getState(now) == TokenState.HEALTHY)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Snapshot of state of access token
+     */
+    public static class TokenStatistics {
+
+        private TokenStatistics() {}
+
+        private TokenState state;
+
+        /**
+         * @return state of token at the moment of statistics creation
+         */
+        public TokenState getState() {
+            return state;
+        }
+
+        private int executingCount;
+
+        /**
+         * @return count of calls, which were executing with token at the moment of statistics creation
+         */
+        public int getExecutingCount() {
+            return executingCount;
+        }
+
+        private long callCount;
+
+        /**
+         * @return count of calls, which were routed to token
+         */
+        public long getCallCount() {
+            return callCount;
+        }
+
+        private long captchaCount;
+
+        /**
+         * @return count of calls, which got captcha
+         */
+        public long getCaptchaCount() {
+            return captchaCount;
+        }
+
+        private long floodCount;
+
+        /**
+         * @return count of calls, which got error 6 "Too many requests per second"
+         */
+        public long getFloodCount() {
+            return floodCount;
+        }
+    }
+
+    /**
+     * @return snapshot of states of tokens: map of access tokens to their statistics, never returns null
+     */
+    public synchronized Map<String, TokenStatistics> getStatistics() {
+        final long now = System.currentTimeMillis();
+        final HashMap<String, TokenStatistics> statistics = new HashMap<String, TokenStatistics>();
+        for (Token token : tokens) {
+            final TokenStatistics tokenStatistics = new TokenStatistics();
+            tokenStatistics.state = token.getState(now);
+            tokenStatistics.executingCount = token.executingCount;
+            tokenStatistics.callCount = token.callCount;
+            tokenStatistics.captchaCount = token.captchaCount;
+            tokenStatistics.floodCount = token.floodCount;
+            statistics.put(token.api.getAccessToken(), tokenStatistics);
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+}
@@ -0,0 +1,474 @@
+package com.artemzin.android.vk.api;
+
+import com.artemzin.android.vk.api.elements.VKGroup;
+import com.artemzin.android.vk.api.elements.VKUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * Asynchronous version of api <br/>
+ * Every method has same params as its blocking original and returns Future,
+ * calls are executed by VKApi async executor <br/>
+ * Future.cancel() aborts http exchange of canceled call
+ * @author Artem Zinnatullin
+ * @see VKApi#async
+ * @see VKApi#setAsyncExecutor(java.util.concurrent.Executor)
+ */
+public class VKAsyncApi {
+
+    private final VKApi api;
+
+    VKAsyncApi(VKApi api) {
+        this.api = api;
+        this.users = new Users();
+        this.friends = new Friends();
+        this.groups = new Groups();
+    }
+
+    /**
+     * Future, which aborts http exchange of its call on cancellation
+     */
+    private static class VKFuture<T> extends FutureTask<T> {
+
+        private final VKCall call;
+
+        VKFuture(final VKCall call, final Callable<T> callable) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    final VKCall previousCall = VKCall.current();
+                    VKCall.setCurrent(call);
+                    try {
+                        call.throwIfCanceled();
+                        return callable.call();
+                    } finally {
+                        VKCall.setCurrent(previousCall);
+                    }
+                }
+            });
+            this.call = call;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean canceled = super.cancel(mayInterruptIfRunning);
+            if (canceled) {
+                call.cancel();
+            }
+            return canceled;
+        }
+    }
+
+    /**
+     * Executing any blocking api code asynchronously <br/>
+     * Useful to combine several blocking calls into one Future
+     * @param callable to execute, null is denied
+     * @return Future with result of callable
+     */
+    public <T> Future<T> submit(Callable<T> callable) {
+        if (callable == null)
+            throw new IllegalArgumentException("callable param could not be null");
+
+        VKFuture<T> future = new VKFuture<T>(new VKCall(), callable);
+        api.getAsyncExecutor().execute(future);
+        return future;
+    }
+
+    /**
+     * Submitting task, which waiting thread could run itself by run() if executor did not start it yet,
+     * so thread of async executor could wait for such tasks without deadlock of bounded executor <br/>
+     * Task is part of call of current thread, so it gets its deadline and priority
+     * @param callable to execute, null is denied
+     * @return task, which is executed by async executor or by thread, which calls its run()
+     */
+    <T> RunnableFuture<T> fork(Callable<T> callable) {
+        if (callable == null)
+            throw new IllegalArgumentException("callable param could not be null");
+
+        VKFuture<T> future = new VKFuture<T>(VKCall.forkCurrent(), callable);
+        try {
+            api.getAsyncExecutor().execute(future);
+        } catch (RejectedExecutionException e) {
+            // Waiting thread runs task itself
+        }
+        return future;
+    }
+
+    /**
+     * Executing any blocking api code asynchronously with deadline <br/>
+     * Requests of callable fail with SocketTimeoutException after timeout, which includes
+     * time of waiting in executor queue, retries and backoff delays
+     * @param callable to execute, null is denied
+     * @param timeout in millis, should be positive
+     * @return Future with result of callable
+     * @see VKApi#callWithTimeout(long, java.util.concurrent.Callable)
+     */
+    public <T> Future<T> submit(Callable<T> callable, long timeout) {
+        if (callable == null)
+            throw new IllegalArgumentException("callable param could not be null");
+        if (timeout <= 0)
+            throw new IllegalArgumentException("timeout param should be positive");
+
+        final VKCall call = new VKCall();
+        call.setDeadline(System.currentTimeMillis() + timeout);
+        VKFuture<T> future = new VKFuture<T>(call, callable);
+        api.getAsyncExecutor().execute(future);
+        return future;
+    }
+
+    /**
+     * Use it to work with users api asynchronously
+     */
+    public final Users users;
+
+    /**
+     * Use it to work with friends api asynchronously
+     */
+    public final Friends friends;
+
+    /**
+     * Use it to work with groups api asynchronously
+     */
+    public final Groups groups;
+
+    /**
+     * Asynchronous version of users api
+     * @see VKUsersApi
+     */
+    public class Users {
+
+        private Users() {}
+
+        /**
+         * @see VKUsersApi#isAppUser(Long)
+         */
+        public Future<Boolean> isAppUser(final Long uId) {
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return api.users.isAppUser(uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKUsersApi#get(java.util.ArrayList, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase)
+         */
+        public Future<ArrayList<VKUser>> get(final ArrayList<Long> uIds,
+                                             final String[] fields,
+                                             final VKUser.NameCase nameCase) {
+            return submit(new Callable<ArrayList<VKUser>>() {
+                @Override
+                public ArrayList<VKUser> call() throws Exception {
+                    return api.users.get(uIds, fields, nameCase);
+                }
+            });
+        }
+
+        /**
+         * @see VKUsersApi#getBulk(java.util.Collection, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase)
+         */
+        public Future<VKBulkResult<VKUser>> getBulk(final Collection<Long> uIds,
+                                                    final String[] fields,
+                                                    final VKUser.NameCase nameCase) {
+            return submit(new Callable<VKBulkResult<VKUser>>() {
+                @Override
+                public VKBulkResult<VKUser> call() throws Exception {
+                    return api.users.getBulk(uIds, fields, nameCase);
+                }
+            });
+        }
+
+        /**
+         * @see VKUsersApi#search(String, String[], Integer, Integer)
+         */
+        public Future<ArrayList<VKUser>> search(final String q, final String[] fields,
+                                                final Integer count, final Integer offset) {
+            return submit(new Callable<ArrayList<VKUser>>() {
+                @Override
+                public ArrayList<VKUser> call() throws Exception {
+                    return api.users.search(q, fields, count, offset);
+                }
+            });
+        }
+
+        /**
+         * @see VKUsersApi#getUserSettings(Long)
+         */
+        public Future<Integer> getUserSettings(final Long uId) {
+            return submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return api.users.getUserSettings(uId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Asynchronous version of friends api
+     * @see VKFriendsApi
+     */
+    public class Friends {
+
+        private Friends() {}
+
+        /**
+         * @see VKFriendsApi#get(Long)
+         */
+        public Future<ArrayList<Long>> get(final Long uId) {
+            return submit(new Callable<ArrayList<Long>>() {
+                @Override
+                public ArrayList<Long> call() throws Exception {
+                    return api.friends.get(uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getIdList(Long)
+         */
+        public Future<VKIdList> getIdList(final Long uId) {
+            return submit(new Callable<VKIdList>() {
+                @Override
+                public VKIdList call() throws Exception {
+                    return api.friends.getIdList(uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#get(Long, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase, Integer, Integer, Long, com.artemzin.android.vk.api.VKFriendsApi.Order)
+         */
+        public Future<ArrayList<VKUser>> get(final Long uId, final String[] fields,
+                                             final VKUser.NameCase nameCase, final Integer count,
+                                             final Integer offset, final Long lId,
+                                             final VKFriendsApi.Order order) {
+            return submit(new Callable<ArrayList<VKUser>>() {
+                @Override
+                public ArrayList<VKUser> call() throws Exception {
+                    return api.friends.get(uId, fields, nameCase, count, offset, lId, order);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getAppUsers()
+         */
+        public Future<ArrayList<Long>> getAppUsers() {
+            return submit(new Callable<ArrayList<Long>>() {
+                @Override
+                public ArrayList<Long> call() throws Exception {
+                    return api.friends.getAppUsers();
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getAppUsersIdList()
+         */
+        public Future<VKIdList> getAppUsersIdList() {
+            return submit(new Callable<VKIdList>() {
+                @Override
+                public VKIdList call() throws Exception {
+                    return api.friends.getAppUsersIdList();
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getOnline(Long)
+         */
+        public Future<ArrayList<Long>> getOnline(final Long uId) {
+            return submit(new Callable<ArrayList<Long>>() {
+                @Override
+                public ArrayList<Long> call() throws Exception {
+                    return api.friends.getOnline(uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getOnlineIdList(Long)
+         */
+        public Future<VKIdList> getOnlineIdList(final Long uId) {
+            return submit(new Callable<VKIdList>() {
+                @Override
+                public VKIdList call() throws Exception {
+                    return api.friends.getOnlineIdList(uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getMutual(Long, Long)
+         */
+        public Future<ArrayList<Long>> getMutual(final Long targetUid, final Long sourceUid) {
+            return submit(new Callable<ArrayList<Long>>() {
+                @Override
+                public ArrayList<Long> call() throws Exception {
+                    return api.friends.getMutual(targetUid, sourceUid);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#getMutualIdList(Long, Long)
+         */
+        public Future<VKIdList> getMutualIdList(final Long targetUid, final Long sourceUid) {
+            return submit(new Callable<VKIdList>() {
+                @Override
+                public VKIdList call() throws Exception {
+                    return api.friends.getMutualIdList(targetUid, sourceUid);
+                }
+            });
+        }
+
+        /**
+         * @see VKFriendsApi#areFriends(java.util.ArrayList)
+         */
+        public Future<ArrayList<VKFriendsApi.FriendShipStatus>> areFriends(final ArrayList<Long> uIds) {
+            return submit(new Callable<ArrayList<VKFriendsApi.FriendShipStatus>>() {
+                @Override
+                public ArrayList<VKFriendsApi.FriendShipStatus> call() throws Exception {
+                    return api.friends.areFriends(uIds);
+                }
+            });
+        }
+    }
+
+    /**
+     * Asynchronous version of groups api
+     * @see VKGroupsApi
+     */
+    public class Groups {
+
+        private Groups() {}
+
+        /**
+         * @see VKGroupsApi#get(Long, com.artemzin.android.vk.api.VKGroupsApi.Filter[], Integer, Integer)
+         */
+        public Future<VKGroupsApi.GIdsWithCountContainer> get(final Long uId, final VKGroupsApi.Filter[] filter,
+                                                              final Integer offset, final Integer count) {
+            return submit(new Callable<VKGroupsApi.GIdsWithCountContainer>() {
+                @Override
+                public VKGroupsApi.GIdsWithCountContainer call() throws Exception {
+                    return api.groups.get(uId, filter, offset, count);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#getIdList(Long, com.artemzin.android.vk.api.VKGroupsApi.Filter[], Integer, Integer)
+         */
+        public Future<VKGroupsApi.GIdListWithCountContainer> getIdList(final Long uId,
+                                                                       final VKGroupsApi.Filter[] filter,
+                                                                       final Integer offset,
+                                                                       final Integer count) {
+            return submit(new Callable<VKGroupsApi.GIdListWithCountContainer>() {
+                @Override
+                public VKGroupsApi.GIdListWithCountContainer call() throws Exception {
+                    return api.groups.getIdList(uId, filter, offset, count);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#getExtended(Long, com.artemzin.android.vk.api.VKGroupsApi.Filter[], com.artemzin.android.vk.api.elements.VKGroup.Fields[], Integer, Integer)
+         */
+        public Future<VKGroupsApi.VKGroupsWithCountContainer> getExtended(final Long uId,
+                                                                          final VKGroupsApi.Filter[] filter,
+                                                                          final VKGroup.Fields[] fields,
+                                                                          final Integer offset,
+                                                                          final Integer count) {
+            return submit(new Callable<VKGroupsApi.VKGroupsWithCountContainer>() {
+                @Override
+                public VKGroupsApi.VKGroupsWithCountContainer call() throws Exception {
+                    return api.groups.getExtended(uId, filter, fields, offset, count);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#getById(java.util.ArrayList, com.artemzin.android.vk.api.elements.VKGroup.Fields[])
+         */
+        public Future<ArrayList<VKGroup>> getById(final ArrayList<Long> gIds, final VKGroup.Fields[] fields) {
+            return submit(new Callable<ArrayList<VKGroup>>() {
+                @Override
+                public ArrayList<VKGroup> call() throws Exception {
+                    return api.groups.getById(gIds, fields);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#getByIdBulk(java.util.Collection, com.artemzin.android.vk.api.elements.VKGroup.Fields[])
+         */
+        public Future<VKBulkResult<VKGroup>> getByIdBulk(final Collection<Long> gIds,
+                                                         final VKGroup.Fields[] fields) {
+            return submit(new Callable<VKBulkResult<VKGroup>>() {
+                @Override
+                public VKBulkResult<VKGroup> call() throws Exception {
+                    return api.groups.getByIdBulk(gIds, fields);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#isMember(String, Long)
+         */
+        public Future<Boolean> isMember(final String gId, final Long uId) {
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return api.groups.isMember(gId, uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#isMember(long, Long)
+         */
+        public Future<Boolean> isMember(long gId, Long uId) {
+            return isMember(String.valueOf(gId), uId);
+        }
+
+        /**
+         * @see VKGroupsApi#isMemberExtended(String, Long)
+         */
+        public Future<VKGroupsApi.IsMemberExtendedContainer> isMemberExtended(final String gId, final Long uId) {
+            return submit(new Callable<VKGroupsApi.IsMemberExtendedContainer>() {
+                @Override
+                public VKGroupsApi.IsMemberExtendedContainer call() throws Exception {
+                    return api.groups.isMemberExtended(gId, uId);
+                }
+            });
+        }
+
+        /**
+         * @see VKGroupsApi#isMemberExtended(long, Long)
+         */
+        public Future<VKGroupsApi.IsMemberExtendedContainer> isMemberExtended(long gId, Long uId) {
+            return isMemberExtended(String.valueOf(gId), uId);
+        }
+
+        /**
+         * @see VKGroupsApi#search(String, Integer, Integer)
+         */
+        public Future<VKGroupsApi.VKGroupsWithCountContainer> search(final String q, final Integer offset,
+                                                                     final Integer count) {
+            return submit(new Callable<VKGroupsApi.VKGroupsWithCountContainer>() {
+                @Override
+                public VKGroupsApi.VKGroupsWithCountContainer call() throws Exception {
+                    return api.groups.search(q, offset, count);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.artemzin.android.vk.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Timer of phases of one attempt of request, bound to the thread which sends request,
+ * so transport could report establishing of connection
+ * @author Artem Zinnatullin
+ * @see VKInstrumentation
+ */
+class VKAttemptTimer {
+
+    /**
+     * Timer of attempt, which is sending by current thread
+     */
+    private static final ThreadLocal<VKAttemptTimer> CURRENT = new ThreadLocal<VKAttemptTimer>();
+
+    /**
+     * @return timer of attempt, which is sending by current thread, or null if attempts are not measured
+     */
+    static VKAttemptTimer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binding timer to current thread
+     * @param timer to bind, put null to unbind
+     */
+    static void setCurrent(VKAttemptTimer timer) {
+        if (timer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(timer);
+        }
+    }
+
+    /**
+     * Reporting, that transport established connection (or took it from pool) for attempt of current thread
+     */
+    static void markCurrentConnected() {
+        final VKAttemptTimer timer = current();
+        if (timer != null) {
+            timer.connectedTime = System.nanoTime();
+        }
+    }
+
+    private final int number;
+
+    private final long queueTime;
+
+    private long sendTime;
+
+    private long connectedTime;
+
+    private long responseTime;
+
+    private long handledTime;
+
+    private MeasuredInputStream raw;
+
+    private MeasuredInputStream decoded;
+
+    /**
+     * @param number of attempt, starting from 1
+     * @param queueTime time in nanos of waiting for permit
+     */
+    VKAttemptTimer(int number, long queueTime) {
+        this.number = number;
+        this.queueTime = queueTime;
+    }
+
+    /**
+     * Marking start of sending of request
+     */
+    void onSend() {
+        sendTime = System.nanoTime();
+        connectedTime = 0;
+    }
+
+    /**
+     * Marking receiving of response headers
+     */
+    void onResponse() {
+        responseTime = System.nanoTime();
+    }
+
+    /**
+     * Marking end of handling of response body
+     */
+    void onHandled() {
+        handledTime = System.nanoTime();
+    }
+
+    /**
+     * @param body response body as it was received
+     * @return stream, which counts received bytes
+     */
+    InputStream measureRaw(InputStream body) {
+        raw = new MeasuredInputStream(body);
+        return raw;
+    }
+
+    /**
+     * @param body decoded response body
+     * @return stream, which counts decoded bytes and time of reading
+     */
+    InputStream measureDecoded(InputStream body) {
+        decoded = new MeasuredInputStream(body);
+        return decoded;
+    }
+
+    /**
+     * @param apiMethodName name of api method, could be null if it is unknown
+     * @param error exception of attempt, null if attempt succeeded
+     * @return measurements of attempt
+     */
+    VKInstrumentation.Attempt toAttempt(String apiMethodName, Exception error) {
+        final long requestTime = connectedTime != 0 ? connectedTime : sendTime;
+        final long downloadTime = decoded != null ? decoded.nanos : -1;
+        return new VKInstrumentation.Attempt(apiMethodName, number, queueTime,
+                sendTime != 0 && connectedTime != 0 ? connectedTime - sendTime : -1,
+                sendTime != 0 && responseTime != 0 ? responseTime - requestTime : -1,
+                downloadTime,
+                // Parsing time is unknown if handler failed
+                handledTime != 0 ? Math.max(0, handledTime - responseTime - downloadTime) : -1,
+                raw != null ? raw.count : 0,
+                decoded != null ? decoded.count : 0,
+                error);
+    }
+
+    /**
+     * Stream, which counts read bytes and time spent in reading
+     */
+    private static class MeasuredInputStream extends FilterInputStream {
+
+        long count;
+
+        long nanos;
+
+        MeasuredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int b = super.read();
+            nanos += System.nanoTime() - start;
+            if (b != -1)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final long start = System.nanoTime();
+            final int read = super.read(buffer, offset, length);
+            nanos += System.nanoTime() - start;
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.artemzin.android.vk.api;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Query with unlimited count of ids, which is split into chunks by limit of api method <br/>
+ * Chunks are sent concurrently: calling thread sends chunks together with helper tasks of async executor,
+ * so bulk query does not deadlock even if it is called from async executor thread
+ * @author Artem Zinnatullin
+ * @see VKApi#setBulkParallelism(int)
+ */
+class VKBulkRequest<T> {
+
+    /**
+     * Query of one chunk
+     */
+    interface ChunkQuery<T> {
+
+        /**
+         * @param ids of chunk, size is not bigger than chunk size
+         * @return results of chunk in order of ids
+         */
+        ArrayList<T> query(ArrayList<Long> ids) throws Exception;
+    }
+
+    private final ArrayList<ArrayList<Long>> chunks;
+
+    private final ChunkQuery<T> chunkQuery;
+
+    private final ArrayList<T>[] chunkResults;
+
+    private final Exception[] chunkErrors;
+
+    /**
+     * Call of bulk query, chunks are not started after its cancellation
+     */
+    private final VKCall call;
+
+    private int nextChunk;
+
+    private int doneChunksCount;
+
+    private final int idsCount;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    VKBulkRequest(Collection<Long> ids, int chunkSize, ChunkQuery<T> chunkQuery) {
+        this.chunks = new ArrayList<ArrayList<Long>>(ids.size() / chunkSize + 1);
+        ArrayList<Long> chunk = null;
+        for (Long id : ids) {
+            if (id == null)
+                continue;
+            if (chunk == null || chunk.size() == chunkSize) {
+                chunk = new ArrayList<Long>(Math.min(chunkSize, ids.size()));
+                chunks.add(chunk);
+            }
+            chunk.add(id);
+        }
+        this.idsCount = ids.size();
+        this.chunkQuery = chunkQuery;
+        this.chunkResults = new ArrayList[chunks.size()];
+        this.chunkErrors = new Exception[chunks.size()];
+        this.call = VKCall.current();
+    }
+
+    /**
+     * Sending all chunks and waiting for them
+     * @param api which async executor runs helper tasks
+     * @param parallelism max count of concurrently sent chunks
+     * @return results of chunks in order of ids
+     * @throws InterruptedException if calling thread was interrupted while waiting for helper tasks
+     */
+    VKBulkResult<T> execute(VKApi api, int parallelism) throws InterruptedException {
+        final int helpersCount = Math.min(parallelism, chunks.size()) - 1;
+
+        for (int i = 0; i < helpersCount; i++) {
+            // Helper sends chunks with deadline and priority of calling thread
+            final VKCall helperCall = VKCall.forkCurrent();
+            try {
+                api.getAsyncExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final VKCall previousCall = VKCall.current();
+                        VKCall.setCurrent(helperCall);
+                        try {
+                            sendChunks();
+                        } finally {
+                            VKCall.setCurrent(previousCall);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Calling thread sends remaining chunks itself
+                break;
+            }
+        }
+
+        sendChunks();
+
+        synchronized (this) {
+            while (doneChunksCount < chunks.size()) {
+                wait();
+            }
+        }
+
+        VKBulkResult<T> result = new VKBulkResult<T>(idsCount);
+
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunkErrors[i] == null) {
+                result.getResults().addAll(chunkResults[i]);
+            } else {
+                result.getFailedIds().addAll(chunks.get(i));
+                result.getErrors().add(chunkErrors[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sending not started chunks one by one until all of them are started
+     */
+    private void sendChunks() {
+        while (true) {
+            final int chunkIndex;
+            synchronized (this) {
+                if (nextChunk == chunks.size())
+                    return;
+                chunkIndex = nextChunk++;
+            }
+
+            ArrayList<T> chunkResult = null;
+            Exception chunkError = null;
+
+            try {
+                if (call != null && call.isCanceled())
+                    throw new InterruptedIOException("Call was canceled");
+                chunkResult = chunkQuery.query(chunks.get(chunkIndex));
+            } catch (Exception e) {
+                chunkError = e;
+            } finally {
+                if (chunkResult == null && chunkError == null) {
+                    // Chunk got Error, calling thread should not wait for it forever
+                    chunkError = new Exception("Chunk query failed");
+                }
+                synchronized (this) {
+                    chunkResults[chunkIndex] = chunkResult;
+                    chunkErrors[chunkIndex] = chunkError;
+                    doneChunksCount++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
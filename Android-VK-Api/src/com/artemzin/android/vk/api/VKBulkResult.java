@@ -0,0 +1,51 @@
+package com.artemzin.android.vk.api;
+
+import java.util.ArrayList;
+
+/**
+ * Result of bulk query, which was split into chunks <br/>
+ * Contains results of successful chunks in order of ids and ids of failed chunks with their errors
+ * @author Artem Zinnatullin
+ * @see VKUsersApi#getBulk(java.util.Collection, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase)
+ * @see VKGroupsApi#getByIdBulk(java.util.Collection, com.artemzin.android.vk.api.elements.VKGroup.Fields[])
+ */
+public class VKBulkResult<T> {
+
+    VKBulkResult(int expectedSize) {
+        results = new ArrayList<T>(expectedSize);
+    }
+
+    private final ArrayList<T> results;
+
+    /**
+     * @return results of successful chunks in order of ids, never returns null
+     */
+    public ArrayList<T> getResults() {
+        return results;
+    }
+
+    private final ArrayList<Long> failedIds = new ArrayList<Long>();
+
+    /**
+     * @return ids of failed chunks in order of ids, never returns null
+     */
+    public ArrayList<Long> getFailedIds() {
+        return failedIds;
+    }
+
+    private final ArrayList<Exception> errors = new ArrayList<Exception>();
+
+    /**
+     * @return errors of failed chunks, never returns null
+     */
+    public ArrayList<Exception> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return true if all chunks were successful
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+}
@@ -0,0 +1,240 @@
+package com.artemzin.android.vk.api;
+
+import java.io.InterruptedIOException;
+
+/**
+ * State of one api call, executed asynchronously <br/>
+ * Bound to the thread which executes call, so network code could register
+ * abort hook and cancellation will close underlying http exchange
+ * @author Artem Zinnatullin
+ * @see VKAsyncApi
+ */
+class VKCall {
+
+    /**
+     * Something, that could be aborted from another thread, for example http connection
+     */
+    interface Abortable {
+        void abort();
+    }
+
+    /**
+     * Call, which is executing by current thread
+     */
+    private static final ThreadLocal<VKCall> CURRENT = new ThreadLocal<VKCall>();
+
+    /**
+     * @return call, which is executing by current thread, or null for synchronous api usage
+     */
+    static VKCall current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binding call to current thread
+     * @param call to bind, put null to unbind
+     */
+    static void setCurrent(VKCall call) {
+        if (call == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(call);
+        }
+    }
+
+    /**
+     * True if call executes request shared between several callers
+     */
+    private final boolean shared;
+
+    private boolean canceled;
+
+    private Abortable abortHook;
+
+    /**
+     * True if at least one caller joined shared call
+     */
+    private boolean joined;
+
+    VKCall() {
+        this(false);
+    }
+
+    private VKCall(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Creating call for request, which is shared between several callers, for example coalesced or batched query <br/>
+     * It is detached from calls of callers: cancellation of any of them does not abort it,
+     * its deadline is the latest of deadlines of callers, who joined it, and its priority is the highest of them
+     * @return new shared call
+     * @see #join(long, VKRequestScheduler.Priority)
+     */
+    static VKCall newShared() {
+        return new VKCall(true);
+    }
+
+    /**
+     * Creating call for task, which current thread submits to executor as part of its call:
+     * task gets deadline and priority of call of current thread
+     * @return new call, it is not canceled with call of current thread
+     */
+    static VKCall forkCurrent() {
+        final VKCall call = new VKCall();
+        final VKCall currentCall = current();
+        if (currentCall != null) {
+            call.deadline = currentCall.deadline;
+            call.priority = currentCall.priority;
+        }
+        return call;
+    }
+
+    /**
+     * @return true if call executes request shared between several callers
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Joining caller to shared call, deadline of call is extended to deadline of caller
+     * and priority of call is raised to priority of caller
+     * @param deadline of caller in millis, 0 if caller has no deadline
+     * @param priority of caller, null if caller has no priority
+     * @return true if deadline of call, which was already joined, was extended by caller
+     */
+    synchronized boolean join(long deadline, VKRequestScheduler.Priority priority) {
+        boolean extended = false;
+        if (!joined) {
+            this.deadline = deadline;
+            joined = true;
+        } else if (this.deadline != 0 && (deadline == 0 || deadline > this.deadline)) {
+            this.deadline = deadline;
+            extended = true;
+        }
+        // Priorities are declared from the highest to the lowest
+        if (priority != null && (this.priority == null || priority.ordinal() < this.priority.ordinal())) {
+            this.priority = priority;
+        }
+        return extended;
+    }
+
+    /**
+     * Time in millis, after which requests of call fail, 0 if call has no deadline
+     */
+    private volatile long deadline;
+
+    /**
+     * Priority of requests of call, null if call has no priority
+     */
+    private volatile VKRequestScheduler.Priority priority;
+
+    /**
+     * Setting priority of requests of call
+     * @param priority of requests, put null to remove priority
+     */
+    void setPriority(VKRequestScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return priority of requests of call, null if call has no priority
+     */
+    VKRequestScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return priority of call of current thread, null if there is no call or it has no priority
+     */
+    static VKRequestScheduler.Priority currentPriority() {
+        final VKCall call = current();
+        return call != null ? call.getPriority() : null;
+    }
+
+    /**
+     * Setting deadline of call
+     * @param deadline time in millis (as System.currentTimeMillis()), put 0 to remove deadline
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return time in millis, after which requests of call fail, 0 if call has no deadline
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Setting hook, which will be aborted on call cancellation <br/>
+     * If call is already canceled, hook will be aborted immediately
+     * @param abortHook to set, put null to clear
+     */
+    void setAbortHook(Abortable abortHook) {
+        synchronized (this) {
+            if (!canceled) {
+                this.abortHook = abortHook;
+                return;
+            }
+        }
+        if (abortHook != null) {
+            abortHook.abort();
+        }
+    }
+
+    /**
+     * Canceling call and aborting its current http exchange
+     */
+    void cancel() {
+        final Abortable abortHook;
+        synchronized (this) {
+            canceled = true;
+            abortHook = this.abortHook;
+            this.abortHook = null;
+        }
+        if (abortHook != null) {
+            abortHook.abort();
+        }
+    }
+
+    /**
+     * @return true if call was canceled
+     */
+    synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * @throws InterruptedIOException if call was canceled
+     */
+    void throwIfCanceled() throws InterruptedIOException {
+        if (isCanceled()) {
+            throw new InterruptedIOException("Request was canceled");
+        }
+    }
+
+    /**
+     * Checking current thread call for cancellation
+     * @throws InterruptedIOException if call of current thread was canceled
+     */
+    static void throwIfCurrentCanceled() throws InterruptedIOException {
+        final VKCall call = current();
+        if (call != null) {
+            call.throwIfCanceled();
+        }
+    }
+
+    /**
+     * Registering abort hook for call of current thread if it exists
+     * @param abortHook to set, put null to clear
+     */
+    static void setCurrentAbortHook(Abortable abortHook) {
+        final VKCall call = current();
+        if (call != null) {
+            call.setAbortHook(abortHook);
+        }
+    }
+}
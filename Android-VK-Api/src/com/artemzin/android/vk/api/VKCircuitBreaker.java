@@ -0,0 +1,505 @@
+package com.artemzin.android.vk.api;
+
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Circuit breaker of api methods <br/>
+ * Every api method has its own circuit, which counts results of last calls: if part of failed or slow calls
+ * is too big, circuit opens and calls of api method fail fast with CircuitOpenException without sending of request <br/>
+ * After open duration circuit becomes half-open and lets few trial calls through: if all of them succeed
+ * circuit closes, otherwise it opens again <br/>
+ * Network errors, bad responses and vk.com server errors (1 "Unknown error", 10 "Internal server error" by default)
+ * are failures, other vk.com errors, for example captcha, mean that server works, so they are successful calls
+ * @author Artem Zinnatullin
+ * @see VKApi#setCircuitBreaker(VKCircuitBreaker)
+ */
+public class VKCircuitBreaker {
+
+    /**
+     * Default count of last calls, which results are counted
+     */
+    public static final int WINDOW_SIZE_DEFAULT;
+
+    /**
+     * Default min count of calls in window, before circuit could be opened
+     */
+    public static final int MIN_CALLS_DEFAULT;
+
+    /**
+     * Default part of failed calls, which opens circuit
+     */
+    public static final double FAILURE_RATE_THRESHOLD_DEFAULT;
+
+    /**
+     * Default part of slow calls, which opens circuit
+     */
+    public static final double SLOW_CALL_RATE_THRESHOLD_DEFAULT;
+
+    /**
+     * Default duration in millis, after which call is slow
+     */
+    public static final long SLOW_CALL_DURATION_DEFAULT;
+
+    /**
+     * Default time in millis, while circuit stays open
+     */
+    public static final long OPEN_DURATION_DEFAULT;
+
+    /**
+     * Default count of trial calls in half-open state
+     */
+    public static final int HALF_OPEN_CALLS_DEFAULT;
+
+    static {
+        WINDOW_SIZE_DEFAULT = 20;
+        MIN_CALLS_DEFAULT = 10;
+        FAILURE_RATE_THRESHOLD_DEFAULT = 0.5;
+        SLOW_CALL_RATE_THRESHOLD_DEFAULT = 0.8;
+        SLOW_CALL_DURATION_DEFAULT = 10000;
+        OPEN_DURATION_DEFAULT = 30000;
+        HALF_OPEN_CALLS_DEFAULT = 3;
+    }
+
+    /**
+     * State of circuit
+     */
+    public enum State {
+        /**
+         * Calls are sent, their results are counted
+         */
+        CLOSED,
+        /**
+         * Calls fail fast
+         */
+        OPEN,
+        /**
+         * Few trial calls are sent, other calls fail fast
+         */
+        HALF_OPEN,
+    }
+
+    /**
+     * Exception, which is thrown instead of sending of request while circuit of api method is open
+     */
+    public static class CircuitOpenException extends Exception {
+
+        private static final long serialVersionUID = -2831766417094415623L;
+
+        /**
+         * Name of api method, which circuit is open
+         */
+        public final String apiMethodName;
+
+        CircuitOpenException(String apiMethodName) {
+            super("Circuit of " + apiMethodName + " is open");
+            this.apiMethodName = apiMethodName;
+        }
+    }
+
+    /**
+     * Circuit of one api method
+     */
+    private class Circuit {
+
+        State state = State.CLOSED;
+
+        /**
+         * Results of last calls, bit 1 is failure, bit 2 is slow call
+         */
+        final byte[] window = new byte[windowSize];
+
+        int windowIndex;
+
+        int callCount;
+
+        int failureCount;
+
+        int slowCallCount;
+
+        long openTime;
+
+        int trialCallsStarted;
+
+        int trialCallsSucceeded;
+
+        long openCount;
+
+        long rejectedCount;
+
+        void add(boolean failure, boolean slow) {
+            if (callCount == window.length) {
+                final byte old = window[windowIndex];
+                if ((old & 1) != 0)
+                    failureCount--;
+                if ((old & 2) != 0)
+                    slowCallCount--;
+            } else {
+                callCount++;
+            }
+            window[windowIndex] = (byte) ((failure ? 1 : 0) | (slow ? 2 : 0));
+            windowIndex = (windowIndex + 1) % window.length;
+            if (failure)
+                failureCount++;
+            if (slow)
+                slowCallCount++;
+        }
+
+        void open() {
+            state = State.OPEN;
+            openTime = System.currentTimeMillis();
+            openCount++;
+        }
+
+        void close() {
+            state = State.CLOSED;
+            windowIndex = 0;
+            callCount = 0;
+            failureCount = 0;
+            slowCallCount = 0;
+        }
+
+        double failureRate() {
+            return callCount == 0 ? 0 : (double) failureCount / callCount;
+        }
+
+        double slowCallRate() {
+            return callCount == 0 ? 0 : (double) slowCallCount / callCount;
+        }
+    }
+
+    private final int windowSize;
+
+    private final int minCalls;
+
+    private final HashMap<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+    private double failureRateThreshold = FAILURE_RATE_THRESHOLD_DEFAULT;
+
+    private double slowCallRateThreshold = SLOW_CALL_RATE_THRESHOLD_DEFAULT;
+
+    private long slowCallDuration = SLOW_CALL_DURATION_DEFAULT;
+
+    private long openDuration = OPEN_DURATION_DEFAULT;
+
+    private int halfOpenCalls = HALF_OPEN_CALLS_DEFAULT;
+
+    private int[] failureErrorCodes = {1, 10};
+
+    /**
+     * Creating circuit breaker with default params
+     */
+    public VKCircuitBreaker() {
+        this(WINDOW_SIZE_DEFAULT, MIN_CALLS_DEFAULT);
+    }
+
+    /**
+     * Creating circuit breaker
+     * @param windowSize count of last calls, which results are counted, should be positive
+     * @param minCalls min count of calls in window, before circuit could be opened, from 1 to windowSize
+     * @throws InvalidParameterException if windowSize or minCalls is incorrect
+     */
+    public VKCircuitBreaker(int windowSize, int minCalls) throws InvalidParameterException {
+        if (windowSize <= 0)
+            throw new InvalidParameterException("windowSize should be positive");
+        if (minCalls <= 0 || minCalls > windowSize)
+            throw new InvalidParameterException("minCalls should be from 1 to windowSize");
+        this.windowSize = windowSize;
+        this.minCalls = minCalls;
+    }
+
+    /**
+     * Setting part of failed calls, which opens circuit
+     * @param failureRateThreshold from 0 to 1, 1 opens circuit only if all calls are failed
+     * @return this circuit breaker
+     * @throws InvalidParameterException if failureRateThreshold is not from 0 to 1
+     */
+    public synchronized VKCircuitBreaker setFailureRateThreshold(double failureRateThreshold) throws InvalidParameterException {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+            throw new InvalidParameterException("failureRateThreshold should be from 0 to 1");
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * @return part of failed calls, which opens circuit
+     */
+    public synchronized double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Setting slow calls, which open circuit
+     * @param slowCallRateThreshold part of slow calls from 0 to 1, which opens circuit
+     * @param slowCallDuration in millis, after which call is slow, should be positive
+     * @return this circuit breaker
+     * @throws InvalidParameterException if params are incorrect
+     */
+    public synchronized VKCircuitBreaker setSlowCallThreshold(double slowCallRateThreshold, long slowCallDuration)
+            throws InvalidParameterException {
+        if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1)
+            throw new InvalidParameterException("slowCallRateThreshold should be from 0 to 1");
+        if (slowCallDuration <= 0)
+            throw new InvalidParameterException("slowCallDuration should be positive");
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        return this;
+    }
+
+    /**
+     * @return part of slow calls, which opens circuit
+     */
+    public synchronized double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @return duration in millis, after which call is slow
+     */
+    public synchronized long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Setting half-open state
+     * @param openDuration time in millis, while circuit stays open before half-open state, should be positive
+     * @param halfOpenCalls count of trial calls in half-open state, which should succeed to close circuit, should be positive
+     * @return this circuit breaker
+     * @throws InvalidParameterException if params are not positive
+     */
+    public synchronized VKCircuitBreaker setHalfOpen(long openDuration, int halfOpenCalls) throws InvalidParameterException {
+        if (openDuration <= 0)
+            throw new InvalidParameterException("openDuration should be positive");
+        if (halfOpenCalls <= 0)
+            throw new InvalidParameterException("halfOpenCalls should be positive");
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    /**
+     * @return time in millis, while circuit stays open
+     */
+    public synchronized long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @return count of trial calls in half-open state
+     */
+    public synchronized int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Setting vk.com error codes, which are failures of server
+     * @param errorCodes of VKException
+     * @return this circuit breaker
+     */
+    public synchronized VKCircuitBreaker setFailureErrorCodes(int... errorCodes) {
+        this.failureErrorCodes = errorCodes == null ? new int[0] : errorCodes.clone();
+        return this;
+    }
+
+    /**
+     * @return copy of vk.com error codes, which are failures of server
+     */
+    public synchronized int[] getFailureErrorCodes() {
+        return failureErrorCodes.clone();
+    }
+
+    /**
+     * Checking circuit of api method before call
+     * @param apiMethodName name of api method
+     * @return true if call is trial call of half-open circuit
+     * @throws CircuitOpenException if circuit is open or all trial calls are already started
+     */
+    synchronized boolean acquire(String apiMethodName) throws CircuitOpenException {
+        Circuit circuit = circuits.get(apiMethodName);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(apiMethodName, circuit);
+        }
+        if (circuit.state == State.OPEN && System.currentTimeMillis() - circuit.openTime >= openDuration) {
+            circuit.state = State.HALF_OPEN;
+            circuit.trialCallsStarted = 0;
+            circuit.trialCallsSucceeded = 0;
+        }
+        switch (circuit.state) {
+            case CLOSED:
+                return false;
+            case HALF_OPEN:
+                if (circuit.trialCallsStarted < halfOpenCalls) {
+                    circuit.trialCallsStarted++;
+                    return true;
+                }
+                circuit.rejectedCount++;
+                throw new CircuitOpenException(apiMethodName);
+            default:
+                circuit.rejectedCount++;
+                throw new CircuitOpenException(apiMethodName);
+        }
+    }
+
+    /**
+     * Giving back call, which was not sent after acquire(), for example because its deadline was exceeded
+     * while it waited for rate limiter
+     * @param apiMethodName name of api method
+     * @param trialCall result of acquire()
+     */
+    synchronized void release(String apiMethodName, boolean trialCall) {
+        final Circuit circuit = circuits.get(apiMethodName);
+        if (circuit != null && trialCall && circuit.state == State.HALF_OPEN) {
+            circuit.trialCallsStarted--;
+        }
+    }
+
+    /**
+     * Recording result of call
+     * @param apiMethodName name of api method
+     * @param trialCall result of acquire()
+     * @param duration of call in millis
+     * @param error of call, null if call was successful
+     */
+    synchronized void onResult(String apiMethodName, boolean trialCall, long duration, Exception error) {
+        final Circuit circuit = circuits.get(apiMethodName);
+        if (circuit == null)
+            return;
+
+        final VKCall call = VKCall.current();
+        if (call != null && call.isCanceled()) {
+            // Canceled call says nothing about server
+            if (trialCall && circuit.state == State.HALF_OPEN)
+                circuit.trialCallsStarted--;
+            return;
+        }
+
+        final boolean failure = error != null && isFailure(error);
+        final boolean slow = duration >= slowCallDuration;
+
+        if (trialCall) {
+            // Result of call started before circuit was opened again is ignored
+            if (circuit.state != State.HALF_OPEN)
+                return;
+            if (failure || slow) {
+                circuit.open();
+            } else if (++circuit.trialCallsSucceeded >= halfOpenCalls) {
+                circuit.close();
+            }
+            return;
+        }
+
+        // Result of call started before circuit was opened is ignored
+        if (circuit.state != State.CLOSED)
+            return;
+
+        circuit.add(failure, slow);
+
+        if (circuit.callCount >= minCalls && (circuit.failureRate() >= failureRateThreshold
+                || circuit.slowCallRate() >= slowCallRateThreshold)) {
+            circuit.open();
+        }
+    }
+
+    private boolean isFailure(Exception error) {
+        if (error instanceof VKException) {
+            final int errorCode = ((VKException) error).errorCode;
+            for (int failureErrorCode : failureErrorCodes) {
+                if (failureErrorCode == errorCode)
+                    return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param apiMethodName name of api method
+     * @return current state of circuit of api method, CLOSED if api method was not called,
+     * open circuit becomes half-open on the first call after open duration
+     */
+    public synchronized State getState(String apiMethodName) {
+        final Circuit circuit = circuits.get(apiMethodName);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * Closing all circuits and removing their statistics
+     */
+    public synchronized void reset() {
+        circuits.clear();
+    }
+
+    /**
+     * Snapshot of circuit of api method
+     */
+    public static class CircuitStatistics {
+
+        private CircuitStatistics() {}
+
+        private State state;
+
+        /**
+         * @return state of circuit at the moment of statistics creation
+         */
+        public State getState() {
+            return state;
+        }
+
+        private double failureRate;
+
+        /**
+         * @return part of failed calls in window of closed circuit, from 0 to 1
+         */
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        private double slowCallRate;
+
+        /**
+         * @return part of slow calls in window of closed circuit, from 0 to 1
+         */
+        public double getSlowCallRate() {
+            return slowCallRate;
+        }
+
+        private long openCount;
+
+        /**
+         * @return count of circuit openings
+         */
+        public long getOpenCount() {
+            return openCount;
+        }
+
+        private long rejectedCount;
+
+        /**
+         * @return count of calls, which failed fast because circuit was open
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * @return unmodifiable map of api method names to snapshots of their circuits, never returns null
+     */
+    public synchronized Map<String, CircuitStatistics> getStatistics() {
+        final HashMap<String, CircuitStatistics> statistics = new HashMap<String, CircuitStatistics>();
+        for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+            final Circuit circuit = entry.getValue();
+            final CircuitStatistics circuitStatistics = new CircuitStatistics();
+            circuitStatistics.state = circuit.state;
+            circuitStatistics.failureRate = circuit.failureRate();
+            circuitStatistics.slowCallRate = circuit.slowCallRate();
+            circuitStatistics.openCount = circuit.openCount;
+            circuitStatistics.rejectedCount = circuit.rejectedCount;
+            statistics.put(entry.getKey(), circuitStatistics);
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+}
@@ -0,0 +1,736 @@
+package com.artemzin.android.vk.api;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of reusable keep-alive http connections <br/>
+ * HttpURLConnection opens new connection (and makes new TCP + TLS handshake) for every query,
+ * VKConnectionPool keeps sockets to api host opened and reuses them for next queries <br/>
+ * One pool could be shared between several VKApi instances <br/>
+ * Pool is transport of VKApi, use VKApi.setTransport(pool) or VKApi.setConnectionPool(pool) to enable it
+ * @author Artem Zinnatullin
+ * @see VKApi#setConnectionPool(VKConnectionPool)
+ */
+public class VKConnectionPool implements VKTransport {
+
+    /**
+     * Default max count of idle connections, which pool keeps opened
+     */
+    public static final int MAX_IDLE_CONNECTIONS_DEFAULT;
+
+    /**
+     * Default time in millis, after which idle connection will be evicted from pool
+     */
+    public static final long KEEP_ALIVE_DURATION_DEFAULT;
+
+    /**
+     * Max count of bytes, which could be skipped to return not fully read connection to the pool
+     */
+    private static final int MAX_BYTES_TO_DRAIN;
+
+    /**
+     * True if code runs on Android, where default hostname verifier is real verifier
+     */
+    private static final boolean IS_ANDROID;
+
+    static {
+        MAX_IDLE_CONNECTIONS_DEFAULT = 5;
+        // By default, idle connection lives 1 minute
+        KEEP_ALIVE_DURATION_DEFAULT = 60000;
+        MAX_BYTES_TO_DRAIN = 65536;
+        IS_ANDROID = "Dalvik".equals(System.getProperty("java.vm.name"));
+    }
+
+    /**
+     * Max count of idle connections
+     */
+    private final int maxIdleConnections;
+
+    /**
+     * Idle connection lifetime in millis
+     */
+    private final long keepAliveDuration;
+
+    /**
+     * Idle connections, most recently used connection is first
+     */
+    private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+
+    /**
+     * Count of queries, which reused idle connection
+     */
+    private long hitCount;
+
+    /**
+     * Count of queries, which opened new connection
+     */
+    private long missCount;
+
+    /**
+     * Count of idle connections, which were closed by pool
+     */
+    private long evictionCount;
+
+    /**
+     * Creating connection pool with default params
+     */
+    public VKConnectionPool() {
+        this(MAX_IDLE_CONNECTIONS_DEFAULT, KEEP_ALIVE_DURATION_DEFAULT);
+    }
+
+    /**
+     * Creating connection pool
+     * @param maxIdleConnections max count of idle connections to keep opened
+     * @param keepAliveDuration in millis, after which idle connection will be closed
+     * @throws InvalidParameterException if maxIdleConnections or keepAliveDuration is negative
+     */
+    public VKConnectionPool(int maxIdleConnections, long keepAliveDuration) throws InvalidParameterException {
+        if (maxIdleConnections < 0)
+            throw new InvalidParameterException("maxIdleConnections could not be negative");
+        if (keepAliveDuration < 0)
+            throw new InvalidParameterException("keepAliveDuration could not be negative");
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveDuration = keepAliveDuration;
+    }
+
+    /**
+     * @return max count of idle connections, which pool keeps opened
+     */
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * @return time in millis, after which idle connection will be closed
+     */
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    /**
+     * Container for pool statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private long hitCount;
+
+        /**
+         * @return count of queries, which reused idle connection
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        private long missCount;
+
+        /**
+         * @return count of queries, which opened new connection
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        private long evictionCount;
+
+        /**
+         * @return count of idle connections, which were closed by pool because of timeout or pool size
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        private int idleConnectionCount;
+
+        /**
+         * @return count of idle connections at the moment of statistics creation
+         */
+        public int getIdleConnectionCount() {
+            return idleConnectionCount;
+        }
+    }
+
+    /**
+     * @return snapshot of pool statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        Statistics statistics = new Statistics();
+        statistics.hitCount = hitCount;
+        statistics.missCount = missCount;
+        statistics.evictionCount = evictionCount;
+        statistics.idleConnectionCount = idleConnections.size();
+        return statistics;
+    }
+
+    /**
+     * Closing all idle connections, which were not used longer than keep alive duration
+     */
+    public void evictIdleConnections() {
+        LinkedList<Connection> toClose = new LinkedList<Connection>();
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            for (Iterator<Connection> iterator = idleConnections.iterator(); iterator.hasNext();) {
+                Connection connection = iterator.next();
+                if (now - connection.idleSince > keepAliveDuration) {
+                    iterator.remove();
+                    evictionCount++;
+                    toClose.add(connection);
+                }
+            }
+        }
+        for (Connection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Closing all idle connections
+     */
+    public void evictAll() {
+        LinkedList<Connection> toClose;
+        synchronized (this) {
+            toClose = new LinkedList<Connection>(idleConnections);
+            evictionCount += idleConnections.size();
+            idleConnections.clear();
+        }
+        for (Connection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        return get(new URL(request.url), request.gzip, request.connectTimeout, request.readTimeout);
+    }
+
+    /**
+     * Sending http GET request through pooled connection
+     * @param url to request
+     * @param gzip true to add "Accept-Encoding: gzip" header
+     * @param connectTimeout in millis
+     * @param readTimeout in millis
+     * @return server response, its body should be closed to return connection to the pool
+     * @throws IOException if problems with connection
+     */
+    Response get(URL url, boolean gzip, int connectTimeout, int readTimeout) throws IOException {
+        final boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        final String host = url.getHost();
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final String pathAndQuery = url.getFile().length() != 0 ? url.getFile() : "/";
+
+        Connection connection = acquire(host, port, secure);
+
+        if (connection != null) {
+            VKAttemptTimer.markCurrentConnected();
+            try {
+                connection.socket.setSoTimeout(readTimeout);
+                final Response response = connection.get(pathAndQuery, gzip);
+                synchronized (this) {
+                    hitCount++;
+                }
+                return response;
+            } catch (StaleConnectionException e) {
+                // Server closed idle connection before it got request, so request could be sent again by new one
+                connection.close();
+                VKCall.throwIfCurrentCanceled();
+            } catch (IOException e) {
+                // Server could already get request, so sending it again could duplicate it
+                connection.close();
+                throw e;
+            }
+        }
+
+        synchronized (this) {
+            missCount++;
+        }
+        connection = Connection.open(this, host, port, secure, connectTimeout);
+        VKAttemptTimer.markCurrentConnected();
+        try {
+            connection.socket.setSoTimeout(readTimeout);
+            return connection.get(pathAndQuery, gzip);
+        } catch (StaleConnectionException e) {
+            // New connection could not be idle, so it is usual network problem
+            connection.close();
+            throw e.reason;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Taking idle connection to needed host from pool
+     * @return idle connection or null if there is no such connection
+     */
+    private Connection acquire(String host, int port, boolean secure) {
+        evictIdleConnections();
+        synchronized (this) {
+            for (Iterator<Connection> iterator = idleConnections.iterator(); iterator.hasNext();) {
+                Connection connection = iterator.next();
+                if (connection.port == port && connection.secure == secure && connection.host.equals(host)) {
+                    iterator.remove();
+                    return connection;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returning connection to the pool
+     * @param connection which was fully read and could be reused
+     */
+    private void release(Connection connection) {
+        Connection evicted = null;
+        synchronized (this) {
+            connection.idleSince = System.currentTimeMillis();
+            idleConnections.addFirst(connection);
+            if (idleConnections.size() > maxIdleConnections) {
+                evicted = idleConnections.removeLast();
+                evictionCount++;
+            }
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    /**
+     * Opened socket to api host
+     */
+    private static class Connection {
+
+        private final VKConnectionPool pool;
+
+        private final String host;
+
+        private final int port;
+
+        private final boolean secure;
+
+        private final Socket socket;
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        private long idleSince;
+
+        /**
+         * Id of current http exchange, needed to abort only exchange, which registered abort hook
+         */
+        private int exchangeId;
+
+        /**
+         * True while response body was not closed
+         */
+        private boolean inExchange;
+
+        private Connection(VKConnectionPool pool, String host, int port, boolean secure, Socket socket) throws IOException {
+            this.pool = pool;
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        }
+
+        /**
+         * Opening new connection, making TLS handshake and verifying host name if it is secure connection
+         */
+        static Connection open(VKConnectionPool pool, String host, int port, boolean secure, int connectTimeout) throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(host, port), connectTimeout);
+                if (secure) {
+                    SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(socket, host, port, true);
+                    sslSocket.setSoTimeout(connectTimeout);
+                    final boolean endpointIdentification = enableEndpointIdentification(sslSocket);
+                    sslSocket.startHandshake();
+                    // Default hostname verifier of desktop JVM rejects every host, it is only fallback
+                    // of HttpsURLConnection, but on Android it is real verifier
+                    if ((!endpointIdentification || IS_ANDROID)
+                            && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+                        sslSocket.close();
+                        throw new javax.net.ssl.SSLPeerUnverifiedException("Hostname " + host + " was not verified");
+                    }
+                    socket = sslSocket;
+                }
+                return new Connection(pool, host, port, secure, socket);
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Enabling verification of host name by TLS handshake itself,
+         * SSLParameters.setEndpointIdentificationAlgorithm() is available since Java 7 and Android 7.0,
+         * so it is called by reflection
+         * @return true if host name will be verified by handshake
+         */
+        private static boolean enableEndpointIdentification(SSLSocket sslSocket) {
+            try {
+                final Class<?> sslParametersClass = Class.forName("javax.net.ssl.SSLParameters");
+                final Object sslParameters = SSLSocket.class.getMethod("getSSLParameters").invoke(sslSocket);
+                sslParametersClass.getMethod("setEndpointIdentificationAlgorithm", String.class)
+                        .invoke(sslParameters, "HTTPS");
+                SSLSocket.class.getMethod("setSSLParameters", sslParametersClass).invoke(sslSocket, sslParameters);
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Sending GET request and reading response headers
+         */
+        Response get(String pathAndQuery, boolean gzip) throws IOException {
+            VKCall.setCurrentAbortHook(beginExchange());
+
+            StringBuilder request = new StringBuilder(pathAndQuery.length() + 128);
+            request.append("GET ").append(pathAndQuery).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host);
+            if (port != (secure ? 443 : 80)) {
+                request.append(':').append(port);
+            }
+            request.append("\r\n");
+            request.append("Connection: keep-alive\r\n");
+            if (gzip) {
+                request.append("Accept-Encoding: gzip\r\n");
+            }
+            request.append("\r\n");
+            try {
+                out.write(request.toString().getBytes("ISO-8859-1"));
+                out.flush();
+                // Waiting for the first byte of response to know if server got request
+                in.mark(1);
+                if (in.read() == -1)
+                    throw new StaleConnectionException(new java.net.SocketException("Connection was closed by server"));
+                in.reset();
+            } catch (java.net.SocketTimeoutException e) {
+                // Server got request, but did not answer in time
+                throw e;
+            } catch (StaleConnectionException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new StaleConnectionException(e);
+            }
+
+            final String statusLine = readLine(in);
+            if (statusLine == null)
+                throw new java.net.SocketException("Connection was closed by server");
+
+            // Status line looks like: "HTTP/1.1 200 OK"
+            final int firstSpace = statusLine.indexOf(' ');
+            if (!statusLine.startsWith("HTTP/") || firstSpace == -1 || statusLine.length() < firstSpace + 4)
+                throw new IOException("Unexpected status line: " + statusLine);
+
+            final int code;
+            try {
+                code = Integer.parseInt(statusLine.substring(firstSpace + 1, firstSpace + 4));
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected status line: " + statusLine);
+            }
+
+            boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+            boolean chunked = false;
+            long contentLength = -1;
+            String contentEncoding = null;
+
+            for (String header; (header = readLine(in)) != null && header.length() != 0;) {
+                final int colon = header.indexOf(':');
+                if (colon == -1)
+                    continue;
+                final String name = header.substring(0, colon).trim();
+                final String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Unexpected Content-Length: " + value);
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Content-Encoding")) {
+                    contentEncoding = value;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    keepAlive = !value.equalsIgnoreCase("close");
+                }
+            }
+
+            final BodyInputStream body;
+            if (chunked) {
+                body = new ChunkedBodyInputStream(this, keepAlive);
+                contentLength = -1;
+            } else if (contentLength != -1) {
+                body = new FixedLengthBodyInputStream(this, keepAlive, contentLength);
+            } else {
+                // Body ends with end of stream, so connection could not be reused
+                body = new FixedLengthBodyInputStream(this, false, Long.MAX_VALUE);
+            }
+
+            return new Response(code, contentEncoding, contentLength, body);
+        }
+
+        /**
+         * Marking connection as busy by new http exchange
+         * @return hook, which closes connection if exchange is not finished yet
+         */
+        private VKCall.Abortable beginExchange() {
+            final int id;
+            synchronized (this) {
+                inExchange = true;
+                id = ++exchangeId;
+            }
+            return new VKCall.Abortable() {
+                @Override
+                public void abort() {
+                    synchronized (Connection.this) {
+                        if (!inExchange || exchangeId != id)
+                            return;
+                    }
+                    close();
+                }
+            };
+        }
+
+        /**
+         * Marking connection as free, after that abort hook of finished exchange does nothing
+         */
+        private synchronized void endExchange() {
+            inExchange = false;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Exception of connection, which was closed by server before any byte of response was received,
+     * usually it is idle connection closed by server keep-alive timeout
+     */
+    private static class StaleConnectionException extends java.net.SocketException {
+
+        private static final long serialVersionUID = -6420931245790853107L;
+
+        /**
+         * Exception of connection, which is thrown as is if connection was not idle
+         */
+        final IOException reason;
+
+        StaleConnectionException(IOException reason) {
+            super(reason.getMessage());
+            initCause(reason);
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Reading ASCII line terminated by CRLF
+     * @return line without CRLF or null if end of stream was reached
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        for (int c; (c = in.read()) != -1;) {
+            if (c == '\n') {
+                final int length = line.length();
+                if (length != 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Base class for response body, returns connection to the pool after body was fully read and closed
+     */
+    private static abstract class BodyInputStream extends InputStream {
+
+        protected final Connection connection;
+
+        private final boolean reusable;
+
+        private boolean closed;
+
+        BodyInputStream(Connection connection, boolean reusable) {
+            this.connection = connection;
+            this.reusable = reusable;
+        }
+
+        /**
+         * @return true if all body bytes were read
+         */
+        abstract boolean isExhausted();
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            final boolean release = reusable && drain();
+            connection.endExchange();
+            if (release) {
+                connection.pool.release(connection);
+            } else {
+                connection.close();
+            }
+        }
+
+        /**
+         * Skipping rest of the body to make connection reusable
+         * @return true if body was fully read
+         */
+        private boolean drain() {
+            try {
+                byte[] buffer = new byte[1024];
+                for (int drained = 0; !isExhausted() && drained < MAX_BYTES_TO_DRAIN;) {
+                    final int read = read(buffer, 0, buffer.length);
+                    if (read == -1)
+                        break;
+                    drained += read;
+                }
+                return isExhausted();
+            } catch (IOException ignored) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Body with known length
+     */
+    private static class FixedLengthBodyInputStream extends BodyInputStream {
+
+        private long bytesRemaining;
+
+        FixedLengthBodyInputStream(Connection connection, boolean reusable, long length) {
+            super(connection, reusable);
+            this.bytesRemaining = length;
+        }
+
+        @Override
+        boolean isExhausted() {
+            return bytesRemaining == 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (bytesRemaining == 0)
+                return -1;
+            final int read = connection.in.read(buffer, offset, (int) Math.min(count, bytesRemaining));
+            if (read == -1) {
+                if (bytesRemaining != Long.MAX_VALUE)
+                    throw new java.net.SocketException("Unexpected end of response body");
+                bytesRemaining = 0;
+                return -1;
+            }
+            bytesRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(connection.in.available(), bytesRemaining);
+        }
+    }
+
+    /**
+     * Body with "Transfer-Encoding: chunked"
+     */
+    private static class ChunkedBodyInputStream extends BodyInputStream {
+
+        private long chunkBytesRemaining;
+
+        private boolean hasMoreChunks = true;
+
+        ChunkedBodyInputStream(Connection connection, boolean reusable) {
+            super(connection, reusable);
+        }
+
+        @Override
+        boolean isExhausted() {
+            return !hasMoreChunks;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (!hasMoreChunks)
+                return -1;
+            if (chunkBytesRemaining == 0) {
+                readChunkSize();
+                if (!hasMoreChunks)
+                    return -1;
+            }
+            final int read = connection.in.read(buffer, offset, (int) Math.min(count, chunkBytesRemaining));
+            if (read == -1)
+                throw new java.net.SocketException("Unexpected end of chunked response body");
+            chunkBytesRemaining -= read;
+            if (chunkBytesRemaining == 0) {
+                // CRLF after chunk data
+                readLine(connection.in);
+            }
+            return read;
+        }
+
+        private void readChunkSize() throws IOException {
+            String line = readLine(connection.in);
+            if (line == null)
+                throw new java.net.SocketException("Unexpected end of chunked response body");
+            final int extension = line.indexOf(';');
+            if (extension != -1) {
+                line = line.substring(0, extension);
+            }
+            try {
+                chunkBytesRemaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected chunk size: " + line);
+            }
+            if (chunkBytesRemaining == 0) {
+                hasMoreChunks = false;
+                // Skipping trailers
+                for (String trailer; (trailer = readLine(connection.in)) != null && trailer.length() != 0;) {
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(connection.in.available(), chunkBytesRemaining);
+        }
+    }
+}
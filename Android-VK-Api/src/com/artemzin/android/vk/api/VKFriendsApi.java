@@ -58,6 +58,23 @@ public class VKFriendsApi {
         return friendsIds;
     }
 
+    /**
+     * Gets list of friends uIds as compact VKIdList, without boxing of every uId
+     * @param uId which friends uIds you want to get, put null to get friends of current user
+     * @return VKIdList with friends uIds, never returns null
+     * @throws VKException
+     * @throws Exception if something goes wrong
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=friends.get">Documentation on vk.com</a>
+     */
+    public VKIdList getIdList(Long uId) throws Exception {
+        VKRequestParams params = new VKRequestParams("friends.get");
+
+        if (uId != null)
+            params.putParam("uid", uId.toString());
+
+        return api.sendRequest(params, VKIdList.PARSER);
+    }
+
     /**
      * Gets friends list of user
      * @param uId of user to get his friends, put null if you want to get friends of current user
@@ -81,9 +98,9 @@ public class VKFriendsApi {
             params.putParam("uid", uId.toString());
 
         if (fields == null)
-            params.putParam("fields", VKUtils.arrayToParams(new String[] {"uid", "first_name", "last_name"}));
+            params.putArrayParam("fields", new String[] {"uid", "first_name", "last_name"});
         else
-            params.putParam("fields", VKUtils.arrayToParams(fields));
+            params.putArrayParam("fields", fields);
 
         if (nameCase != null)
             params.putParam("name_case", nameCase.toString());
@@ -100,21 +117,42 @@ public class VKFriendsApi {
         if (order != null)
             params.putParam("order", order.toString());
 
-        JSONArray jsonFriends = api.sendRequest(params).optJSONArray("response");
-
-        if (jsonFriends == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+        final ArrayList<VKUser> friends = api.sendRequest(params, VKUsersApi.USERS_PARSER);
 
-        ArrayList<VKUser> friends = new ArrayList<VKUser>(jsonFriends.length());
+        final VKUserCache userCache = api.getUserCache();
 
-        for (int i = 0; i < jsonFriends.length(); i++) {
-            JSONObject jsonFriend = (JSONObject) jsonFriends.get(i);
-            friends.add(VKJSONParser.parseUserFromJSON(jsonFriend));
+        if (userCache != null) {
+            final String fieldsKey = VKUserCache.fieldsToKey(fields);
+            for (VKUser friend : friends) {
+                userCache.put(friend, fieldsKey, nameCase);
+            }
         }
 
         return friends;
     }
 
+    /**
+     * Gets all friends with needed fields page by page <br/>
+     * friends.get does not return total count of friends, so iteration stops at first not full page
+     * @param uId which friends you want to get, put null to get friends of current user
+     * @param fields needed fields of friends, put null to get uid, first_name and last_name
+     * @param nameCase of friends names, put null to use default
+     * @param lId id of friends list, put null to get all friends
+     * @param order of friends, put null to use default
+     * @param pageSize count of friends requested by one query
+     * @return lazy pager, which loads pages while it is iterated, never returns null
+     * @see #get(Long, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase, Integer, Integer, Long, com.artemzin.android.vk.api.VKFriendsApi.Order)
+     */
+    public VKPager<VKUser> getPager(final Long uId, final String[] fields, final VKUser.NameCase nameCase,
+                                    final Long lId, final Order order, int pageSize) {
+        return new VKPager<VKUser>(api, pageSize, new VKPager.PageLoader<VKUser>() {
+            @Override
+            public VKPager.Page<VKUser> loadPage(int offset, int count) throws Exception {
+                return new VKPager.Page<VKUser>(get(uId, fields, nameCase, count, offset, lId, order), -1);
+            }
+        });
+    }
+
     /**
      * Gets list of current user`s friends uIds, who installed this application
      * @return ArrayList of friends uIds, never returns null
@@ -141,6 +179,19 @@ public class VKFriendsApi {
         return friendsAppUsersUIds;
     }
 
+    /**
+     * Gets list of current user`s friends uIds, who installed this application, as compact VKIdList
+     * @return VKIdList of friends uIds, never returns null
+     * @throws VKException
+     * @throws Exception if something goes wrong
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=friends.getAppUsers">Documentation on vk.com</a>
+     */
+    public VKIdList getAppUsersIdList() throws Exception {
+        VKRequestParams params = new VKRequestParams("friends.getAppUsers");
+
+        return api.sendRequest(params, VKIdList.PARSER);
+    }
+
     /**
      * Gets list of online friends uIds
      * @param uId of user, which online friends list you want to get, put null to use uId of current user
@@ -171,6 +222,23 @@ public class VKFriendsApi {
         return onlineFriendsUIds;
     }
 
+    /**
+     * Gets list of online friends uIds as compact VKIdList
+     * @param uId of user, which online friends list you want to get, put null to use uId of current user
+     * @return VKIdList of online friends uIds, never returns null
+     * @throws VKException
+     * @throws Exception if something goes wrong
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=friends.getOnline">Documentation on vk.com</a>
+     */
+    public VKIdList getOnlineIdList(Long uId) throws Exception {
+        VKRequestParams params = new VKRequestParams("friends.getOnline");
+
+        if (uId != null)
+            params.putParam("uid", uId.toString());
+
+        return api.sendRequest(params, VKIdList.PARSER);
+    }
+
     /**
      * Gets list of mutual friends uIds
      * @param targetUid of user, which mutual friends you want to get, null is denied
@@ -207,6 +275,29 @@ public class VKFriendsApi {
         return mutualFriendsUIds;
     }
 
+    /**
+     * Gets list of mutual friends uIds as compact VKIdList
+     * @param targetUid of user, which mutual friends you want to get, null is denied
+     * @param sourceUid of user, to search mutual friends with, put null to use current user uId
+     * @return VKIdList of mutual friends uIds, never returns null
+     * @throws VKException
+     * @throws Exception if something goes wrong
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=friends.getMutual">Documentation on vk.com</a>
+     */
+    public VKIdList getMutualIdList(Long targetUid, Long sourceUid) throws Exception {
+        VKRequestParams params = new VKRequestParams("friends.getMutual");
+
+        if (targetUid == null)
+            throw new IllegalArgumentException("targetUid param could not be null");
+
+        params.putParam("target_uid", targetUid.toString());
+
+        if (sourceUid != null)
+            params.putParam("source_uid", sourceUid.toString());
+
+        return api.sendRequest(params, VKIdList.PARSER);
+    }
+
     /**
      * Container for friendship information
      * @see <a href="http://vk.com/developers.php?oid=-1&p=friends.areFriends">Documentation on vk.com</a>
@@ -280,7 +371,7 @@ public class VKFriendsApi {
         if (uIds.size() == 0)
             throw new InvalidParameterException("uIds param should contain at least one uId");
 
-        params.putParam("uids", VKUtils.listToParams(uIds));
+        params.putListParam("uids", uIds);
 
         JSONArray jsonAreFriends = api.sendRequest(params).optJSONArray("response");
 
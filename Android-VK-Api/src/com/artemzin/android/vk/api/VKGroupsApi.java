@@ -6,6 +6,7 @@ import org.json.JSONObject;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * Implements api working with groups
@@ -75,7 +76,7 @@ public class VKGroupsApi {
             params.putParam("uid", uId.toString());
 
         if (filter != null)
-            params.putParam("filter", VKUtils.arrayToParams(filter));
+            params.putArrayParam("filter", filter);
 
 
         if (offset != null)
@@ -119,6 +120,113 @@ public class VKGroupsApi {
         return container;
     }
 
+    /**
+     * Gets all user`s groups gIds page by page
+     * @param uId of user, whose groups gIds you want to get
+     * @param filter to select only needed elements, put null to get all groups
+     * @param pageSize count of gIds requested by one query, max value is 1000
+     * @return lazy pager, which loads pages while it is iterated, never returns null
+     * @throws InvalidParameterException if pageSize is not in 1..1000
+     * @see #get(Long, com.artemzin.android.vk.api.VKGroupsApi.Filter[], Integer, Integer)
+     */
+    public VKPager<Long> getPager(final Long uId, final Filter[] filter, int pageSize) throws InvalidParameterException {
+        if (pageSize > 1000)
+            throw new InvalidParameterException("pageSize max value is 1000");
+
+        return new VKPager<Long>(api, pageSize, new VKPager.PageLoader<Long>() {
+            @Override
+            public VKPager.Page<Long> loadPage(int offset, int count) throws Exception {
+                final GIdsWithCountContainer container = get(uId, filter, offset, count);
+                return new VKPager.Page<Long>(container.getGIds(), container.getCount());
+            }
+        });
+    }
+
+    /**
+     * Container for total gIds count and compact VKIdList of gIds
+     */
+    public static class GIdListWithCountContainer {
+
+        private GIdListWithCountContainer() {}
+
+        private int count;
+
+        /**
+         * @return total count of gIds, you can use it for offset param in next request
+         */
+        public int getCount() {
+            return count;
+        }
+
+        private VKIdList gIds;
+
+        /**
+         * @return VKIdList with gIds
+         */
+        public VKIdList getGIds() {
+            return gIds;
+        }
+    }
+
+    /**
+     * Gets list of user`s groups gIds as compact VKIdList, without boxing of every gId
+     * @param uId of user, whose groups gIds you want to get
+     * @param filter to select only needed elements, put null to get all groups
+     * @param offset to select a subset of groups, null is allowed
+     * @param count of groups to get, max value is 1000, null is allowed
+     * @return Container with total gIds count and VKIdList of groups gIds, never returns null
+     * @throws VKException
+     * @throws Exception if something goes wrong
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=groups.get">Documentation on vk.com</a>
+     */
+    public GIdListWithCountContainer getIdList(Long uId, Filter[] filter,
+                                               Integer offset, final Integer count) throws Exception {
+        VKRequestParams params = new VKRequestParams("groups.get");
+
+        if (uId != null)
+            params.putParam("uid", uId.toString());
+
+        if (filter != null)
+            params.putArrayParam("filter", filter);
+
+        if (offset != null)
+            params.putParam("offset", offset.toString());
+
+        if (count != null) {
+            if (count > 1000)
+                throw new InvalidParameterException("count param max value is 1000");
+            params.putParam("count", count.toString());
+        }
+
+        return api.sendRequest(params, new VKResponseParser<GIdListWithCountContainer>() {
+            @Override
+            public GIdListWithCountContainer parseResponse(VKJSONReader reader) throws Exception {
+                if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                    throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+
+                GIdListWithCountContainer container = new GIdListWithCountContainer();
+                container.gIds = new VKIdList();
+
+                reader.beginArray();
+                // If count param was sent, first element contains total count of gIds
+                if (count != null && reader.hasNext() && reader.peek() == VKJSONReader.Token.NUMBER)
+                    container.count = reader.nextInt();
+                while (reader.hasNext()) {
+                    if (reader.peek() == VKJSONReader.Token.NUMBER)
+                        container.gIds.add(reader.nextLong());
+                    else
+                        reader.skipValue();
+                }
+                reader.endArray();
+
+                if (count == null)
+                    container.count = container.gIds.size();
+
+                return container;
+            }
+        });
+    }
+
     /**
      * Container for total groups count and ArrayList of VKGroups
      */
@@ -145,6 +253,47 @@ public class VKGroupsApi {
         }
     }
 
+    /**
+     * Parser of groups array with total count of groups in first element
+     */
+    private static final VKResponseParser<VKGroupsWithCountContainer> GROUPS_WITH_COUNT_PARSER
+            = new VKResponseParser<VKGroupsWithCountContainer>() {
+        @Override
+        public VKGroupsWithCountContainer parseResponse(VKJSONReader reader) throws Exception {
+            if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+
+            VKGroupsWithCountContainer container = new VKGroupsWithCountContainer();
+            container.groups = new ArrayList<VKGroup>();
+
+            reader.beginArray();
+            if (!reader.hasNext() || reader.peek() != VKJSONReader.Token.NUMBER)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+            container.count = reader.nextInt();
+            while (reader.hasNext()) {
+                if (reader.peek() == VKJSONReader.Token.BEGIN_OBJECT)
+                    container.groups.add(VKJSONParser.parseGroupFromJSON(reader));
+                else
+                    reader.skipValue();
+            }
+            reader.endArray();
+
+            return container;
+        }
+    };
+
+    /**
+     * Parser of groups array
+     */
+    private static final VKResponseParser<ArrayList<VKGroup>> GROUPS_PARSER = new VKResponseParser<ArrayList<VKGroup>>() {
+        @Override
+        public ArrayList<VKGroup> parseResponse(VKJSONReader reader) throws Exception {
+            if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+            return VKJSONParser.parseGroupsFromJSON(reader);
+        }
+    };
+
     /**
      * Gets groups of needed user <br/>
      * I am sorry for method name, but this is better than "get" this is implementation of groups.get api<br/>
@@ -170,12 +319,12 @@ public class VKGroupsApi {
         params.putParam("extended", "1");
 
         if (filter != null)
-            params.putParam("filter", VKUtils.arrayToParams(filter));
+            params.putArrayParam("filter", filter);
 
         if (fields == null) {
-            params.putParam("fields", VKUtils.arrayToParams(VKGroup.DEFAULT_FIELDS));
+            params.putArrayParam("fields", VKGroup.DEFAULT_FIELDS);
         } else
-            params.putParam("fields", VKUtils.arrayToParams(fields));
+            params.putArrayParam("fields", fields);
 
         if (offset != null)
             params.putParam("offset", offset.toString());
@@ -186,17 +335,31 @@ public class VKGroupsApi {
             params.putParam("count", count.toString());
         }
 
-        JSONArray jsonGroups = api.sendRequest(params).optJSONArray("response");
-
-        if (jsonGroups == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
-
-        VKGroupsWithCountContainer container = new VKGroupsWithCountContainer();
-
-        container.count = (Integer) jsonGroups.get(0);
-        container.groups = VKJSONParser.parseGroupsFromJSON(jsonGroups);
+        return api.sendRequest(params, GROUPS_WITH_COUNT_PARSER);
+    }
 
-        return container;
+    /**
+     * Gets all user`s groups with extended information page by page
+     * @param uId of user, whose groups you want to get, put null to use current user`s uId
+     * @param filter to select only needed elements, put null to get all groups
+     * @param fields of groups to get, put null to get all not extended fields
+     * @param pageSize count of groups requested by one query, max value is 1000
+     * @return lazy pager, which loads pages while it is iterated, never returns null
+     * @throws InvalidParameterException if pageSize is not in 1..1000
+     * @see #getExtended(Long, com.artemzin.android.vk.api.VKGroupsApi.Filter[], com.artemzin.android.vk.api.elements.VKGroup.Fields[], Integer, Integer)
+     */
+    public VKPager<VKGroup> getExtendedPager(final Long uId, final Filter[] filter,
+                                             final VKGroup.Fields[] fields, int pageSize) throws InvalidParameterException {
+        if (pageSize > 1000)
+            throw new InvalidParameterException("pageSize max value is 1000");
+
+        return new VKPager<VKGroup>(api, pageSize, new VKPager.PageLoader<VKGroup>() {
+            @Override
+            public VKPager.Page<VKGroup> loadPage(int offset, int count) throws Exception {
+                final VKGroupsWithCountContainer container = getExtended(uId, filter, fields, offset, count);
+                return new VKPager.Page<VKGroup>(container.getGroups(), container.getCount());
+            }
+        });
     }
 
     /**
@@ -220,18 +383,36 @@ public class VKGroupsApi {
             if (gIds.size() > 500)
                 throw new InvalidParameterException("gIds max size == 500");
 
-            params.putParam("gids", VKUtils.listToParams(gIds));
+            params.putListParam("gids", gIds);
         }
 
         if (fields != null)
-            params.putParam("fields", VKUtils.arrayToParams(fields));
+            params.putArrayParam("fields", fields);
 
-        JSONArray jsonGroups = api.sendRequest(params).optJSONArray("response");
+        return api.sendRequest(params, GROUPS_PARSER);
+    }
 
-        if (jsonGroups == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+    /**
+     * Gets groups by any count of gIds <br/>
+     * gIds are split into chunks of 500, chunks are sent concurrently
+     * @param gIds of groups to get, null is denied
+     * @param fields of groups to get
+     * @return groups of successful chunks in order of gIds and gIds of failed chunks with errors, never returns null
+     * @throws InterruptedException if thread was interrupted while waiting for chunks
+     * @see #getById(java.util.ArrayList, com.artemzin.android.vk.api.elements.VKGroup.Fields[])
+     * @see VKApi#setBulkParallelism(int)
+     */
+    public VKBulkResult<VKGroup> getByIdBulk(Collection<Long> gIds,
+                                             final VKGroup.Fields[] fields) throws InterruptedException {
+        if (gIds == null)
+            throw new IllegalArgumentException("gIds param could not be null");
 
-        return VKJSONParser.parseGroupsFromJSON(jsonGroups);
+        return new VKBulkRequest<VKGroup>(gIds, 500, new VKBulkRequest.ChunkQuery<VKGroup>() {
+            @Override
+            public ArrayList<VKGroup> query(ArrayList<Long> ids) throws Exception {
+                return getById(ids, fields);
+            }
+        }).execute(api, api.getBulkParallelism());
     }
 
     /**
@@ -401,16 +582,23 @@ public class VKGroupsApi {
         if (count != null)
             params.putParam("count", count.toString());
 
-        JSONArray jsonSearchResults = api.sendRequest(params).optJSONArray("response");
-
-        if (jsonSearchResults == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
-
-        VKGroupsWithCountContainer container = new VKGroupsWithCountContainer();
-
-        container.count = (Integer) jsonSearchResults.get(0);
-        container.groups = VKJSONParser.parseGroupsFromJSON(jsonSearchResults);
+        return api.sendRequest(params, GROUPS_WITH_COUNT_PARSER);
+    }
 
-        return container;
+    /**
+     * Gets all found groups page by page
+     * @param q string to search
+     * @param pageSize count of groups requested by one query
+     * @return lazy pager, which loads pages while it is iterated, never returns null
+     * @see #search(String, Integer, Integer)
+     */
+    public VKPager<VKGroup> searchPager(final String q, int pageSize) {
+        return new VKPager<VKGroup>(api, pageSize, new VKPager.PageLoader<VKGroup>() {
+            @Override
+            public VKPager.Page<VKGroup> loadPage(int offset, int count) throws Exception {
+                final VKGroupsWithCountContainer container = search(q, offset, count);
+                return new VKPager.Page<VKGroup>(container.getGroups(), container.getCount());
+            }
+        });
     }
 }
@@ -0,0 +1,469 @@
+package com.artemzin.android.vk.api;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy of hedged requests <br/>
+ * If request of hedged api method is not completed within percentile of its recent latencies,
+ * duplicate request is sent by VKApi async executor, result of the first completed request is used
+ * and the other one is aborted <br/>
+ * Count of duplicates is limited by budget: every request adds hedgeRatio to it, every duplicate takes 1,
+ * so duplicates increase load at most by hedgeRatio <br/>
+ * Only idempotent read methods should be hedged, by default they are users.get and groups.getById <br/>
+ * One policy could be shared between several VKApi instances, then they share latencies and budget
+ * @author Artem Zinnatullin
+ * @see VKApi#setHedgePolicy(VKHedgePolicy)
+ */
+public class VKHedgePolicy {
+
+    /**
+     * Default percentile of latencies, after which duplicate is sent
+     */
+    public static final double PERCENTILE_DEFAULT;
+
+    /**
+     * Default min delay in millis before sending of duplicate
+     */
+    public static final long MIN_DELAY_DEFAULT;
+
+    /**
+     * Default part of requests, which could be duplicated
+     */
+    public static final double HEDGE_RATIO_DEFAULT;
+
+    /**
+     * Count of recent latencies of api method, from which percentile is calculated
+     */
+    private static final int LATENCY_WINDOW_SIZE;
+
+    /**
+     * Min count of latencies of api method, before its requests are hedged
+     */
+    private static final int MIN_LATENCY_COUNT;
+
+    /**
+     * Count of new latencies, after which percentile is recalculated
+     */
+    private static final int DELAY_UPDATE_INTERVAL;
+
+    /**
+     * Max count of duplicates in budget, so duplicates are not sent in long burst after quiet period
+     */
+    private static final double MAX_BUDGET;
+
+    private static ScheduledExecutorService hedgeTimer;
+
+    static {
+        PERCENTILE_DEFAULT = 0.95;
+        MIN_DELAY_DEFAULT = 20;
+        HEDGE_RATIO_DEFAULT = 0.05;
+        LATENCY_WINDOW_SIZE = 100;
+        MIN_LATENCY_COUNT = 20;
+        DELAY_UPDATE_INTERVAL = 10;
+        MAX_BUDGET = 10;
+    }
+
+    /**
+     * Recent latencies of api method
+     */
+    private static class Latencies {
+
+        final long[] window = new long[LATENCY_WINDOW_SIZE];
+
+        int index;
+
+        int count;
+
+        int countSinceUpdate;
+
+        /**
+         * Delay before duplicate in millis, -1 until enough latencies are collected
+         */
+        long delay = -1;
+    }
+
+    private volatile HashSet<String> hedgedMethods = new HashSet<String>(Arrays.asList("users.get", "groups.getById"));
+
+    private final HashMap<String, Latencies> latencies = new HashMap<String, Latencies>();
+
+    private double percentile = PERCENTILE_DEFAULT;
+
+    private long minDelay = MIN_DELAY_DEFAULT;
+
+    private double hedgeRatio = HEDGE_RATIO_DEFAULT;
+
+    private double budget;
+
+    private long requestCount;
+
+    private long hedgeCount;
+
+    private long hedgeWinCount;
+
+    private long budgetExhaustedCount;
+
+    /**
+     * Setting hedged api methods
+     * @param apiMethodNames names of idempotent read api methods, for example "users.get"
+     * @return this policy
+     */
+    public VKHedgePolicy setHedgedMethods(String... apiMethodNames) {
+        this.hedgedMethods = apiMethodNames == null
+                ? new HashSet<String>()
+                : new HashSet<String>(Arrays.asList(apiMethodNames));
+        return this;
+    }
+
+    /**
+     * @return copy of names of hedged api methods
+     */
+    public String[] getHedgedMethods() {
+        final HashSet<String> hedgedMethods = this.hedgedMethods;
+        return hedgedMethods.toArray(new String[hedgedMethods.size()]);
+    }
+
+    /**
+     * Setting delay before sending of duplicate
+     * @param percentile of recent latencies of api method, from 0 to 1, for example 0.95
+     * @param minDelay min delay in millis, could not be negative
+     * @return this policy
+     * @throws InvalidParameterException if percentile is not from 0 to 1 or minDelay is negative
+     */
+    public synchronized VKHedgePolicy setDelay(double percentile, long minDelay) throws InvalidParameterException {
+        if (percentile <= 0 || percentile > 1)
+            throw new InvalidParameterException("percentile should be from 0 to 1");
+        if (minDelay < 0)
+            throw new InvalidParameterException("minDelay could not be negative");
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        for (Latencies methodLatencies : latencies.values()) {
+            updateDelay(methodLatencies);
+        }
+        return this;
+    }
+
+    /**
+     * @return percentile of latencies, after which duplicate is sent
+     */
+    public synchronized double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @return min delay in millis before sending of duplicate
+     */
+    public synchronized long getMinDelay() {
+        return minDelay;
+    }
+
+    /**
+     * Setting budget of duplicates
+     * @param hedgeRatio part of requests, which could be duplicated, from 0 to 1, 0 disables hedging
+     * @return this policy
+     * @throws InvalidParameterException if hedgeRatio is not from 0 to 1
+     */
+    public synchronized VKHedgePolicy setHedgeRatio(double hedgeRatio) throws InvalidParameterException {
+        if (hedgeRatio < 0 || hedgeRatio > 1)
+            throw new InvalidParameterException("hedgeRatio should be from 0 to 1");
+        this.hedgeRatio = hedgeRatio;
+        return this;
+    }
+
+    /**
+     * @return part of requests, which could be duplicated
+     */
+    public synchronized double getHedgeRatio() {
+        return hedgeRatio;
+    }
+
+    /**
+     * @param apiMethodName name of api method
+     * @return current delay in millis before sending of duplicate, -1 if api method is not hedged yet
+     */
+    public synchronized long getDelay(String apiMethodName) {
+        final Latencies methodLatencies = latencies.get(apiMethodName);
+        return methodLatencies == null ? -1 : methodLatencies.delay;
+    }
+
+    /**
+     * @return true if requests of api method are hedged
+     */
+    boolean isHedged(String apiMethodName) {
+        return hedgedMethods.contains(apiMethodName);
+    }
+
+    /**
+     * Counting request and adding its part to budget
+     * @return delay before duplicate in millis, -1 if request should not be hedged
+     */
+    private synchronized long onRequest(String apiMethodName) {
+        requestCount++;
+        budget = Math.min(MAX_BUDGET, budget + hedgeRatio);
+        final Latencies methodLatencies = latencies.get(apiMethodName);
+        return methodLatencies == null ? -1 : methodLatencies.delay;
+    }
+
+    /**
+     * Taking duplicate from budget
+     * @return false if budget is exhausted
+     */
+    private synchronized boolean tryAcquireHedge() {
+        if (budget < 1) {
+            budgetExhaustedCount++;
+            return false;
+        }
+        budget--;
+        hedgeCount++;
+        return true;
+    }
+
+    private synchronized void onHedgeWin() {
+        hedgeWinCount++;
+    }
+
+    private synchronized void recordLatency(String apiMethodName, long latency) {
+        Latencies methodLatencies = latencies.get(apiMethodName);
+        if (methodLatencies == null) {
+            methodLatencies = new Latencies();
+            latencies.put(apiMethodName, methodLatencies);
+        }
+        methodLatencies.window[methodLatencies.index] = latency;
+        methodLatencies.index = (methodLatencies.index + 1) % LATENCY_WINDOW_SIZE;
+        if (methodLatencies.count < LATENCY_WINDOW_SIZE)
+            methodLatencies.count++;
+        if (++methodLatencies.countSinceUpdate >= DELAY_UPDATE_INTERVAL)
+            updateDelay(methodLatencies);
+    }
+
+    private void updateDelay(Latencies methodLatencies) {
+        methodLatencies.countSinceUpdate = 0;
+        if (methodLatencies.count < MIN_LATENCY_COUNT) {
+            methodLatencies.delay = -1;
+            return;
+        }
+        final long[] sorted = new long[methodLatencies.count];
+        System.arraycopy(methodLatencies.window, 0, sorted, 0, sorted.length);
+        Arrays.sort(sorted);
+        final int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+        methodLatencies.delay = Math.max(minDelay, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * State of one hedged request
+     */
+    private static class HedgedRequest<T> {
+
+        /**
+         * Call of request, which is executed by calling thread
+         */
+        final VKCall primaryCall = new VKCall();
+
+        boolean finished;
+
+        boolean hedgeWon;
+
+        T hedgeResult;
+
+        Future<T> hedgeFuture;
+
+        ScheduledFuture<?> timer;
+
+        /**
+         * Finishing request: canceling timer and duplicate
+         */
+        void finish() {
+            final Future<T> hedgeFuture;
+            final ScheduledFuture<?> timer;
+            synchronized (this) {
+                finished = true;
+                hedgeFuture = this.hedgeFuture;
+                timer = this.timer;
+            }
+            if (timer != null)
+                timer.cancel(false);
+            if (hedgeFuture != null)
+                hedgeFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Executing request with hedging
+     * @param api which async executor sends duplicate
+     * @param apiMethodName name of api method
+     * @param primary request, executed by calling thread
+     * @param hedge duplicate request
+     * @return result of the first completed request
+     * @throws Exception of primary request if it failed before duplicate was completed
+     */
+    <T> T execute(VKApi api, final String apiMethodName, Callable<T> primary, final Callable<T> hedge) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        final long delay = onRequest(apiMethodName);
+
+        if (delay < 0) {
+            final T result = primary.call();
+            recordLatency(apiMethodName, System.currentTimeMillis() - startTime);
+            return result;
+        }
+
+        final HedgedRequest<T> request = new HedgedRequest<T>();
+        final VKCall outerCall = VKCall.current();
+
+        final Callable<T> hedgeCallable = new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result = hedge.call();
+                synchronized (request) {
+                    if (request.finished)
+                        return result;
+                    request.finished = true;
+                    request.hedgeWon = true;
+                    request.hedgeResult = result;
+                }
+                // Aborting http exchange of primary request
+                request.primaryCall.cancel();
+                return result;
+            }
+        };
+
+        final VKAsyncApi async = api.async;
+
+        synchronized (request) {
+            request.timer = getHedgeTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (request) {
+                        if (request.finished)
+                            return;
+                    }
+                    if (!tryAcquireHedge())
+                        return;
+                    final Future<T> hedgeFuture = async.submit(hedgeCallable);
+                    synchronized (request) {
+                        if (!request.finished) {
+                            request.hedgeFuture = hedgeFuture;
+                            return;
+                        }
+                    }
+                    hedgeFuture.cancel(true);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        if (outerCall != null) {
+            // Cancellation of outer call cancels both requests
+            outerCall.setAbortHook(new VKCall.Abortable() {
+                @Override
+                public void abort() {
+                    request.primaryCall.cancel();
+                    request.finish();
+                }
+            });
+        }
+
+        VKCall.setCurrent(request.primaryCall);
+
+        T result;
+        try {
+            result = primary.call();
+        } catch (Exception e) {
+            synchronized (request) {
+                if (!request.hedgeWon)
+                    throw e;
+            }
+            result = null;
+        } finally {
+            request.finish();
+            VKCall.setCurrent(outerCall);
+            if (outerCall != null)
+                outerCall.setAbortHook(null);
+        }
+
+        // Finished flag is set, so hedge result is not changed anymore
+        if (request.hedgeWon) {
+            onHedgeWin();
+            result = request.hedgeResult;
+        }
+        recordLatency(apiMethodName, System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    private static synchronized ScheduledExecutorService getHedgeTimer() {
+        if (hedgeTimer == null) {
+            hedgeTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VKHedgePolicy-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return hedgeTimer;
+    }
+
+    /**
+     * Snapshot of hedge policy statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private long requestCount;
+
+        /**
+         * @return count of requests of hedged api methods
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        private long hedgeCount;
+
+        /**
+         * @return count of sent duplicates
+         */
+        public long getHedgeCount() {
+            return hedgeCount;
+        }
+
+        private long hedgeWinCount;
+
+        /**
+         * @return count of duplicates, which were completed before original requests
+         */
+        public long getHedgeWinCount() {
+            return hedgeWinCount;
+        }
+
+        private long budgetExhaustedCount;
+
+        /**
+         * @return count of duplicates, which were not sent because budget was exhausted
+         */
+        public long getBudgetExhaustedCount() {
+            return budgetExhaustedCount;
+        }
+    }
+
+    /**
+     * @return snapshot of hedge policy statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        final Statistics statistics = new Statistics();
+        statistics.requestCount = requestCount;
+        statistics.hedgeCount = hedgeCount;
+        statistics.hedgeWinCount = hedgeWinCount;
+        statistics.budgetExhaustedCount = budgetExhaustedCount;
+        return statistics;
+    }
+}
@@ -0,0 +1,70 @@
+package com.artemzin.android.vk.api;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default transport based on HttpURLConnection
+ * @author Artem Zinnatullin
+ * @see VKApi#setTransport(VKTransport)
+ */
+public class VKHttpURLConnectionTransport implements VKTransport {
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(request.url).openConnection();
+
+        try {
+            VKCall.setCurrentAbortHook(new VKCall.Abortable() {
+                @Override
+                public void abort() {
+                    connection.disconnect();
+                }
+            });
+            connection.setConnectTimeout(request.connectTimeout);
+            connection.setReadTimeout(request.readTimeout);
+            connection.setUseCaches(false);
+            connection.setDoOutput(false);
+            connection.setDoInput(true);
+            if (request.gzip) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+
+            connection.connect();
+            VKAttemptTimer.markCurrentConnected();
+
+            final int responseCode = connection.getResponseCode();
+
+            InputStream body = responseCode >= 400 || responseCode == -1
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+
+            if (body == null) {
+                body = new ByteArrayInputStream(new byte[0]);
+            }
+
+            return new Response(responseCode, connection.getContentEncoding(), connection.getContentLength(),
+                    new FilterInputStream(new BufferedInputStream(body, 8192)) {
+                        @Override
+                        public void close() throws IOException {
+                            try {
+                                super.close();
+                            } finally {
+                                connection.disconnect();
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        } catch (RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
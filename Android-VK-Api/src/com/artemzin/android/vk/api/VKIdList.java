@@ -0,0 +1,270 @@
+package com.artemzin.android.vk.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact list of ids (uIds, gIds, etc) backed by primitive long array <br/>
+ * Unlike ArrayList&lt;Long&gt; it does not create Long object for every id,
+ * use get(index) in loop or iterator() to iterate without boxing
+ * @author Artem Zinnatullin
+ */
+public class VKIdList {
+
+    private long[] ids;
+
+    private int size;
+
+    private boolean sorted;
+
+    /**
+     * Creating empty list
+     */
+    public VKIdList() {
+        this(10);
+    }
+
+    /**
+     * Creating empty list
+     * @param capacity initial capacity of list
+     */
+    public VKIdList(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity could not be negative");
+        ids = new long[capacity];
+        sorted = true;
+    }
+
+    /**
+     * Creating list with copy of ids
+     * @param ids to copy, null is denied
+     */
+    public VKIdList(long[] ids) {
+        if (ids == null)
+            throw new IllegalArgumentException("ids param could not be null");
+        this.ids = ids.clone();
+        this.size = ids.length;
+        this.sorted = isSorted(this.ids, size);
+    }
+
+    private static boolean isSorted(long[] ids, int size) {
+        for (int i = 1; i < size; i++) {
+            if (ids[i - 1] > ids[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adding id to the end of list
+     * @param id to add
+     */
+    public void add(long id) {
+        if (size == ids.length) {
+            long[] newIds = new long[Math.max(10, size + (size >> 1))];
+            System.arraycopy(ids, 0, newIds, 0, size);
+            ids = newIds;
+        }
+        if (size != 0 && ids[size - 1] > id) {
+            sorted = false;
+        }
+        ids[size++] = id;
+    }
+
+    /**
+     * @return count of ids in list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if list has no ids
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index of id
+     * @return id at index
+     * @throws IndexOutOfBoundsException if index is out of list bounds
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return ids[index];
+    }
+
+    /**
+     * @return true if ids are in ascending order, binary search is used in this case
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Sorting ids in ascending order, after that indexOf() and contains() use binary search
+     * @return this list
+     */
+    public VKIdList sort() {
+        if (!sorted) {
+            Arrays.sort(ids, 0, size);
+            sorted = true;
+        }
+        return this;
+    }
+
+    /**
+     * Searching id in list, binary search is used if list is sorted, otherwise linear search
+     * @param id to search
+     * @return index of id or -1 if list does not contain it
+     */
+    public int indexOf(long id) {
+        if (sorted) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final long middleId = ids[middle];
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id to check
+     * @return true if list contains id
+     */
+    public boolean contains(long id) {
+        return indexOf(id) != -1;
+    }
+
+    /**
+     * @return copy of ids as array
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        System.arraycopy(ids, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Converting to boxed list, for compatibility with methods which accept ArrayList&lt;Long&gt;
+     * @return ArrayList with ids
+     */
+    public ArrayList<Long> toArrayList() {
+        ArrayList<Long> result = new ArrayList<Long>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Iterator over ids without boxing
+     */
+    public class Iterator {
+
+        private int index;
+
+        private Iterator() {}
+
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        public long next() {
+            if (index >= size)
+                throw new java.util.NoSuchElementException();
+            return ids[index++];
+        }
+    }
+
+    /**
+     * @return iterator over ids, which does not box them
+     */
+    public Iterator iterator() {
+        return new Iterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof VKIdList))
+            return false;
+        final VKIdList other = (VKIdList) o;
+        if (size != other.size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (ids[i] != other.ids[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + (int) (ids[i] ^ (ids[i] >>> 32));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(size * 8 + 2);
+        result.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i != 0) {
+                result.append(", ");
+            }
+            result.append(ids[i]);
+        }
+        return result.append(']').toString();
+    }
+
+    /**
+     * Parser of JSON array with ids, non number elements are skipped
+     */
+    static final VKResponseParser<VKIdList> PARSER = new VKResponseParser<VKIdList>() {
+        @Override
+        public VKIdList parseResponse(VKJSONReader reader) throws Exception {
+            if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+            return parseFromJSON(reader, new VKIdList());
+        }
+    };
+
+    /**
+     * Reading ids from JSON array directly to the list
+     * @param reader positioned at JSON array
+     * @param list to add ids to
+     * @return list
+     */
+    static VKIdList parseFromJSON(VKJSONReader reader, VKIdList list) throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == VKJSONReader.Token.NUMBER)
+                list.add(reader.nextLong());
+            else
+                reader.skipValue();
+        }
+        reader.endArray();
+        return list;
+    }
+}
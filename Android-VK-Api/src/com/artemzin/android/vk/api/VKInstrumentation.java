@@ -0,0 +1,89 @@
+package com.artemzin.android.vk.api;
+
+/**
+ * Receiver of measurements of http requests of VKApi <br/>
+ * It is called synchronously by thread, which sent request, concurrently from different threads,
+ * so it should be fast, thread safe and should not throw exceptions <br/>
+ * VKMetrics is default implementation, which aggregates measurements per api method
+ * @author Artem Zinnatullin
+ * @see VKApi#setInstrumentation(VKInstrumentation)
+ * @see VKMetrics
+ */
+public interface VKInstrumentation {
+
+    /**
+     * Measurements of one attempt of request, all times are in nanos, -1 if phase was not reached or is unknown
+     */
+    public static class Attempt {
+
+        /**
+         * Name of api method, could be null if it is unknown
+         */
+        public final String apiMethodName;
+
+        /**
+         * Number of attempt, 1 for the first one, bigger numbers are retries
+         */
+        public final int number;
+
+        /**
+         * Time of waiting for permit of request scheduler and rate limiter
+         */
+        public final long queueTime;
+
+        /**
+         * Time of establishing of connection, -1 if transport does not report it
+         */
+        public final long connectTime;
+
+        /**
+         * Time from sending of request (or connection establishing) to receiving of response headers
+         */
+        public final long serverWaitTime;
+
+        /**
+         * Time spent in reading of response body, including its decompression
+         */
+        public final long downloadTime;
+
+        /**
+         * Time of handling of response body except its reading, mostly parsing of JSON
+         */
+        public final long parseTime;
+
+        /**
+         * Count of bytes of response body as it was received, compressed if gzip was used
+         */
+        public final long compressedBytes;
+
+        /**
+         * Count of bytes of decoded response body
+         */
+        public final long decodedBytes;
+
+        /**
+         * Exception of failed attempt, null if attempt succeeded
+         */
+        public final Exception error;
+
+        public Attempt(String apiMethodName, int number, long queueTime, long connectTime, long serverWaitTime,
+                       long downloadTime, long parseTime, long compressedBytes, long decodedBytes, Exception error) {
+            this.apiMethodName = apiMethodName;
+            this.number = number;
+            this.queueTime = queueTime;
+            this.connectTime = connectTime;
+            this.serverWaitTime = serverWaitTime;
+            this.downloadTime = downloadTime;
+            this.parseTime = parseTime;
+            this.compressedBytes = compressedBytes;
+            this.decodedBytes = decodedBytes;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Receiving measurements of finished attempt of request
+     * @param attempt measurements, never null
+     */
+    void onAttempt(Attempt attempt);
+}
@@ -8,7 +8,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * JSON parser <br/>
@@ -16,157 +19,334 @@ import java.util.ArrayList;
  */
 public class VKJSONParser {
 
+    // Ids of known keys, they are compile time constants to be used in switch
+    private static final int KEY_UNKNOWN = 0;
+    private static final int KEY_UID = 1;
+    private static final int KEY_FIRST_NAME = 2;
+    private static final int KEY_LAST_NAME = 3;
+    private static final int KEY_SEX = 4;
+    private static final int KEY_BDATE = 5;
+    private static final int KEY_CITY = 6;
+    private static final int KEY_COUNTRY = 7;
+    private static final int KEY_PHOTO_50 = 8;
+    private static final int KEY_PHOTO_100 = 9;
+    private static final int KEY_PHOTO_200 = 10;
+    private static final int KEY_PHOTO_200_ORIG = 11;
+    private static final int KEY_PHOTO_400_ORIG = 12;
+    private static final int KEY_PHOTO_MAX = 13;
+    private static final int KEY_PHOTO_MAX_ORIG = 14;
+    private static final int KEY_ONLINE = 15;
+    private static final int KEY_ONLINE_MOBILE = 16;
+    private static final int KEY_ONLINE_APP = 17;
+    private static final int KEY_SCREEN_NAME = 18;
+    private static final int KEY_HAS_MOBILE = 19;
+    private static final int KEY_ACTIVITY = 20;
+    private static final int KEY_LAST_SEEN = 21;
+    private static final int KEY_RELATION = 22;
+    private static final int KEY_NICKNAME = 23;
+    private static final int KEY_GID = 24;
+    private static final int KEY_NAME = 25;
+    private static final int KEY_IS_CLOSED = 26;
+    private static final int KEY_IS_ADMIN = 27;
+    private static final int KEY_PHOTO = 28;
+    private static final int KEY_PHOTO_MEDIUM = 29;
+    private static final int KEY_PHOTO_BIG = 30;
+    private static final int KEY_DESCRIPTION = 31;
+    private static final int KEY_WIKI_PAGE = 32;
+    private static final int KEY_MEMBERS_COUNT = 33;
+    private static final int KEY_CAN_POST = 34;
+    private static final int KEY_MID = 35;
+    private static final int KEY_DATE = 36;
+    private static final int KEY_READ_STATE = 37;
+    private static final int KEY_OUT = 38;
+    private static final int KEY_TITLE = 39;
+    private static final int KEY_BODY = 40;
+    private static final int KEY_FWD_MESSAGES = 41;
+    private static final int KEY_CHAT_ID = 42;
+    private static final int KEY_CHAT_ACTIVE = 43;
+    private static final int KEY_USERS_COUNT = 44;
+    private static final int KEY_ADMIN_ID = 45;
+    private static final int KEY_DELETED = 46;
+    private static final int KEY_EMOJI = 47;
+
     /**
-	 * Parsing VKUser object from JSON
-	 * @param json with user`s data
-	 * @return VKUser object with parsed fields
-	 */
-	public static VKUser parseUserFromJSON(JSONObject json) {
-		VKUser user = new VKUser();
-		if (!json.isNull("uid"))
-            user.setUId(json.optLong("uid"));
-		if (!json.isNull("first_name"))
-			user.setFirstName(json.optString("first_name"));
-		if (!json.isNull("last_name"))
-			user.setLastName(json.optString("last_name"));
-        if (!json.isNull("sex"))
-            user.setSex(json.optInt("sex"));
-        if (!json.isNull("bdate"))
-            user.setBDate(json.optString("bdate"));
-        if (!json.isNull("city"))
-            user.setCity(json.optLong("city"));
-        if (!json.isNull("country"))
-            user.setCountry(json.optLong("country"));
-        if (!json.isNull("photo_50"))
-            user.setPhoto50(json.optString("photo_50"));
-        if (!json.isNull("photo_100"))
-            user.setPhoto100(json.optString("photo_100"));
-        if (!json.isNull("photo_200"))
-            user.setPhoto200(json.optString("photo_200"));
-        if (!json.isNull("photo_200_orig")) {
-            String response = json.optString("photo_200_orig");
-            if (!response.equals("false"))
-                user.setPhoto200Orig(response);
+     * Ids of known keys of all elements, so every key of JSON object is dispatched by one hash lookup
+     * instead of checking every known key
+     */
+    private static final HashMap<String, Integer> KEYS;
+
+    static {
+        KEYS = new HashMap<String, Integer>(128);
+        KEYS.put("uid", KEY_UID);
+        KEYS.put("first_name", KEY_FIRST_NAME);
+        KEYS.put("last_name", KEY_LAST_NAME);
+        KEYS.put("sex", KEY_SEX);
+        KEYS.put("bdate", KEY_BDATE);
+        KEYS.put("city", KEY_CITY);
+        KEYS.put("country", KEY_COUNTRY);
+        KEYS.put("photo_50", KEY_PHOTO_50);
+        KEYS.put("photo_100", KEY_PHOTO_100);
+        KEYS.put("photo_200", KEY_PHOTO_200);
+        KEYS.put("photo_200_orig", KEY_PHOTO_200_ORIG);
+        KEYS.put("photo_400_orig", KEY_PHOTO_400_ORIG);
+        KEYS.put("photo_max", KEY_PHOTO_MAX);
+        KEYS.put("photo_max_orig", KEY_PHOTO_MAX_ORIG);
+        KEYS.put("online", KEY_ONLINE);
+        KEYS.put("online_mobile", KEY_ONLINE_MOBILE);
+        KEYS.put("online_app", KEY_ONLINE_APP);
+        KEYS.put("screen_name", KEY_SCREEN_NAME);
+        KEYS.put("has_mobile", KEY_HAS_MOBILE);
+        KEYS.put("activity", KEY_ACTIVITY);
+        KEYS.put("last_seen", KEY_LAST_SEEN);
+        KEYS.put("relation", KEY_RELATION);
+        KEYS.put("nickname", KEY_NICKNAME);
+        KEYS.put("gid", KEY_GID);
+        KEYS.put("name", KEY_NAME);
+        KEYS.put("is_closed", KEY_IS_CLOSED);
+        KEYS.put("is_admin", KEY_IS_ADMIN);
+        KEYS.put("photo", KEY_PHOTO);
+        KEYS.put("photo_medium", KEY_PHOTO_MEDIUM);
+        KEYS.put("photo_big", KEY_PHOTO_BIG);
+        KEYS.put("description", KEY_DESCRIPTION);
+        KEYS.put("wiki_page", KEY_WIKI_PAGE);
+        KEYS.put("members_count", KEY_MEMBERS_COUNT);
+        KEYS.put("can_post", KEY_CAN_POST);
+        KEYS.put("mid", KEY_MID);
+        KEYS.put("date", KEY_DATE);
+        KEYS.put("read_state", KEY_READ_STATE);
+        KEYS.put("out", KEY_OUT);
+        KEYS.put("title", KEY_TITLE);
+        KEYS.put("body", KEY_BODY);
+        KEYS.put("fwd_messages", KEY_FWD_MESSAGES);
+        KEYS.put("chat_id", KEY_CHAT_ID);
+        KEYS.put("chat_active", KEY_CHAT_ACTIVE);
+        KEYS.put("users_count", KEY_USERS_COUNT);
+        KEYS.put("admin_id", KEY_ADMIN_ID);
+        KEYS.put("deleted", KEY_DELETED);
+        KEYS.put("emoji", KEY_EMOJI);
+    }
+
+    /**
+     * @return id of key or KEY_UNKNOWN
+     */
+    private static int keyId(String key) {
+        final Integer id = KEYS.get(key);
+        return id != null ? id : KEY_UNKNOWN;
+    }
+
+    /**
+     * Converting value of JSON object to long same as JSONObject.optLong()
+     */
+    private static long toLong(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
         }
-        if (!json.isNull("photo_400_orig"))
-            user.setPhoto400Orig(json.optString("photo_400_orig"));
-        if (!json.isNull("photo_max"))
-            user.setPhotoMax(json.optString("photo_max"));
-        if (!json.isNull("photo_max_orig"))
-            user.setPhotoMaxOrig(json.optString("photo_max_orig"));
-        if (!json.isNull("online"))
-            user.setOnline(json.optInt("online") == 1);
-        if (json.has("online_mobile"))
-            user.setOnlineMobile(true);
-        if (!json.isNull("online_app"))
-            user.setOnlineApp(json.optLong("online_app"));
+        return 0;
+    }
 
-        // Add lists
+    /**
+     * Converting value of JSON object to int same as JSONObject.optInt()
+     */
+    private static int toInt(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        return (int) toLong(value);
+    }
 
-        if (!json.isNull("screen_name"))
-            user.setScreenName(json.optString("screen_name"));
-        if (!json.isNull("has_mobile"))
-            user.setHasMobile(json.optInt("has_mobile") == 1);
+    /**
+     * Parsing VKUser object from JSON <br/>
+     * Only keys, which object contains, are processed
+     * @param json with user`s data
+     * @return VKUser object with parsed fields
+     */
+    public static VKUser parseUserFromJSON(JSONObject json) {
+        VKUser user = new VKUser();
+        for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+            final String key = (String) keys.next();
+            final int keyId = keyId(key);
+            if (keyId == KEY_UNKNOWN)
+                continue;
+            final Object value = json.opt(key);
+            if (keyId == KEY_ONLINE_MOBILE) {
+                // Presence of key is enough, even if it is null
+                user.setOnlineMobile(true);
+                continue;
+            }
+            if (value == null || JSONObject.NULL.equals(value))
+                continue;
+            switch (keyId) {
+                case KEY_UID:
+                    user.setUId(toLong(value));
+                    break;
+                case KEY_FIRST_NAME:
+                    user.setFirstName(value.toString());
+                    break;
+                case KEY_LAST_NAME:
+                    user.setLastName(value.toString());
+                    break;
+                case KEY_SEX:
+                    user.setSex(toInt(value));
+                    break;
+                case KEY_BDATE:
+                    user.setBDate(value.toString());
+                    break;
+                case KEY_CITY:
+                    user.setCity(toLong(value));
+                    break;
+                case KEY_COUNTRY:
+                    user.setCountry(toLong(value));
+                    break;
+                case KEY_PHOTO_50:
+                    user.setPhoto50(value.toString());
+                    break;
+                case KEY_PHOTO_100:
+                    user.setPhoto100(value.toString());
+                    break;
+                case KEY_PHOTO_200:
+                    user.setPhoto200(value.toString());
+                    break;
+                case KEY_PHOTO_200_ORIG:
+                    final String response = value.toString();
+                    if (!response.equals("false"))
+                        user.setPhoto200Orig(response);
+                    break;
+                case KEY_PHOTO_400_ORIG:
+                    user.setPhoto400Orig(value.toString());
+                    break;
+                case KEY_PHOTO_MAX:
+                    user.setPhotoMax(value.toString());
+                    break;
+                case KEY_PHOTO_MAX_ORIG:
+                    user.setPhotoMaxOrig(value.toString());
+                    break;
+                case KEY_ONLINE:
+                    user.setOnline(toInt(value) == 1);
+                    break;
+                case KEY_ONLINE_APP:
+                    user.setOnlineApp(toLong(value));
+                    break;
+                case KEY_SCREEN_NAME:
+                    user.setScreenName(value.toString());
+                    break;
+                case KEY_HAS_MOBILE:
+                    user.setHasMobile(toInt(value) == 1);
+                    break;
+                case KEY_ACTIVITY:
+                    user.setActivity(value.toString());
+                    break;
+                case KEY_LAST_SEEN:
+                    if (value instanceof JSONObject) {
+                        final JSONObject o = (JSONObject) value;
+                        if (!o.isNull("time"))
+                            user.setLastSeen(o.optLong("time"));
+                    }
+                    break;
+                case KEY_RELATION:
+                    user.setRelation(toInt(value));
+                    break;
+                case KEY_NICKNAME:
+                    user.setNickName(value.toString());
+                    break;
+            }
+        }
 
+        // Add lists
         // Add contacts
-
         // Add education
-
         // Add universities
-
         // Add schools
-
         // Add can_post
-
         // Add can_see_all_posts
-
         // Add can_write_private_message
-
-        if (!json.isNull("activity"))
-            user.setActivity(json.optString("activity"));
-        if (!json.isNull("last_seen")) {
-            JSONObject o = json.optJSONObject("last_seen");
-            if (!o.isNull("time")) {
-                user.setLastSeen(o.optLong("time"));
-            }
-        }
-        if (!json.isNull("relation"))
-            user.setRelation(json.optInt("relation"));
-
         // Add counters
-
-        if (!json.isNull("nickname"))
-			user.setNickName(json.optString("nickname"));
-
         // Add exports
-
         // Add wall_comments
-
         // Add interests
-
         // Add movies
-
         // Add tv
-
         // Add books
-
         // Add games
-
         // Add about
-
         // Add connections
 
 		return user;
 	}
 
     /**
-	 * Parsing json object and creating VKGroup object
+	 * Parsing json object and creating VKGroup object <br/>
+     * Only keys, which object contains, are processed
 	 * @param json object to parse from
 	 * @return VKGroup with fields from json
 	 */
 	public static VKGroup parseGroupFromJSON(JSONObject json) {
 		VKGroup group = new VKGroup();
-		if (!json.isNull("gid"))
-            group.setGId(json.optLong("gid"));
-		if (!json.isNull("name"))
-            group.setName(json.optString("name"));
-        if (!json.isNull("is_closed"))
-            group.setIsClosed(1 == json.optInt("is_closed"));
-        if (!json.isNull("is_admin"))
-            group.setIsAdmin(1 == json.optInt("is_admin"));
-        if (!json.isNull("photo"))
-            group.setPhoto(json.optString("photo"));
-        if (!json.isNull("photo_medium"))
-            group.setPhotoMedium(json.optString("photo_medium"));
-        if (!json.isNull("photo_big"))
-            group.setPhotoBig(json.optString("photo_big"));
-        if (!json.isNull("screen_name"))
-            group.setScreenName(json.optString("screen_name"));
-        if (!json.isNull("city"))
-            group.setCity(json.optLong("city"));
-        if (!json.isNull("country"))
-            group.setCountry(json.optLong("country"));
+        for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+            final String key = (String) keys.next();
+            final int keyId = keyId(key);
+            if (keyId == KEY_UNKNOWN)
+                continue;
+            final Object value = json.opt(key);
+            if (value == null || JSONObject.NULL.equals(value))
+                continue;
+            switch (keyId) {
+                case KEY_GID:
+                    group.setGId(toLong(value));
+                    break;
+                case KEY_NAME:
+                    group.setName(value.toString());
+                    break;
+                case KEY_IS_CLOSED:
+                    group.setIsClosed(1 == toInt(value));
+                    break;
+                case KEY_IS_ADMIN:
+                    group.setIsAdmin(1 == toInt(value));
+                    break;
+                case KEY_PHOTO:
+                    group.setPhoto(value.toString());
+                    break;
+                case KEY_PHOTO_MEDIUM:
+                    group.setPhotoMedium(value.toString());
+                    break;
+                case KEY_PHOTO_BIG:
+                    group.setPhotoBig(value.toString());
+                    break;
+                case KEY_SCREEN_NAME:
+                    group.setScreenName(value.toString());
+                    break;
+                case KEY_CITY:
+                    group.setCity(toLong(value));
+                    break;
+                case KEY_COUNTRY:
+                    group.setCountry(toLong(value));
+                    break;
+                case KEY_DESCRIPTION:
+                    group.setDescription(value.toString());
+                    break;
+                case KEY_WIKI_PAGE:
+                    group.setWikiPage(value.toString());
+                    break;
+                case KEY_MEMBERS_COUNT:
+                    group.setMembersCount(toLong(value));
+                    break;
+                case KEY_CAN_POST:
+                    group.setCanPost(1 == toInt(value));
+                    break;
+                case KEY_ACTIVITY:
+                    group.setActivity(value.toString());
+                    break;
+            }
+        }
 
         // Add place
-
-        if (!json.isNull("description"))
-            group.setDescription(json.optString("description"));
-        if (!json.isNull("wiki_page"))
-            group.setWikiPage(json.optString("wiki_page"));
-        if (!json.isNull("members_count"))
-            group.setMembersCount(json.optLong("members_count"));
-
         // Add counters
-
         // Add start_date
-
         // Add end_date
 
-        if (!json.isNull("can_post"))
-            group.setCanPost(1 == json.optInt("can_post"));
-        if (!json.isNull("activity"))
-            group.setActivity(json.optString("activity"));
-
 		return group;
 	}
 
@@ -192,56 +372,377 @@ public class VKJSONParser {
 	}
 
     /**
-	 * Creating VKMessage object from JSON
+	 * Creating VKMessage object from JSON <br/>
+     * Only keys, which object contains, are processed
 	 * @param json with message data
 	 */
 	public static VKMessage parseMessageFromJSON(JSONObject json) {
 		VKMessage message = new VKMessage();
-        if (!json.isNull("mid"))
-            message.setMId(json.optLong("mid"));
-        if (!json.isNull("uid"))
-            message.setUId(json.optLong("uid"));
-        if (!json.isNull("date"))
-            message.setDate(json.optLong("date"));
-        if (!json.isNull("read_state"))
-            message.setReadState(json.optInt("read_state") == 1);
-        if (!json.isNull("out"))
-            message.setOut(json.optInt("out") == 1);
-        if (!json.isNull("title"))
-            message.setTitle(VKUtils.unescape(json.optString("title")));
-        if (!json.isNull("body"))
-            message.setBody(VKUtils.unescape(json.optString("body")));
+        for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+            final String key = (String) keys.next();
+            final int keyId = keyId(key);
+            if (keyId == KEY_UNKNOWN)
+                continue;
+            // Presence of keys is enough, even if they are null
+            if (keyId == KEY_DELETED) {
+                message.setDeleted(true);
+                continue;
+            }
+            if (keyId == KEY_EMOJI) {
+                message.setEmoji(true);
+                continue;
+            }
+            final Object value = json.opt(key);
+            if (value == null || JSONObject.NULL.equals(value))
+                continue;
+            switch (keyId) {
+                case KEY_MID:
+                    message.setMId(toLong(value));
+                    break;
+                case KEY_UID:
+                    message.setUId(toLong(value));
+                    break;
+                case KEY_DATE:
+                    message.setDate(toLong(value));
+                    break;
+                case KEY_READ_STATE:
+                    message.setReadState(toInt(value) == 1);
+                    break;
+                case KEY_OUT:
+                    message.setOut(toInt(value) == 1);
+                    break;
+                case KEY_TITLE:
+                    message.setTitle(VKUtils.unescape(value.toString()));
+                    break;
+                case KEY_BODY:
+                    message.setBody(VKUtils.unescape(value.toString()));
+                    break;
+                case KEY_FWD_MESSAGES:
+                    if (value instanceof JSONArray) {
+                        final JSONArray jsonForwardedMessagesArray = (JSONArray) value;
+                        ArrayList<VKMessage> fwdMessages = new ArrayList<VKMessage>(jsonForwardedMessagesArray.length());
+                        for (int i = 0; i < jsonForwardedMessagesArray.length(); i++) {
+                            VKMessage fwdMessage = parseMessageFromJSON((JSONObject) jsonForwardedMessagesArray.opt(i));
+                            fwdMessages.add(fwdMessage);
+                        }
+                        message.setFwdMessages(fwdMessages);
+                    }
+                    break;
+                case KEY_CHAT_ID:
+                    message.setChatId(toLong(value));
+                    break;
+                case KEY_CHAT_ACTIVE:
+                    ArrayList<Long> chatActive = new ArrayList<Long>();
+                    String[] uIds = value.toString().split(",");
+                    for (String uId : uIds) {
+                        chatActive.add(Long.parseLong(uId));
+                    }
+                    message.setChatActive(chatActive);
+                    break;
+                case KEY_USERS_COUNT:
+                    message.setUsersCount(toInt(value));
+                    break;
+                case KEY_ADMIN_ID:
+                    message.setAdminId(toLong(value));
+                    break;
+            }
+        }
 
         // Add attachments
 
-        if (!json.isNull("fwd_messages")) {
-            JSONArray jsonForwardedMessagesArray = json.optJSONArray("fwd_messages");
-            ArrayList<VKMessage> fwdMessages = new ArrayList<VKMessage>();
-            for (int i = 0; i < jsonForwardedMessagesArray.length(); i++) {
-                VKMessage fwdMessage = parseMessageFromJSON((JSONObject) jsonForwardedMessagesArray.opt(i));
-                fwdMessages.add(fwdMessage);
+		return message;
+	}
+
+    /**
+     * Parsing VKUser object from streaming JSON reader
+     * @param reader positioned at user`s JSON object
+     * @return VKUser object with parsed fields
+     * @throws IOException if problems with reading stream
+     * @throws JSONException if JSON is incorrect
+     */
+    public static VKUser parseUserFromJSON(VKJSONReader reader) throws IOException, JSONException {
+        VKUser user = new VKUser();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final int keyId = keyId(reader.nextName());
+            if (keyId == KEY_ONLINE_MOBILE) {
+                user.setOnlineMobile(true);
+                reader.skipValue();
+                continue;
+            }
+            if (reader.skipNull())
+                continue;
+            switch (keyId) {
+                case KEY_UID:
+                    user.setUId(reader.nextLong());
+                    break;
+                case KEY_FIRST_NAME:
+                    user.setFirstName(reader.nextString());
+                    break;
+                case KEY_LAST_NAME:
+                    user.setLastName(reader.nextString());
+                    break;
+                case KEY_SEX:
+                    user.setSex(reader.nextInt());
+                    break;
+                case KEY_BDATE:
+                    user.setBDate(reader.nextString());
+                    break;
+                case KEY_CITY:
+                    user.setCity(reader.nextLong());
+                    break;
+                case KEY_COUNTRY:
+                    user.setCountry(reader.nextLong());
+                    break;
+                case KEY_PHOTO_50:
+                    user.setPhoto50(reader.nextString());
+                    break;
+                case KEY_PHOTO_100:
+                    user.setPhoto100(reader.nextString());
+                    break;
+                case KEY_PHOTO_200:
+                    user.setPhoto200(reader.nextString());
+                    break;
+                case KEY_PHOTO_200_ORIG:
+                    final String response = reader.nextString();
+                    if (!response.equals("false"))
+                        user.setPhoto200Orig(response);
+                    break;
+                case KEY_PHOTO_400_ORIG:
+                    user.setPhoto400Orig(reader.nextString());
+                    break;
+                case KEY_PHOTO_MAX:
+                    user.setPhotoMax(reader.nextString());
+                    break;
+                case KEY_PHOTO_MAX_ORIG:
+                    user.setPhotoMaxOrig(reader.nextString());
+                    break;
+                case KEY_ONLINE:
+                    user.setOnline(reader.nextInt() == 1);
+                    break;
+                case KEY_ONLINE_APP:
+                    user.setOnlineApp(reader.nextLong());
+                    break;
+                case KEY_SCREEN_NAME:
+                    user.setScreenName(reader.nextString());
+                    break;
+                case KEY_HAS_MOBILE:
+                    user.setHasMobile(reader.nextInt() == 1);
+                    break;
+                case KEY_ACTIVITY:
+                    user.setActivity(reader.nextString());
+                    break;
+                case KEY_LAST_SEEN:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("time") && !reader.skipNull())
+                            user.setLastSeen(reader.nextLong());
+                        else
+                            reader.skipValue();
+                    }
+                    reader.endObject();
+                    break;
+                case KEY_RELATION:
+                    user.setRelation(reader.nextInt());
+                    break;
+                case KEY_NICKNAME:
+                    user.setNickName(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
             }
-            message.setFwdMessages(fwdMessages);
         }
-        if (!json.isNull("chat_id"))
-            message.setChatId(json.optLong("chat_id"));
-        if (!json.isNull("chat_active")) {
-            String chatActiveString = json.optString("chat_active");
-            ArrayList<Long> chatActive = new ArrayList<Long>();
-            String[] uIds = chatActiveString.split(",");
-            for(String uId: uIds) {
-                chatActive.add(Long.parseLong(uId));
+        reader.endObject();
+        return user;
+    }
+
+    /**
+     * Parsing json array with users list from streaming JSON reader <br/>
+     * Non object elements are skipped, for example count of users, which vk.com puts in first element
+     * @param reader positioned at JSON array
+     * @return array list with VKUsers
+     * @throws IOException if problems with reading stream
+     * @throws JSONException if JSON is incorrect
+     */
+    public static ArrayList<VKUser> parseUsersFromJSON(VKJSONReader reader) throws IOException, JSONException {
+        ArrayList<VKUser> users = new ArrayList<VKUser>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == VKJSONReader.Token.BEGIN_OBJECT)
+                users.add(parseUserFromJSON(reader));
+            else
+                reader.skipValue();
+        }
+        reader.endArray();
+        return users;
+    }
+
+    /**
+     * Parsing VKGroup object from streaming JSON reader
+     * @param reader positioned at group`s JSON object
+     * @return VKGroup with parsed fields
+     * @throws IOException if problems with reading stream
+     * @throws JSONException if JSON is incorrect
+     */
+    public static VKGroup parseGroupFromJSON(VKJSONReader reader) throws IOException, JSONException {
+        VKGroup group = new VKGroup();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (reader.skipNull())
+                continue;
+            switch (keyId(name)) {
+                case KEY_GID:
+                    group.setGId(reader.nextLong());
+                    break;
+                case KEY_NAME:
+                    group.setName(reader.nextString());
+                    break;
+                case KEY_IS_CLOSED:
+                    group.setIsClosed(1 == reader.nextInt());
+                    break;
+                case KEY_IS_ADMIN:
+                    group.setIsAdmin(1 == reader.nextInt());
+                    break;
+                case KEY_PHOTO:
+                    group.setPhoto(reader.nextString());
+                    break;
+                case KEY_PHOTO_MEDIUM:
+                    group.setPhotoMedium(reader.nextString());
+                    break;
+                case KEY_PHOTO_BIG:
+                    group.setPhotoBig(reader.nextString());
+                    break;
+                case KEY_SCREEN_NAME:
+                    group.setScreenName(reader.nextString());
+                    break;
+                case KEY_CITY:
+                    group.setCity(reader.nextLong());
+                    break;
+                case KEY_COUNTRY:
+                    group.setCountry(reader.nextLong());
+                    break;
+                case KEY_DESCRIPTION:
+                    group.setDescription(reader.nextString());
+                    break;
+                case KEY_WIKI_PAGE:
+                    group.setWikiPage(reader.nextString());
+                    break;
+                case KEY_MEMBERS_COUNT:
+                    group.setMembersCount(reader.nextLong());
+                    break;
+                case KEY_CAN_POST:
+                    group.setCanPost(1 == reader.nextInt());
+                    break;
+                case KEY_ACTIVITY:
+                    group.setActivity(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
             }
-            message.setChatActive(chatActive);
         }
-        if (!json.isNull("users_count"))
-            message.setUsersCount(json.optInt("users_count"));
-        if (!json.isNull("admin_id"))
-            message.setAdminId(json.optLong("admin_id"));
-        if (json.has("deleted"))
-			message.setDeleted(true);
-		if (json.has("emoji"))
-			message.setEmoji(true);
-		return message;
-	}
+        reader.endObject();
+        return group;
+    }
+
+    /**
+     * Parsing json array with groups list from streaming JSON reader <br/>
+     * Non object elements are skipped, for example count of groups, which vk.com puts in first element
+     * @param reader positioned at JSON array
+     * @return array list with VKGroups
+     * @throws IOException if problems with reading stream
+     * @throws JSONException if JSON is incorrect
+     */
+    public static ArrayList<VKGroup> parseGroupsFromJSON(VKJSONReader reader) throws IOException, JSONException {
+        ArrayList<VKGroup> groups = new ArrayList<VKGroup>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == VKJSONReader.Token.BEGIN_OBJECT)
+                groups.add(parseGroupFromJSON(reader));
+            else
+                reader.skipValue();
+        }
+        reader.endArray();
+        return groups;
+    }
+
+    /**
+     * Creating VKMessage object from streaming JSON reader
+     * @param reader positioned at message JSON object
+     * @return VKMessage with parsed fields
+     * @throws IOException if problems with reading stream
+     * @throws JSONException if JSON is incorrect
+     */
+    public static VKMessage parseMessageFromJSON(VKJSONReader reader) throws IOException, JSONException {
+        VKMessage message = new VKMessage();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final int keyId = keyId(reader.nextName());
+            if (keyId == KEY_DELETED) {
+                message.setDeleted(true);
+                reader.skipValue();
+                continue;
+            }
+            if (keyId == KEY_EMOJI) {
+                message.setEmoji(true);
+                reader.skipValue();
+                continue;
+            }
+            if (reader.skipNull())
+                continue;
+            switch (keyId) {
+                case KEY_MID:
+                    message.setMId(reader.nextLong());
+                    break;
+                case KEY_UID:
+                    message.setUId(reader.nextLong());
+                    break;
+                case KEY_DATE:
+                    message.setDate(reader.nextLong());
+                    break;
+                case KEY_READ_STATE:
+                    message.setReadState(reader.nextInt() == 1);
+                    break;
+                case KEY_OUT:
+                    message.setOut(reader.nextInt() == 1);
+                    break;
+                case KEY_TITLE:
+                    message.setTitle(VKUtils.unescape(reader.nextString()));
+                    break;
+                case KEY_BODY:
+                    message.setBody(VKUtils.unescape(reader.nextString()));
+                    break;
+                case KEY_FWD_MESSAGES:
+                    ArrayList<VKMessage> fwdMessages = new ArrayList<VKMessage>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        fwdMessages.add(parseMessageFromJSON(reader));
+                    }
+                    reader.endArray();
+                    message.setFwdMessages(fwdMessages);
+                    break;
+                case KEY_CHAT_ID:
+                    message.setChatId(reader.nextLong());
+                    break;
+                case KEY_CHAT_ACTIVE:
+                    ArrayList<Long> chatActive = new ArrayList<Long>();
+                    String[] uIds = reader.nextString().split(",");
+                    for (String uId : uIds) {
+                        chatActive.add(Long.parseLong(uId));
+                    }
+                    message.setChatActive(chatActive);
+                    break;
+                case KEY_USERS_COUNT:
+                    message.setUsersCount(reader.nextInt());
+                    break;
+                case KEY_ADMIN_ID:
+                    message.setAdminId(reader.nextLong());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
 }
@@ -0,0 +1,448 @@
+package com.artemzin.android.vk.api;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming pull JSON parser <br/>
+ * Reads tokens directly from the stream, so there is no need to keep whole server response
+ * in memory as String and JSONObject tree <br/>
+ * Same as org.json opt* methods, numbers could be read as strings and strings with numbers could be read as numbers
+ * @author Artem Zinnatullin
+ * @see VKJSONParser
+ */
+public class VKJSONReader {
+
+    /**
+     * Kinds of JSON tokens
+     */
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT,
+    }
+
+    // Scopes of nesting stack
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+
+    private final char[] buffer = new char[1024];
+
+    private int pos;
+
+    private int limit;
+
+    private int[] stack = new int[32];
+
+    private int stackSize;
+
+    /**
+     * Token, which was peeked but not consumed yet
+     */
+    private Token peeked;
+
+    /**
+     * Text of peeked name, string, number or boolean
+     */
+    private String peekedValue;
+
+    /**
+     * Value of peeked number, if it was parsed without creating String (peekedValue is null in this case)
+     */
+    private long peekedLong;
+
+    private final StringBuilder stringBuilder = new StringBuilder();
+
+    /**
+     * Creating reader
+     * @param in to read JSON from, should be buffered or stream-like, reader does not close it
+     */
+    public VKJSONReader(Reader in) {
+        if (in == null)
+            throw new IllegalArgumentException("in param could not be null");
+        this.in = in;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return kind of next token without consuming it
+     */
+    public Token peek() throws IOException, JSONException {
+        if (peeked != null)
+            return peeked;
+
+        final int scope = stack[stackSize - 1];
+        int c;
+
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    stackSize--;
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c == -1)
+                    throw syntaxError("Unexpected end of document");
+                pos--;
+                return peeked = readValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    stackSize--;
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',')
+                    throw syntaxError("Expected ',' or ']'");
+                return peeked = readValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    stackSize--;
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',')
+                        throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"')
+                    throw syntaxError("Expected name");
+                stack[stackSize - 1] = DANGLING_NAME;
+                peekedValue = readString();
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':')
+                    throw syntaxError("Expected ':'");
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = readValue();
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = readValue();
+            default:
+                if (nextNonWhitespace() != -1)
+                    throw syntaxError("Expected end of document");
+                return peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    /**
+     * @return true if current object or array has more elements
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException, JSONException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException, JSONException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException, JSONException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException, JSONException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * @return name of next object property
+     */
+    public String nextName() throws IOException, JSONException {
+        expect(Token.NAME);
+        return peekedValue;
+    }
+
+    /**
+     * @return next string, number or boolean value as string
+     */
+    public String nextString() throws IOException, JSONException {
+        final Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN)
+            throw syntaxError("Expected string but was " + token);
+        peeked = null;
+        if (peekedValue == null)
+            return String.valueOf(peekedLong);
+        return peekedValue;
+    }
+
+    /**
+     * @return next number or string with number as long
+     */
+    public long nextLong() throws IOException, JSONException {
+        final Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING)
+            throw syntaxError("Expected number but was " + token);
+        peeked = null;
+        if (peekedValue == null)
+            return peekedLong;
+        try {
+            return Long.parseLong(peekedValue);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(peekedValue);
+            } catch (NumberFormatException ignored) {
+                throw syntaxError("Expected number but was " + peekedValue);
+            }
+        }
+    }
+
+    /**
+     * @return next number or string with number as int
+     */
+    public int nextInt() throws IOException, JSONException {
+        return (int) nextLong();
+    }
+
+    /**
+     * @return next boolean, numbers are converted as in C: 0 is false, other values are true
+     */
+    public boolean nextBoolean() throws IOException, JSONException {
+        final Token token = peek();
+        if (token == Token.BOOLEAN) {
+            peeked = null;
+            return "true".equals(peekedValue);
+        }
+        return nextLong() != 0;
+    }
+
+    public void nextNull() throws IOException, JSONException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * @return true if next value is null, null value is consumed in this case
+     */
+    public boolean skipNull() throws IOException, JSONException {
+        if (peek() == Token.NULL) {
+            peeked = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skipping next value with all its nested values
+     */
+    public void skipValue() throws IOException, JSONException {
+        int depth = 0;
+        do {
+            final Token token = peek();
+            if (token == Token.END_DOCUMENT)
+                throw syntaxError("Unexpected end of document");
+            peeked = null;
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                depth++;
+            } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void expect(Token expected) throws IOException, JSONException {
+        final Token token = peek();
+        if (token != expected)
+            throw syntaxError("Expected " + expected + " but was " + token);
+        peeked = null;
+    }
+
+    private Token readValue() throws IOException, JSONException {
+        final int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                push(EMPTY_OBJECT);
+                return Token.BEGIN_OBJECT;
+            case '[':
+                push(EMPTY_ARRAY);
+                return Token.BEGIN_ARRAY;
+            case '"':
+                peekedValue = readString();
+                return Token.STRING;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                pos--;
+                if (readLongFast())
+                    return Token.NUMBER;
+                peekedValue = readLiteral();
+                if (peekedValue.length() == 0)
+                    throw syntaxError("Unexpected character '" + (char) c + "'");
+                if ("null".equals(peekedValue))
+                    return Token.NULL;
+                if ("true".equals(peekedValue) || "false".equals(peekedValue))
+                    return Token.BOOLEAN;
+                return Token.NUMBER;
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        pos = 0;
+        limit = 0;
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0)
+            return false;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * @return next not whitespace char or -1 if end of stream was reached
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fillBuffer())
+                return -1;
+            final char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+    }
+
+    /**
+     * Reading string after opening quote, including closing quote
+     */
+    private String readString() throws IOException, JSONException {
+        stringBuilder.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                final char c = buffer[pos++];
+                if (c == '"') {
+                    if (stringBuilder.length() == 0)
+                        return new String(buffer, start, pos - start - 1);
+                    stringBuilder.append(buffer, start, pos - start - 1);
+                    return stringBuilder.toString();
+                } else if (c == '\\') {
+                    stringBuilder.append(buffer, start, pos - start - 1);
+                    stringBuilder.append(readEscapeChar());
+                    start = pos;
+                }
+            }
+            stringBuilder.append(buffer, start, pos - start);
+            if (!fillBuffer())
+                throw syntaxError("Unterminated string");
+        }
+    }
+
+    private char readEscapeChar() throws IOException, JSONException {
+        if (pos == limit && !fillBuffer())
+            throw syntaxError("Unterminated escape sequence");
+        final char escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos == limit && !fillBuffer())
+                        throw syntaxError("Unterminated escape sequence");
+                    final int digit = Character.digit(buffer[pos++], 16);
+                    if (digit == -1)
+                        throw syntaxError("Incorrect unicode escape sequence");
+                    result = (result << 4) + digit;
+                }
+                return (char) result;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return escaped;
+        }
+    }
+
+    /**
+     * Reading integer number directly from buffer without creating String, needed for long lists of ids
+     * @return true if number was read, false if literal is not integer number or it is not fully in buffer
+     */
+    private boolean readLongFast() {
+        int p = pos;
+        final boolean negative = p < limit && buffer[p] == '-';
+        if (negative) {
+            p++;
+        }
+        final int digitsStart = p;
+        long value = 0;
+        while (p < limit) {
+            final char c = buffer[p];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                p++;
+                // Longer numbers could overflow
+                if (p - digitsStart > 18)
+                    return false;
+            } else if (c == ',' || c == ']' || c == '}' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                if (p == digitsStart)
+                    return false;
+                peekedLong = negative ? -value : value;
+                peekedValue = null;
+                pos = p;
+                return true;
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reading unquoted literal: number, true, false or null
+     */
+    private String readLiteral() throws IOException {
+        stringBuilder.setLength(0);
+        while (true) {
+            final int start = pos;
+            while (pos < limit) {
+                final char c = buffer[pos];
+                if (c == ',' || c == ':' || c == ']' || c == '}' || c == ' '
+                        || c == '\n' || c == '\r' || c == '\t') {
+                    stringBuilder.append(buffer, start, pos - start);
+                    return stringBuilder.toString();
+                }
+                pos++;
+            }
+            stringBuilder.append(buffer, start, pos - start);
+            if (!fillBuffer())
+                return stringBuilder.toString();
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message);
+    }
+}
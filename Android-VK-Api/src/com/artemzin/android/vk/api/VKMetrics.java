@@ -0,0 +1,402 @@
+package com.artemzin.android.vk.api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Default instrumentation, which aggregates measurements of requests per api method: count of requests and retries,
+ * count of errors by vk.com error code, received bytes and latency histograms of phases of requests <br/>
+ * Histograms are log-linear like HdrHistogram: every power of two of microseconds is split into 8 buckets,
+ * so percentiles are precise up to 12.5% at any scale and one histogram takes fixed ~2 KB <br/>
+ * One instance could be shared between several VKApi instances
+ * @author Artem Zinnatullin
+ * @see VKApi#setInstrumentation(VKInstrumentation)
+ */
+public class VKMetrics implements VKInstrumentation {
+
+    /**
+     * Error code, under which errors are counted if they are not VKException, for example network errors
+     */
+    public static final int NETWORK_ERROR_CODE;
+
+    /**
+     * Count of buckets per power of two
+     */
+    private static final int SUB_BUCKET_COUNT;
+
+    /**
+     * log2(SUB_BUCKET_COUNT)
+     */
+    private static final int SUB_BUCKET_BITS;
+
+    /**
+     * Max power of two of recorded values, bigger values are recorded to the last bucket
+     */
+    private static final int MAX_EXPONENT;
+
+    private static final int BUCKET_COUNT;
+
+    static {
+        NETWORK_ERROR_CODE = -1;
+        SUB_BUCKET_COUNT = 8;
+        SUB_BUCKET_BITS = 3;
+        // 2^36 micros is ~19 hours
+        MAX_EXPONENT = 35;
+        BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Phase of request, which latency is measured
+     */
+    public enum Phase {
+        /**
+         * Waiting for permit of request scheduler and rate limiter
+         */
+        QUEUE,
+        /**
+         * Establishing of connection
+         */
+        CONNECT,
+        /**
+         * Waiting for response headers
+         */
+        SERVER_WAIT,
+        /**
+         * Reading and decompression of response body
+         */
+        DOWNLOAD,
+        /**
+         * Parsing of response body
+         */
+        PARSE,
+        /**
+         * All phases of attempt
+         */
+        TOTAL
+    }
+
+    private final HashMap<String, MethodStats> methods = new HashMap<String, MethodStats>();
+
+    /**
+     * Counters and histograms of one api method
+     */
+    private static class MethodStats {
+
+        long requestCount;
+
+        long retryCount;
+
+        final HashMap<Integer, Long> errorCounts = new HashMap<Integer, Long>();
+
+        long compressedBytes;
+
+        long decodedBytes;
+
+        final Histogram[] histograms;
+
+        MethodStats() {
+            histograms = new Histogram[Phase.values().length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+        }
+    }
+
+    /**
+     * Log-linear histogram of values in micros
+     */
+    private static class Histogram {
+
+        final long[] counts = new long[BUCKET_COUNT];
+
+        long count;
+
+        long sum;
+
+        long min = Long.MAX_VALUE;
+
+        long max;
+
+        void record(long value) {
+            counts[bucketIndex(value)]++;
+            count++;
+            sum += value;
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+    }
+
+    /**
+     * @return index of bucket, which contains value
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKET_COUNT - 1;
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the least value of bucket
+     */
+    private static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    @Override
+    public void onAttempt(Attempt attempt) {
+        final long total = Math.max(0, attempt.queueTime) + Math.max(0, attempt.connectTime)
+                + Math.max(0, attempt.serverWaitTime) + Math.max(0, attempt.downloadTime)
+                + Math.max(0, attempt.parseTime);
+
+        synchronized (this) {
+            MethodStats stats = methods.get(attempt.apiMethodName);
+            if (stats == null) {
+                stats = new MethodStats();
+                methods.put(attempt.apiMethodName, stats);
+            }
+
+            if (attempt.number <= 1)
+                stats.requestCount++;
+            else
+                stats.retryCount++;
+
+            if (attempt.error != null) {
+                final int errorCode = attempt.error instanceof VKException
+                        ? ((VKException) attempt.error).errorCode
+                        : NETWORK_ERROR_CODE;
+                final Long errorCount = stats.errorCounts.get(errorCode);
+                stats.errorCounts.put(errorCode, errorCount == null ? 1 : errorCount + 1);
+            }
+
+            stats.compressedBytes += attempt.compressedBytes;
+            stats.decodedBytes += attempt.decodedBytes;
+
+            record(stats, Phase.QUEUE, attempt.queueTime);
+            record(stats, Phase.CONNECT, attempt.connectTime);
+            record(stats, Phase.SERVER_WAIT, attempt.serverWaitTime);
+            record(stats, Phase.DOWNLOAD, attempt.downloadTime);
+            record(stats, Phase.PARSE, attempt.parseTime);
+            record(stats, Phase.TOTAL, total);
+        }
+    }
+
+    /**
+     * @param nanos time of phase, -1 if it is unknown
+     */
+    private static void record(MethodStats stats, Phase phase, long nanos) {
+        if (nanos >= 0) {
+            stats.histograms[phase.ordinal()].record(nanos / 1000);
+        }
+    }
+
+    /**
+     * Snapshot of latency histogram, all values are in micros
+     */
+    public static class HistogramStatistics {
+
+        private HistogramStatistics() {}
+
+        private long[] counts;
+
+        private long count;
+
+        /**
+         * @return count of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        private long sum;
+
+        /**
+         * @return average value, 0 if there are no values
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        private long min;
+
+        /**
+         * @return min value, 0 if there are no values
+         */
+        public long getMin() {
+            return min;
+        }
+
+        private long max;
+
+        /**
+         * @return max value, 0 if there are no values
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile from 0 to 100, for example 99.9
+         * @return value, which is not less than percentile of recorded values
+         * (the highest value of its bucket), 0 if there are no values
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    final long highestValue = i + 1 < counts.length ? bucketLowerBound(i + 1) - 1 : max;
+                    return Math.max(min, Math.min(highestValue, max));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return count of buckets
+         */
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * @param index of bucket, from 0 to getBucketCount() - 1
+         * @return the least value, which is recorded to bucket
+         */
+        public long getBucketLowerBound(int index) {
+            return bucketLowerBound(index);
+        }
+
+        /**
+         * @param index of bucket, from 0 to getBucketCount() - 1
+         * @return count of values in bucket
+         */
+        public long getBucketValueCount(int index) {
+            return counts[index];
+        }
+    }
+
+    /**
+     * Snapshot of measurements of api method
+     */
+    public static class MethodStatistics {
+
+        private MethodStatistics() {}
+
+        private long requestCount;
+
+        /**
+         * @return count of requests, retries are not counted
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        private long retryCount;
+
+        /**
+         * @return count of retries of requests
+         */
+        public long getRetryCount() {
+            return retryCount;
+        }
+
+        private Map<Integer, Long> errorCounts;
+
+        /**
+         * @return unmodifiable map of error codes of VKException (NETWORK_ERROR_CODE for other errors)
+         * to count of attempts, which failed with them
+         */
+        public Map<Integer, Long> getErrorCounts() {
+            return errorCounts;
+        }
+
+        /**
+         * @return count of failed attempts
+         */
+        public long getErrorCount() {
+            long errorCount = 0;
+            for (Long count : errorCounts.values()) {
+                errorCount += count;
+            }
+            return errorCount;
+        }
+
+        private long compressedBytes;
+
+        /**
+         * @return count of received bytes of response bodies, compressed if gzip was used
+         */
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        private long decodedBytes;
+
+        /**
+         * @return count of decoded bytes of response bodies
+         */
+        public long getDecodedBytes() {
+            return decodedBytes;
+        }
+
+        private HistogramStatistics[] histograms;
+
+        /**
+         * @param phase of request, null is denied
+         * @return latency histogram of phase
+         */
+        public HistogramStatistics getHistogram(Phase phase) {
+            return histograms[phase.ordinal()];
+        }
+    }
+
+    /**
+     * @return snapshot of measurements: unmodifiable map of api method names to their statistics, never returns null
+     */
+    public synchronized Map<String, MethodStatistics> getStatistics() {
+        final HashMap<String, MethodStatistics> statistics = new HashMap<String, MethodStatistics>();
+        for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+            final MethodStats stats = entry.getValue();
+            final MethodStatistics methodStatistics = new MethodStatistics();
+            methodStatistics.requestCount = stats.requestCount;
+            methodStatistics.retryCount = stats.retryCount;
+            methodStatistics.errorCounts = Collections.unmodifiableMap(new HashMap<Integer, Long>(stats.errorCounts));
+            methodStatistics.compressedBytes = stats.compressedBytes;
+            methodStatistics.decodedBytes = stats.decodedBytes;
+            methodStatistics.histograms = new HistogramStatistics[stats.histograms.length];
+            for (int i = 0; i < stats.histograms.length; i++) {
+                final Histogram histogram = stats.histograms[i];
+                final HistogramStatistics histogramStatistics = new HistogramStatistics();
+                histogramStatistics.counts = histogram.counts.clone();
+                histogramStatistics.count = histogram.count;
+                histogramStatistics.sum = histogram.sum;
+                histogramStatistics.min = histogram.count == 0 ? 0 : histogram.min;
+                histogramStatistics.max = histogram.max;
+                methodStatistics.histograms[i] = histogramStatistics;
+            }
+            statistics.put(entry.getKey(), methodStatistics);
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Removing all measurements
+     */
+    public synchronized void reset() {
+        methods.clear();
+    }
+}
@@ -0,0 +1,239 @@
+package com.artemzin.android.vk.api;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * Lazy iterable over all elements of api method with offset and count params <br/>
+ * Pages are loaded by VKApi async executor: while current page is consumed, next pages are loaded in background <br/>
+ * Iteration stops at total count of elements, if api method returns it, otherwise at first not full page <br/>
+ * Every iterator() call starts new traversal from the first element
+ * @author Artem Zinnatullin
+ * @see VKApi#setAsyncExecutor(java.util.concurrent.Executor)
+ */
+public class VKPager<T> implements Iterable<T> {
+
+    /**
+     * Default max count of pages, which are loaded at the same time
+     */
+    public static final int MAX_PAGES_IN_FLIGHT_DEFAULT;
+
+    static {
+        MAX_PAGES_IN_FLIGHT_DEFAULT = 2;
+    }
+
+    /**
+     * Page of elements
+     */
+    static class Page<T> {
+
+        final ArrayList<T> items;
+
+        /**
+         * Total count of elements or -1 if api method does not return it
+         */
+        final int totalCount;
+
+        Page(ArrayList<T> items, int totalCount) {
+            this.items = items;
+            this.totalCount = totalCount;
+        }
+    }
+
+    /**
+     * Loader of one page
+     */
+    interface PageLoader<T> {
+
+        Page<T> loadPage(int offset, int count) throws Exception;
+    }
+
+    /**
+     * Unchecked exception, which is thrown by iterator if page could not be loaded
+     */
+    public static class PageLoadException extends RuntimeException {
+
+        private static final long serialVersionUID = 3358093420148723671L;
+
+        PageLoadException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private final VKApi api;
+
+    private final int pageSize;
+
+    private final PageLoader<T> pageLoader;
+
+    private volatile int maxPagesInFlight = MAX_PAGES_IN_FLIGHT_DEFAULT;
+
+    VKPager(VKApi api, int pageSize, PageLoader<T> pageLoader) throws InvalidParameterException {
+        if (pageSize <= 0)
+            throw new InvalidParameterException("pageSize should be positive");
+        this.api = api;
+        this.pageSize = pageSize;
+        this.pageLoader = pageLoader;
+    }
+
+    /**
+     * @return count of elements requested by one query
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Setting max count of pages, which are loaded at the same time, it limits memory used by prefetched pages
+     * @param maxPagesInFlight should be positive, 1 disables prefetching
+     * @return this pager
+     * @throws InvalidParameterException if maxPagesInFlight is not positive
+     */
+    public VKPager<T> setMaxPagesInFlight(int maxPagesInFlight) throws InvalidParameterException {
+        if (maxPagesInFlight <= 0)
+            throw new InvalidParameterException("maxPagesInFlight should be positive");
+        this.maxPagesInFlight = maxPagesInFlight;
+        return this;
+    }
+
+    /**
+     * @return max count of pages, which are loaded at the same time
+     */
+    public int getMaxPagesInFlight() {
+        return maxPagesInFlight;
+    }
+
+    /**
+     * @return new iterator, which starts loading of the first page
+     */
+    @Override
+    public PageIterator iterator() {
+        return new PageIterator();
+    }
+
+    /**
+     * Iterator over elements of pages <br/>
+     * Call close() if iteration is stopped before the end, to cancel loading of prefetched pages
+     */
+    public class PageIterator implements Iterator<T> {
+
+        private final LinkedList<RunnableFuture<Page<T>>> pagesInFlight = new LinkedList<RunnableFuture<Page<T>>>();
+
+        private final int maxPagesInFlight = VKPager.this.maxPagesInFlight;
+
+        private int nextOffset;
+
+        /**
+         * Total count of elements, -1 until first page is loaded or if api method does not return it
+         */
+        private int totalCount = -1;
+
+        private boolean firstPageLoaded;
+
+        private boolean finished;
+
+        private ArrayList<T> items;
+
+        private int index;
+
+        private PageIterator() {
+            loadPages();
+        }
+
+        private void loadPages() {
+            while (!finished && pagesInFlight.size() < maxPagesInFlight) {
+                // Until total count is known, only first page is loaded
+                if (!firstPageLoaded && pagesInFlight.size() != 0)
+                    return;
+                if (totalCount >= 0 && nextOffset >= totalCount)
+                    return;
+                final int offset = nextOffset;
+                pagesInFlight.add(api.async.fork(new Callable<Page<T>>() {
+                    @Override
+                    public Page<T> call() throws Exception {
+                        return pageLoader.loadPage(offset, pageSize);
+                    }
+                }));
+                nextOffset += pageSize;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (items == null || index >= items.size()) {
+                if (pagesInFlight.isEmpty())
+                    return false;
+
+                final Page<T> page;
+
+                final RunnableFuture<Page<T>> pageInFlight = pagesInFlight.removeFirst();
+
+                try {
+                    // If executor did not start loading of page yet, it is loaded by this thread,
+                    // so iteration by thread of async executor does not wait for the same executor
+                    pageInFlight.run();
+                    page = pageInFlight.get();
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new PageLoadException(e);
+                } catch (ExecutionException e) {
+                    close();
+                    throw new PageLoadException(e.getCause());
+                }
+
+                firstPageLoaded = true;
+
+                if (page.totalCount >= 0)
+                    totalCount = page.totalCount;
+
+                // Empty page means end of elements even if total count says something else
+                if (page.items.isEmpty() || (page.totalCount < 0 && page.items.size() < pageSize))
+                    close();
+
+                items = page.items;
+                index = 0;
+
+                loadPages();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return items.get(index++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Pager is read only");
+        }
+
+        /**
+         * @return total count of elements or -1 if it is not known yet or api method does not return it
+         */
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * Stopping iteration and canceling loading of prefetched pages, current page stays available
+         */
+        public void close() {
+            finished = true;
+            for (Future<Page<T>> page : pagesInFlight) {
+                page.cancel(true);
+            }
+            pagesInFlight.clear();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.artemzin.android.vk.api;
+
+/**
+ * Encoder of query params, works as URLEncoder with UTF-8, but writes directly to StringBuilder
+ * without creating intermediate strings and byte arrays <br/>
+ * Elements of list params are written one by one, numbers are written without creating strings
+ * @author Artem Zinnatullin
+ * @see VKRequestParams
+ */
+class VKQueryEncoder {
+
+    private VKQueryEncoder() {}
+
+    /**
+     * Chars, which are not encoded, same as URLEncoder: a-z, A-Z, 0-9, '.', '-', '*', '_'
+     */
+    private static final boolean[] SAFE_CHARS;
+
+    private static final char[] HEX_DIGITS;
+
+    /**
+     * Encoded comma between list elements
+     */
+    private static final String ENCODED_COMMA;
+
+    /**
+     * Builders bigger than this size are not reused, so thread does not keep big buffer after big request
+     */
+    private static final int MAX_REUSED_BUILDER_SIZE;
+
+    private static final ThreadLocal<StringBuilder> BUILDERS;
+
+    static {
+        SAFE_CHARS = new boolean[128];
+        for (char c = 'a'; c <= 'z'; c++) {
+            SAFE_CHARS[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            SAFE_CHARS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            SAFE_CHARS[c] = true;
+        }
+        SAFE_CHARS['.'] = true;
+        SAFE_CHARS['-'] = true;
+        SAFE_CHARS['*'] = true;
+        SAFE_CHARS['_'] = true;
+        HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+        ENCODED_COMMA = "%2C";
+        MAX_REUSED_BUILDER_SIZE = 32 * 1024;
+        BUILDERS = new ThreadLocal<StringBuilder>() {
+            @Override
+            protected StringBuilder initialValue() {
+                return new StringBuilder(1024);
+            }
+        };
+    }
+
+    /**
+     * @return empty builder of current thread, call release() after usage
+     */
+    static StringBuilder obtainBuilder() {
+        final StringBuilder builder = BUILDERS.get();
+        builder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * @param builder taken by obtainBuilder()
+     * @return content of builder
+     */
+    static String release(StringBuilder builder) {
+        final String result = builder.toString();
+        if (builder.capacity() > MAX_REUSED_BUILDER_SIZE) {
+            BUILDERS.set(new StringBuilder(1024));
+        }
+        return result;
+    }
+
+    /**
+     * Writing encoded param value: string, array of elements or number
+     */
+    static void appendEncoded(StringBuilder out, Object value) {
+        if (value instanceof Object[]) {
+            final Object[] elements = (Object[]) value;
+            for (int i = 0; i < elements.length; i++) {
+                if (i != 0) {
+                    out.append(ENCODED_COMMA);
+                }
+                appendEncodedElement(out, elements[i]);
+            }
+        } else {
+            appendEncodedElement(out, value);
+        }
+    }
+
+    private static void appendEncodedElement(StringBuilder out, Object element) {
+        if (element instanceof Long || element instanceof Integer) {
+            // Digits and minus are safe chars
+            out.append(((Number) element).longValue());
+        } else {
+            appendEncodedString(out, String.valueOf(element));
+        }
+    }
+
+    /**
+     * Writing string encoded to application/x-www-form-urlencoded format with UTF-8
+     */
+    static void appendEncodedString(StringBuilder out, String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 128) {
+                if (SAFE_CHARS[c]) {
+                    out.append(c);
+                } else if (c == ' ') {
+                    out.append('+');
+                } else {
+                    appendEncodedByte(out, c);
+                }
+            } else if (c < 0x800) {
+                appendEncodedByte(out, 0xC0 | (c >> 6));
+                appendEncodedByte(out, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEncodedByte(out, 0xF0 | (codePoint >> 18));
+                appendEncodedByte(out, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEncodedByte(out, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEncodedByte(out, 0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Broken surrogate pair is replaced with '?' same as String.getBytes() does
+                appendEncodedByte(out, '?');
+            } else {
+                appendEncodedByte(out, 0xE0 | (c >> 12));
+                appendEncodedByte(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEncodedByte(out, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @return length of encoded string, same as length of string written by appendEncodedString()
+     */
+    static int encodedLength(String value) {
+        final int length = value.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 128) {
+                encodedLength += SAFE_CHARS[c] || c == ' ' ? 1 : 3;
+            } else if (c < 0x800) {
+                encodedLength += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encodedLength += 12;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                encodedLength += 3;
+            } else {
+                encodedLength += 9;
+            }
+        }
+        return encodedLength;
+    }
+
+    private static void appendEncodedByte(StringBuilder out, int b) {
+        out.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+    }
+
+    /**
+     * Writing not encoded param value, elements of array are separated by commas
+     */
+    static void appendRaw(StringBuilder out, Object value) {
+        if (value instanceof Object[]) {
+            final Object[] elements = (Object[]) value;
+            for (int i = 0; i < elements.length; i++) {
+                if (i != 0) {
+                    out.append(',');
+                }
+                out.append(elements[i]);
+            }
+        } else {
+            out.append(value);
+        }
+    }
+
+    /**
+     * @return length of not encoded param value, same as length of string written by appendRaw()
+     */
+    static int rawLength(Object value) {
+        if (value instanceof Object[]) {
+            final Object[] elements = (Object[]) value;
+            int length = elements.length - 1;
+            for (Object element : elements) {
+                length += rawLength(element);
+            }
+            return length;
+        } else if (value instanceof Long || value instanceof Integer) {
+            long number = ((Number) value).longValue();
+            int length = number < 0 ? 2 : 1;
+            while (number >= 10 || number <= -10) {
+                number /= 10;
+                length++;
+            }
+            return length;
+        } else {
+            return String.valueOf(value).length();
+        }
+    }
+}
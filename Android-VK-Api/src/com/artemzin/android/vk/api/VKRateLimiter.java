@@ -0,0 +1,328 @@
+package com.artemzin.android.vk.api;
+
+import java.net.SocketTimeoutException;
+import java.security.InvalidParameterException;
+import java.util.HashMap;
+
+/**
+ * Client side token bucket limiter of requests per second <br/>
+ * vk.com limits count of requests per second for every access token
+ * and returns error 6 "Too many requests per second" if limit was exceeded,
+ * so limiter delays requests to stay within the quota <br/>
+ * Every access token has its own bucket, so one limiter could be shared between several VKApi instances <br/>
+ * Requests of one token are served in order of arrival, even if they come from different threads
+ * @author Artem Zinnatullin
+ * @see VKApi#setRateLimiter(VKRateLimiter)
+ */
+public class VKRateLimiter {
+
+    /**
+     * Default count of requests per second, vk.com allows 3 requests per second for user access token
+     */
+    public static final double REQUESTS_PER_SECOND_DEFAULT;
+
+    /**
+     * Default max count of requests, which could be sent without delay after idle period
+     */
+    public static final int BURST_DEFAULT;
+
+    static {
+        REQUESTS_PER_SECOND_DEFAULT = 3;
+        BURST_DEFAULT = 1;
+    }
+
+    /**
+     * Interval between two requests in nanos
+     */
+    private final double intervalNanos;
+
+    /**
+     * Max count of stored permits
+     */
+    private final int burst;
+
+    /**
+     * Buckets of access tokens
+     */
+    private final HashMap<String, Bucket> buckets = new HashMap<String, Bucket>();
+
+    private long acquiredCount;
+
+    private long delayedCount;
+
+    private long totalWaitTime;
+
+    private long maxWaitTime;
+
+    private int waitingCount;
+
+    /**
+     * Creating limiter with default params
+     */
+    public VKRateLimiter() {
+        this(REQUESTS_PER_SECOND_DEFAULT, BURST_DEFAULT);
+    }
+
+    /**
+     * Creating limiter
+     * @param requestsPerSecond count of requests per second for every access token, should be positive
+     * @param burst max count of requests, which could be sent without delay after idle period, should be positive
+     * @throws InvalidParameterException if requestsPerSecond or burst is not positive
+     */
+    public VKRateLimiter(double requestsPerSecond, int burst) throws InvalidParameterException {
+        if (requestsPerSecond <= 0)
+            throw new InvalidParameterException("requestsPerSecond should be positive");
+        if (burst <= 0)
+            throw new InvalidParameterException("burst should be positive");
+        this.intervalNanos = 1000000000d / requestsPerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * @return count of requests per second for every access token
+     */
+    public double getRequestsPerSecond() {
+        return 1000000000d / intervalNanos;
+    }
+
+    /**
+     * @return max count of requests, which could be sent without delay after idle period
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Token bucket of one access token
+     */
+    private static class Bucket {
+
+        /**
+         * Time in nanos, when next request could be sent
+         */
+        long nextFreeTime = System.nanoTime();
+
+        double storedPermits;
+    }
+
+    /**
+     * Waiting until request with access token could be sent
+     * @param accessToken of request, null is allowed
+     * @param deadline of request in millis, 0 if request has no deadline
+     * @throws InterruptedException if thread was interrupted while waiting
+     * @throws SocketTimeoutException if permit of request would be available only after its deadline
+     */
+    void acquire(String accessToken, long deadline) throws InterruptedException, SocketTimeoutException {
+        final Bucket bucket;
+        synchronized (buckets) {
+            Bucket existingBucket = buckets.get(accessToken);
+            if (existingBucket == null) {
+                existingBucket = new Bucket();
+                existingBucket.storedPermits = burst - 1;
+                buckets.put(accessToken, existingBucket);
+            }
+            bucket = existingBucket;
+        }
+
+        final long maxWaitNanos = deadline != 0
+                ? (deadline - System.currentTimeMillis()) * 1000000
+                : Long.MAX_VALUE;
+
+        final Reservation reservation = reserve(bucket, maxWaitNanos);
+
+        if (reservation == null)
+            throw new SocketTimeoutException("Request deadline exceeded");
+
+        final long waitNanos = reservation.waitNanos;
+
+        if (waitNanos <= 0) {
+            synchronized (this) {
+                acquiredCount++;
+            }
+            return;
+        }
+
+        final long waitMillis = waitNanos / 1000000;
+
+        synchronized (this) {
+            waitingCount++;
+        }
+        boolean acquired = false;
+        try {
+            Thread.sleep(waitMillis, (int) (waitNanos % 1000000));
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                cancel(bucket, reservation);
+            }
+            synchronized (this) {
+                waitingCount--;
+                if (acquired) {
+                    acquiredCount++;
+                    delayedCount++;
+                    totalWaitTime += waitMillis;
+                    if (waitMillis > maxWaitTime) {
+                        maxWaitTime = waitMillis;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimating delay of request without reserving of permit
+     * @param accessToken of request, null is allowed
+     * @return time in nanos, which request with access token would wait now, 0 if it would be sent immediately
+     */
+    long getDelayNanos(String accessToken) {
+        final Bucket bucket;
+        synchronized (buckets) {
+            bucket = buckets.get(accessToken);
+        }
+        if (bucket == null)
+            return 0;
+        synchronized (bucket) {
+            final long now = System.nanoTime();
+            if (now >= bucket.nextFreeTime || bucket.storedPermits >= 1)
+                return 0;
+            return bucket.nextFreeTime - now;
+        }
+    }
+
+    /**
+     * Permit reserved in bucket
+     */
+    private static class Reservation {
+
+        /**
+         * Time in nanos, which request should wait for its permit
+         */
+        final long waitNanos;
+
+        /**
+         * Part of permit taken from stored permits
+         */
+        final double permitsFromStore;
+
+        /**
+         * Time in nanos, when next request could be sent after this reservation
+         */
+        final long nextFreeTime;
+
+        Reservation(long waitNanos, double permitsFromStore, long nextFreeTime) {
+            this.waitNanos = waitNanos;
+            this.permitsFromStore = permitsFromStore;
+            this.nextFreeTime = nextFreeTime;
+        }
+    }
+
+    /**
+     * Reserving permit in bucket
+     * @param maxWaitNanos max time in nanos, which request could wait for its permit
+     * @return reserved permit or null if request would wait longer than maxWaitNanos, nothing is reserved then
+     */
+    private Reservation reserve(Bucket bucket, long maxWaitNanos) {
+        synchronized (bucket) {
+            final long now = System.nanoTime();
+            if (now > bucket.nextFreeTime) {
+                // One permit is always available at nextFreeTime, so bucket stores only burst - 1 permits
+                bucket.storedPermits = Math.min(burst - 1, bucket.storedPermits + (now - bucket.nextFreeTime) / intervalNanos);
+                bucket.nextFreeTime = now;
+            }
+            final long waitNanos = bucket.nextFreeTime - now;
+            if (waitNanos > maxWaitNanos)
+                return null;
+            final double permitsFromStore = Math.min(1, bucket.storedPermits);
+            bucket.storedPermits -= permitsFromStore;
+            bucket.nextFreeTime += (long) ((1 - permitsFromStore) * intervalNanos);
+            return new Reservation(waitNanos, permitsFromStore, bucket.nextFreeTime);
+        }
+    }
+
+    /**
+     * Giving permit, which was not used, back to bucket <br/>
+     * Permit could be given back only if it is the last reserved one,
+     * otherwise requests reserved after it would have to be moved too
+     */
+    private void cancel(Bucket bucket, Reservation reservation) {
+        synchronized (bucket) {
+            if (bucket.nextFreeTime != reservation.nextFreeTime)
+                return;
+            bucket.nextFreeTime -= (long) ((1 - reservation.permitsFromStore) * intervalNanos);
+            bucket.storedPermits += reservation.permitsFromStore;
+        }
+    }
+
+    /**
+     * Container for limiter statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private long acquiredCount;
+
+        /**
+         * @return count of requests, which passed limiter
+         */
+        public long getAcquiredCount() {
+            return acquiredCount;
+        }
+
+        private long delayedCount;
+
+        /**
+         * @return count of requests, which were delayed by limiter
+         */
+        public long getDelayedCount() {
+            return delayedCount;
+        }
+
+        private long totalWaitTime;
+
+        /**
+         * @return total time in millis, which requests spent in limiter queue
+         */
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        private long maxWaitTime;
+
+        /**
+         * @return max time in millis, which one request spent in limiter queue
+         */
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        private int waitingCount;
+
+        /**
+         * @return count of requests, which were waiting in limiter queue at the moment of statistics creation
+         */
+        public int getWaitingCount() {
+            return waitingCount;
+        }
+
+        /**
+         * @return average time in millis, which request spent in limiter queue
+         */
+        public double getAverageWaitTime() {
+            return acquiredCount == 0 ? 0 : (double) totalWaitTime / acquiredCount;
+        }
+    }
+
+    /**
+     * @return snapshot of limiter statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        Statistics statistics = new Statistics();
+        statistics.acquiredCount = acquiredCount;
+        statistics.delayedCount = delayedCount;
+        statistics.totalWaitTime = totalWaitTime;
+        statistics.maxWaitTime = maxWaitTime;
+        statistics.waitingCount = waitingCount;
+        return statistics;
+    }
+}
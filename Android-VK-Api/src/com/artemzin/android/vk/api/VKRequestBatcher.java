@@ -0,0 +1,403 @@
+package com.artemzin.android.vk.api;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects queries from different threads and sends them to vk.com as one "execute" query <br/>
+ * First query of batch waits for batch window, queries which come during the window are added to the batch,
+ * after that first query sends whole batch and distributes results between waiting queries
+ * @author Artem Zinnatullin
+ * @see <a href="http://vk.com/developers.php?oid=-1&p=execute">Documentation on vk.com</a>
+ * @see VKApi#setRequestBatching(boolean)
+ */
+class VKRequestBatcher {
+
+    /**
+     * vk.com limit of api calls in one "execute" query
+     */
+    static final int MAX_BATCH_SIZE = 25;
+
+    /**
+     * Queries with longer params are sent directly, because "execute" query is sent with GET params
+     */
+    private static final int MAX_BATCHABLE_PARAMS_LENGTH = 1024;
+
+    /**
+     * Max length of encoded code of "execute" query, it is sent with GET params,
+     * so batch is closed before query, which would make url of batch too long for servers
+     */
+    private static final int MAX_BATCH_CODE_LENGTH = 6 * 1024;
+
+    /**
+     * Beginning and end of code of "execute" query, api calls are put between them
+     */
+    private static final String CODE_PREFIX = "return [";
+
+    private static final String CODE_SUFFIX = "];";
+
+    /**
+     * Query of "execute" batch did not fail
+     */
+    private static final int ERROR_INDEX_NONE = -1;
+
+    /**
+     * Query of "execute" batch returned false, but it could not be matched to its error
+     */
+    private static final int ERROR_INDEX_AMBIGUOUS = -2;
+
+    private final VKApi api;
+
+    /**
+     * Time in millis, while batch collects queries
+     */
+    private volatile int window;
+
+    /**
+     * Batch, which collects queries at the moment
+     */
+    private Batch currentBatch;
+
+    VKRequestBatcher(VKApi api, int window) {
+        this.api = api;
+        this.window = window;
+    }
+
+    void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Checking if query could be added to "execute" batch
+     * @param requestParams to check
+     * @return true if query could be batched
+     */
+    static boolean isBatchable(VKRequestParams requestParams) {
+        if ("execute".equals(requestParams.apiMethodName))
+            return false;
+        return requestParams.getParamsLength() <= MAX_BATCHABLE_PARAMS_LENGTH;
+    }
+
+    /**
+     * Query waiting for its result
+     */
+    private static class Entry extends VKSharedResult {
+
+        final VKRequestParams requestParams;
+
+        /**
+         * VKScript api call of query, for example: API.users.get({"uids":"1,2"})
+         */
+        final String code;
+
+        /**
+         * Length of encoded code with comma, which separates it from other calls
+         */
+        final int codeLength;
+
+        Entry(VKRequestParams requestParams) {
+            this.requestParams = requestParams;
+            this.code = createCode(requestParams);
+            this.codeLength = VKQueryEncoder.encodedLength(code) + VKQueryEncoder.encodedLength(",");
+        }
+    }
+
+    private static class Batch {
+
+        final ArrayList<Entry> entries = new ArrayList<Entry>(MAX_BATCH_SIZE);
+
+        /**
+         * Call, which sends batch, its deadline and priority are merged from deadlines and priorities of queries
+         */
+        final VKCall call = VKCall.newShared();
+
+        /**
+         * Length of encoded code of "execute" query with queries of batch
+         */
+        int codeLength = VKQueryEncoder.encodedLength(CODE_PREFIX + CODE_SUFFIX);
+    }
+
+    /**
+     * Sending query as part of "execute" batch
+     * @param requestParams of query
+     * @return JSONObject with server reply for this query, same as VKApi.sendRequest returns
+     * @throws VKException if vk.com returned error for this query or for whole batch
+     * @throws java.net.SocketTimeoutException if deadline of query was exceeded
+     * @throws java.io.InterruptedIOException if call of query was canceled
+     * @throws VKCircuitBreaker.CircuitOpenException if circuit of api method of query is open
+     * @throws Exception if something goes wrong
+     */
+    JSONObject send(VKRequestParams requestParams) throws Exception {
+        // "execute" query of batch is not checked by circuit breaker, so query is checked and recorded under its own api method
+        final VKCircuitBreaker circuitBreaker = api.getCircuitBreaker();
+        final boolean trialCall = circuitBreaker != null && circuitBreaker.acquire(requestParams.apiMethodName);
+        final long startTime = System.currentTimeMillis();
+        final JSONObject result;
+        try {
+            result = sendBatched(requestParams);
+        } catch (Exception e) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onResult(requestParams.apiMethodName, trialCall, System.currentTimeMillis() - startTime, e);
+            }
+            throw e;
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(requestParams.apiMethodName, trialCall, System.currentTimeMillis() - startTime, null);
+        }
+        return result;
+    }
+
+    /**
+     * Adding query to current batch and waiting for its result
+     */
+    private JSONObject sendBatched(VKRequestParams requestParams) throws Exception {
+        final Entry entry = new Entry(requestParams);
+        final long deadline = api.requestDeadline(requestParams);
+        final VKRequestScheduler.Priority priority = api.requestPriority(requestParams);
+        final Batch batch;
+        final boolean leader;
+
+        synchronized (this) {
+            if (currentBatch != null && currentBatch.codeLength + entry.codeLength > MAX_BATCH_CODE_LENGTH) {
+                // Url of batch would be too long with this query, so batch is sent and query starts new batch
+                currentBatch = null;
+                notifyAll();
+            }
+            leader = currentBatch == null;
+            if (leader) {
+                currentBatch = new Batch();
+            }
+            batch = currentBatch;
+            batch.entries.add(entry);
+            batch.codeLength += entry.codeLength;
+            batch.call.join(deadline, priority);
+            if (batch.entries.size() >= MAX_BATCH_SIZE) {
+                // Batch is full, waking up its leader
+                currentBatch = null;
+                notifyAll();
+            }
+        }
+
+        if (leader) {
+            boolean interrupted = false;
+            synchronized (this) {
+                final long windowEnd = System.currentTimeMillis() + window;
+                try {
+                    for (long remaining; currentBatch == batch
+                            && (remaining = windowEnd - System.currentTimeMillis()) > 0;) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    // Other queries of batch are waiting for it, so batch should be sent anyway
+                    interrupted = true;
+                }
+                if (currentBatch == batch) {
+                    currentBatch = null;
+                }
+            }
+            // Batch is sent by detached thread, so leader waits for its query only until its own deadline
+            VKSharedResult.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendBatch(batch);
+                    } finally {
+                        for (Entry batchEntry : batch.entries) {
+                            if (!batchEntry.isDone()) {
+                                // Batch got Error, its queries should not wait for it forever
+                                batchEntry.complete(null, new Exception("Batched query failed"));
+                            }
+                        }
+                    }
+                }
+            });
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return (JSONObject) entry.await(deadline);
+    }
+
+    /**
+     * Sending batch and distributing results between its queries
+     * @param batch to send, should not be changed by other threads
+     */
+    private void sendBatch(Batch batch) {
+        final ArrayList<Entry> entries = batch.entries;
+
+        // Batch is shared between several callers, so it is sent by shared call:
+        // it is not aborted if leader call is canceled, it lasts until the latest deadline of queries
+        // and it is scheduled with the highest priority of queries
+        VKCall.setCurrent(batch.call);
+
+        try {
+            if (entries.size() == 1) {
+                final Entry entry = entries.get(0);
+                try {
+                    entry.complete(api.sendBatchedRequest(entry.requestParams), null);
+                } catch (Exception e) {
+                    entry.complete(null, e);
+                }
+                return;
+            }
+
+            final VKRequestParams executeParams = new VKRequestParams("execute");
+            executeParams.putParam("code", createCode(entries));
+
+            final JSONObject json;
+            try {
+                json = api.sendBatchedRequest(executeParams);
+            } catch (Exception e) {
+                for (Entry entry : entries) {
+                    entry.complete(null, e);
+                }
+                return;
+            }
+
+            final JSONArray responses = json.optJSONArray("response");
+            final JSONArray executeErrors = json.optJSONArray("execute_errors");
+            final int[] errorIndexes = matchExecuteErrors(entries, responses, executeErrors);
+
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                try {
+                    if (responses == null || i >= responses.length())
+                        throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+
+                    if (errorIndexes[i] == ERROR_INDEX_AMBIGUOUS) {
+                        // It is unknown if false is result or error of this query, so it is sent again directly
+                        entry.complete(api.sendBatchedRequest(entry.requestParams), null);
+                        continue;
+                    }
+
+                    if (errorIndexes[i] != ERROR_INDEX_NONE) {
+                        final JSONObject error = executeErrors.optJSONObject(errorIndexes[i]);
+                        if (error != null) {
+                            VKUtils.checkJSONForVKError(new JSONObject().put("error", error));
+                        }
+                    }
+
+                    entry.complete(new JSONObject().put("response", responses.get(i)), null);
+                } catch (Exception e) {
+                    entry.complete(null, e);
+                }
+            }
+        } finally {
+            VKCall.setCurrent(null);
+        }
+    }
+
+    /**
+     * Matching errors of "execute" query to its queries <br/>
+     * Failed api call returns false and adds its error with name of its method to execute_errors in order of calls,
+     * but api call could also return false as result, and VKScript could not tell them apart.
+     * So false responses of method are matched to errors of the same method only if their counts are equal,
+     * otherwise it is ambiguous which of them failed
+     * @param entries queries of batch
+     * @param responses of "execute" query, could be null
+     * @param executeErrors of "execute" query, could be null
+     * @return for every query: index in executeErrors, ERROR_INDEX_NONE or ERROR_INDEX_AMBIGUOUS
+     */
+    private static int[] matchExecuteErrors(ArrayList<Entry> entries, JSONArray responses, JSONArray executeErrors) {
+        final int[] errorIndexes = new int[entries.size()];
+        Arrays.fill(errorIndexes, ERROR_INDEX_NONE);
+
+        if (responses == null || executeErrors == null)
+            return errorIndexes;
+
+        // Indexes of false responses and of errors per api method, in order of calls
+        final HashMap<String, ArrayList<Integer>> falseResponses = new HashMap<String, ArrayList<Integer>>();
+        final HashMap<String, ArrayList<Integer>> errors = new HashMap<String, ArrayList<Integer>>();
+
+        for (int i = 0; i < entries.size() && i < responses.length(); i++) {
+            if (Boolean.FALSE.equals(responses.opt(i))) {
+                addIndex(falseResponses, entries.get(i).requestParams.apiMethodName, i);
+            }
+        }
+
+        for (int i = 0; i < executeErrors.length(); i++) {
+            final JSONObject error = executeErrors.optJSONObject(i);
+            if (error != null) {
+                addIndex(errors, error.optString("method"), i);
+            }
+        }
+
+        for (Map.Entry<String, ArrayList<Integer>> method : falseResponses.entrySet()) {
+            final ArrayList<Integer> responseIndexes = method.getValue();
+            final ArrayList<Integer> methodErrors = errors.get(method.getKey());
+            final int errorCount = methodErrors == null ? 0 : methodErrors.size();
+
+            for (int i = 0; i < responseIndexes.size(); i++) {
+                if (errorCount == 0) {
+                    // All false responses of method are results
+                    break;
+                } else if (errorCount == responseIndexes.size()) {
+                    errorIndexes[responseIndexes.get(i)] = methodErrors.get(i);
+                } else {
+                    errorIndexes[responseIndexes.get(i)] = ERROR_INDEX_AMBIGUOUS;
+                }
+            }
+        }
+
+        return errorIndexes;
+    }
+
+    private static void addIndex(HashMap<String, ArrayList<Integer>> indexes, String apiMethodName, int index) {
+        ArrayList<Integer> list = indexes.get(apiMethodName);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            indexes.put(apiMethodName, list);
+        }
+        list.add(index);
+    }
+
+    /**
+     * Creating VKScript code for "execute" query
+     * Example: return [API.users.get({"uids":"1,2"}),API.friends.get({})];
+     * @param entries to put in code
+     * @return VKScript code
+     */
+    private static String createCode(ArrayList<Entry> entries) {
+        int length = CODE_PREFIX.length() + CODE_SUFFIX.length();
+        for (Entry entry : entries) {
+            length += entry.code.length() + 1;
+        }
+        final StringBuilder code = new StringBuilder(length);
+        code.append(CODE_PREFIX);
+        for (int i = 0; i < entries.size(); i++) {
+            if (i != 0) {
+                code.append(',');
+            }
+            code.append(entries.get(i).code);
+        }
+        code.append(CODE_SUFFIX);
+        return code.toString();
+    }
+
+    /**
+     * Creating VKScript api call of query
+     * Example: API.users.get({"uids":"1,2"})
+     * @param requestParams of query
+     * @return VKScript api call
+     */
+    private static String createCode(VKRequestParams requestParams) {
+        final StringBuilder code = new StringBuilder(64);
+        code.append("API.").append(requestParams.apiMethodName).append("({");
+        boolean firstParam = true;
+        for (Map.Entry<String, String> param : requestParams.getParams().entrySet()) {
+            if (!firstParam) {
+                code.append(',');
+            }
+            firstParam = false;
+            code.append(JSONObject.quote(param.getKey())).append(':').append(JSONObject.quote(param.getValue()));
+        }
+        code.append("})");
+        return code.toString();
+    }
+}
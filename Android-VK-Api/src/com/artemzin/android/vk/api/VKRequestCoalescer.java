@@ -0,0 +1,165 @@
+package com.artemzin.android.vk.api;
+
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Suppresses duplicated concurrent queries <br/>
+ * If equal query (same method, params and parser) is already in flight,
+ * caller waits for it and gets its result instead of sending one more http request
+ * @author Artem Zinnatullin
+ * @see VKApi#setRequestCoalescing(boolean)
+ */
+class VKRequestCoalescer {
+
+    private final VKApi api;
+
+    /**
+     * Queries in flight by their keys
+     */
+    private final HashMap<Key, Flight> flights = new HashMap<Key, Flight>();
+
+    private long coalescedCount;
+
+    VKRequestCoalescer(VKApi api) {
+        this.api = api;
+    }
+
+    /**
+     * Key of query: canonical form of params and parser of reply
+     */
+    private static class Key {
+
+        final String canonicalParams;
+
+        /**
+         * Compared by identity, because different parsers produce different results from one reply
+         */
+        final Object responseParser;
+
+        Key(String canonicalParams, Object responseParser) {
+            this.canonicalParams = canonicalParams;
+            this.responseParser = responseParser;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return responseParser == other.responseParser && canonicalParams.equals(other.canonicalParams);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * canonicalParams.hashCode() + System.identityHashCode(responseParser);
+        }
+    }
+
+    /**
+     * Query in flight, which result is shared between callers
+     */
+    private static class Flight extends VKSharedResult {
+
+        /**
+         * Call, which executes query, its deadline and priority are merged from deadlines and priorities of callers
+         */
+        final VKCall call = VKCall.newShared();
+    }
+
+    /**
+     * Executing query or joining equal query in flight
+     * @param requestParams of query
+     * @param responseParser of query reply, null is allowed
+     * @param query which sends request, called by detached thread only if equal query is not in flight
+     * @return result of query, it is shared between all joined callers
+     * @throws java.net.SocketTimeoutException if deadline of caller was exceeded
+     * @throws java.io.InterruptedIOException if call of caller was canceled
+     * @throws Exception of query, it is shared between all joined callers too
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(VKRequestParams requestParams, Object responseParser, final Callable<T> query) throws Exception {
+        final Key key = new Key(requestParams.getCanonicalString(), responseParser);
+        final long deadline = api.requestDeadline(requestParams);
+        final VKRequestScheduler.Priority priority = api.requestPriority(requestParams);
+
+        while (true) {
+            final Flight flight;
+            final boolean leader;
+            final boolean extended;
+
+            synchronized (this) {
+                final Flight existingFlight = flights.get(key);
+                leader = existingFlight == null;
+                if (leader) {
+                    flight = new Flight();
+                    flights.put(key, flight);
+                } else {
+                    flight = existingFlight;
+                    coalescedCount++;
+                }
+                extended = flight.call.join(deadline, priority);
+            }
+
+            if (leader) {
+                VKSharedResult.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        executeFlight(key, flight, query);
+                    }
+                });
+            }
+
+            try {
+                return (T) flight.await(deadline);
+            } catch (SocketTimeoutException e) {
+                // Timeouts of request, which was already sent, were bounded by deadline of flight before caller extended it,
+                // so caller executes query once more if its own deadline is not exceeded
+                if (!extended || (deadline != 0 && System.currentTimeMillis() >= deadline))
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Executing query of flight by detached thread
+     */
+    private void executeFlight(Key key, Flight flight, Callable<?> query) {
+        // Result is shared between several callers, so request is executed by shared call:
+        // it is not aborted if leader call is canceled, it lasts until the latest deadline of callers
+        // and it is scheduled with the highest priority of callers
+        VKCall.setCurrent(flight.call);
+
+        Object result = null;
+        Exception error = null;
+        boolean completed = false;
+
+        try {
+            result = query.call();
+            completed = true;
+        } catch (Exception e) {
+            error = e;
+            completed = true;
+        } finally {
+            VKCall.setCurrent(null);
+            if (!completed) {
+                // Query got Error, callers should not get null result
+                error = new Exception("Coalesced query failed");
+            }
+            synchronized (this) {
+                flights.remove(key);
+            }
+            flight.complete(result, error);
+        }
+    }
+
+    /**
+     * @return count of queries, which joined equal query in flight instead of sending http request
+     */
+    synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+}
@@ -1,29 +1,40 @@
 package com.artemzin.android.vk.api;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 /**
- * Container for request params
+ * Container for request params <br/>
+ * Params are kept sorted by name, so equal requests always have equal urls
  * @author Artem Zinnatullin
  *
  */
 public class VKRequestParams {
 	
 	/**
-	 * Map with params
+	 * Map with params, value is String or Object[] with elements of list param
 	 */
-	private final HashMap<String, String> params;
+	private final TreeMap<String, Object> params;
 	
 	/**
 	 * vk.com api method name
 	 */
 	public final String apiMethodName;
 	
+	/**
+	 * Time in millis, after which request fails, 0 if request has no deadline
+	 */
+	private long deadline;
+	
+	/**
+	 * Priority of request in request scheduler, null if request has no priority
+	 */
+	private VKRequestScheduler.Priority priority;
+	
 	{
-		params = new HashMap<String, String>();
+		params = new TreeMap<String, Object>();
 	}
 	
 	/**
@@ -50,21 +61,149 @@ public class VKRequestParams {
 		}
 	}
 	
+	/**
+	 * Puts new list param to container, elements are sent separated by commas <br/>
+	 * Unlike putParam(name, VKUtils.listToParams(values)), it does not create intermediate string
+	 * @param paramName NOT NULL name of parameter
+	 * @param values NOT EMPTY list of values, for example uIds
+	 * @return true if param was added, else false
+	 */
+	public boolean putListParam(String paramName, List<?> values) {
+		if (paramName != null && paramName.length() != 0
+				&& values != null && values.size() != 0) {
+			// toArray() creates copy, so later changes of values do not change request
+			params.put(paramName, values.toArray());
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Puts new array param to container, elements are sent separated by commas <br/>
+	 * Unlike putParam(name, VKUtils.arrayToParams(values)), it does not create intermediate string
+	 * @param paramName NOT NULL name of parameter
+	 * @param values NOT EMPTY array of values, for example fields or enums
+	 * @return true if param was added, else false
+	 */
+	public boolean putArrayParam(String paramName, Object[] values) {
+		if (paramName != null && paramName.length() != 0
+				&& values != null && values.length != 0) {
+			// Copy, so later changes of values do not change request
+			params.put(paramName, values.clone());
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Sets deadline of request: it bounds total time of all attempts and backoff delays,
+	 * connect and read timeouts are shortened to fit into it <br/>
+	 * Deadline is not a param, so it does not change url and canonical string of request
+	 * @param deadline time in millis (as System.currentTimeMillis()), 0 to remove deadline
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * @return time in millis, after which request fails, 0 if request has no deadline
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * Sets priority of request, which is used by request scheduler of VKApi <br/>
+	 * Priority is not a param, so it does not change url and canonical string of request
+	 * @param priority of request, null to use priority of call or api method
+	 */
+	public void setPriority(VKRequestScheduler.Priority priority) {
+		this.priority = priority;
+	}
+	
+	/**
+	 * @return priority of request, null if request has no priority
+	 */
+	public VKRequestScheduler.Priority getPriority() {
+		return priority;
+	}
+	
 	/**
 	 * Returns params as request string
 	 * @return request optimized string with all params
 	 */
 	public String getParamsAsRequestString() {
-		StringBuilder resultString = new StringBuilder();
-		for (Entry<String, String> param: params.entrySet()) {
-			if (resultString.length() != 0) {
-				resultString.append("&");
-			}
-			try {
-				resultString.append(param.getKey()).append("=").append(URLEncoder.encode(param.getValue(), "UTF-8"));
-			} catch (UnsupportedEncodingException ignored) {
+		final StringBuilder resultString = VKQueryEncoder.obtainBuilder();
+		appendParamsAsRequestString(resultString);
+		return VKQueryEncoder.release(resultString);
+	}
+	
+	/**
+	 * Writes params as request string
+	 * @param out to write to
+	 */
+	void appendParamsAsRequestString(StringBuilder out) {
+		boolean first = true;
+		for (Entry<String, Object> param: params.entrySet()) {
+			if (!first) {
+				out.append('&');
 			}
+			first = false;
+			out.append(param.getKey()).append('=');
+			VKQueryEncoder.appendEncoded(out, param.getValue());
+		}
+	}
+	
+	/**
+	 * @return total length of names and not encoded values of params
+	 */
+	int getParamsLength() {
+		int length = 0;
+		for (Entry<String, Object> param: params.entrySet()) {
+			length += param.getKey().length() + VKQueryEncoder.rawLength(param.getValue());
+		}
+		return length;
+	}
+	
+	/**
+	 * @return true if container has no params
+	 */
+	boolean isEmpty() {
+		return params.isEmpty();
+	}
+	
+	/**
+	 * Returns canonical form of request: method name and params sorted by name <br/>
+	 * Equal requests have equal canonical forms independently of order of params putting
+	 * @return canonical string of request
+	 */
+	String getCanonicalString() {
+		StringBuilder resultString = new StringBuilder(apiMethodName);
+		for (Entry<String, String> param: getParams().entrySet()) {
+			// Length of value makes string unambiguous even if value contains separators
+			resultString.append('&').append(param.getKey()).append('=')
+					.append(param.getValue().length()).append(':').append(param.getValue());
 		}
 		return resultString.toString();
 	}
+	
+	/**
+	 * Returns all params, list params are converted to strings
+	 * @return map with params sorted by name
+	 */
+	Map<String, String> getParams() {
+		final TreeMap<String, String> result = new TreeMap<String, String>();
+		for (Entry<String, Object> param: params.entrySet()) {
+			if (param.getValue() instanceof String) {
+				result.put(param.getKey(), (String) param.getValue());
+			} else {
+				StringBuilder value = new StringBuilder();
+				VKQueryEncoder.appendRaw(value, param.getValue());
+				result.put(param.getKey(), value.toString());
+			}
+		}
+		return result;
+	}
 }
@@ -0,0 +1,460 @@
+package com.artemzin.android.vk.api;
+
+import java.net.SocketTimeoutException;
+import java.security.InvalidParameterException;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Client side limiter of requests per second with priority lanes <br/>
+ * Like VKRateLimiter it gives permits to requests of every access token not more often than its quota allows,
+ * but waiting requests are queued in lanes by priority (interactive, normal, bulk) and permits are shared
+ * between lanes by weights (stride scheduling): while all lanes are busy, interactive lane gets 16 permits
+ * for every 4 permits of normal lane and 1 permit of bulk lane by default, so bulk requests use only
+ * spare capacity and never starve completely <br/>
+ * Requests of one lane and one token are served in order of arrival <br/>
+ * Priority of request is taken from VKRequestParams, then from call (VKApi.callWithPriority()),
+ * then from priority of api method in scheduler, by default it is NORMAL
+ * @author Artem Zinnatullin
+ * @see VKApi#setRequestScheduler(VKRequestScheduler)
+ */
+public class VKRequestScheduler {
+
+    /**
+     * Default count of requests per second, vk.com allows 3 requests per second for user access token
+     */
+    public static final double REQUESTS_PER_SECOND_DEFAULT;
+
+    /**
+     * Default weight of interactive lane
+     */
+    public static final int INTERACTIVE_WEIGHT_DEFAULT;
+
+    /**
+     * Default weight of normal lane
+     */
+    public static final int NORMAL_WEIGHT_DEFAULT;
+
+    /**
+     * Default weight of bulk lane
+     */
+    public static final int BULK_WEIGHT_DEFAULT;
+
+    /**
+     * Distance of stride scheduling, lane moves forward by STRIDE / weight for every permit
+     */
+    private static final long STRIDE;
+
+    static {
+        REQUESTS_PER_SECOND_DEFAULT = 3;
+        INTERACTIVE_WEIGHT_DEFAULT = 16;
+        NORMAL_WEIGHT_DEFAULT = 4;
+        BULK_WEIGHT_DEFAULT = 1;
+        STRIDE = 1 << 20;
+    }
+
+    /**
+     * Priority lane of request
+     */
+    public enum Priority {
+        /**
+         * Requests, which user is waiting for
+         */
+        INTERACTIVE,
+        /**
+         * Requests without special priority
+         */
+        NORMAL,
+        /**
+         * Background requests, for example crawling of friends lists
+         */
+        BULK
+    }
+
+    /**
+     * Interval between two requests of one token in nanos
+     */
+    private final double intervalNanos;
+
+    private volatile int[] weights = {INTERACTIVE_WEIGHT_DEFAULT, NORMAL_WEIGHT_DEFAULT, BULK_WEIGHT_DEFAULT};
+
+    /**
+     * Priorities of api methods
+     */
+    private final HashMap<String, Priority> methodPriorities = new HashMap<String, Priority>();
+
+    /**
+     * Queues of access tokens
+     */
+    private final HashMap<String, TokenQueue> queues = new HashMap<String, TokenQueue>();
+
+    private final LaneStats[] laneStats;
+
+    /**
+     * Waiting request
+     */
+    private static class Waiter {
+
+        /**
+         * Time in nanos, when request started waiting
+         */
+        final long enqueueTime = System.nanoTime();
+    }
+
+    /**
+     * Queue of waiting requests of one lane of one token
+     */
+    private static class Lane {
+
+        final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+        /**
+         * Position of lane in stride scheduling, lane with the least pass gets next permit
+         */
+        long pass;
+    }
+
+    /**
+     * Lanes of one access token, it is also monitor, on which their requests wait
+     */
+    private static class TokenQueue {
+
+        final Lane[] lanes;
+
+        /**
+         * Time in nanos, when next request could be sent
+         */
+        long nextFreeTime = System.nanoTime();
+
+        /**
+         * Pass of the last permit, lane, which becomes busy, starts from it, so idle lane does not collect permits
+         */
+        long virtualTime;
+
+        TokenQueue() {
+            lanes = new Lane[Priority.values().length];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new Lane();
+            }
+        }
+
+        /**
+         * @return busy lane, which should get next permit, or null if there are no waiting requests
+         */
+        Lane nextLane() {
+            Lane nextLane = null;
+            for (Lane lane : lanes) {
+                if (!lane.waiters.isEmpty() && (nextLane == null || lane.pass < nextLane.pass)) {
+                    nextLane = lane;
+                }
+            }
+            return nextLane;
+        }
+    }
+
+    /**
+     * Counters of one lane
+     */
+    private static class LaneStats {
+
+        long acquiredCount;
+
+        long totalWaitTime;
+
+        long maxWaitTime;
+
+        int waitingCount;
+
+        int maxWaitingCount;
+    }
+
+    /**
+     * Creating scheduler with default params
+     */
+    public VKRequestScheduler() {
+        this(REQUESTS_PER_SECOND_DEFAULT);
+    }
+
+    /**
+     * Creating scheduler
+     * @param requestsPerSecond count of requests per second for every access token, should be positive
+     * @throws InvalidParameterException if requestsPerSecond is not positive
+     */
+    public VKRequestScheduler(double requestsPerSecond) throws InvalidParameterException {
+        if (requestsPerSecond <= 0)
+            throw new InvalidParameterException("requestsPerSecond should be positive");
+        this.intervalNanos = 1000000000d / requestsPerSecond;
+        laneStats = new LaneStats[Priority.values().length];
+        for (int i = 0; i < laneStats.length; i++) {
+            laneStats[i] = new LaneStats();
+        }
+    }
+
+    /**
+     * @return count of requests per second for every access token
+     */
+    public double getRequestsPerSecond() {
+        return 1000000000d / intervalNanos;
+    }
+
+    /**
+     * Setting weights of lanes: while all lanes are busy, every lane gets part of permits proportional to its weight
+     * @param interactive weight of interactive lane, should be positive
+     * @param normal weight of normal lane, should be positive
+     * @param bulk weight of bulk lane, should be positive
+     * @return this scheduler
+     * @throws InvalidParameterException if some weight is not positive
+     */
+    public VKRequestScheduler setWeights(int interactive, int normal, int bulk) throws InvalidParameterException {
+        if (interactive <= 0 || normal <= 0 || bulk <= 0)
+            throw new InvalidParameterException("weights should be positive");
+        this.weights = new int[] {interactive, normal, bulk};
+        return this;
+    }
+
+    /**
+     * @param priority of lane, null is denied
+     * @return weight of lane
+     */
+    public int getWeight(Priority priority) {
+        return weights[priority.ordinal()];
+    }
+
+    /**
+     * Setting priority of api method, which is used if request and its call have no priority
+     * @param apiMethodName name of api method, for example "friends.get"
+     * @param priority of api method, put null to use NORMAL
+     * @return this scheduler
+     */
+    public VKRequestScheduler setMethodPriority(String apiMethodName, Priority priority) {
+        synchronized (methodPriorities) {
+            if (priority == null) {
+                methodPriorities.remove(apiMethodName);
+            } else {
+                methodPriorities.put(apiMethodName, priority);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param apiMethodName name of api method
+     * @return priority of api method, NORMAL if it was not set
+     */
+    public Priority getMethodPriority(String apiMethodName) {
+        final Priority priority;
+        synchronized (methodPriorities) {
+            priority = methodPriorities.get(apiMethodName);
+        }
+        return priority != null ? priority : Priority.NORMAL;
+    }
+
+    /**
+     * Choosing priority of request
+     * @param apiMethodName name of api method, could be null if it is unknown
+     * @param requestPriority priority of request params, null if it was not set
+     * @return priority of request, never returns null
+     */
+    Priority priorityOf(String apiMethodName, Priority requestPriority) {
+        if (requestPriority != null)
+            return requestPriority;
+        final Priority callPriority = VKCall.currentPriority();
+        if (callPriority != null)
+            return callPriority;
+        return apiMethodName != null ? getMethodPriority(apiMethodName) : Priority.NORMAL;
+    }
+
+    /**
+     * Waiting until request with access token could be sent
+     * @param accessToken of request, null is allowed
+     * @param priority of request, null is denied
+     * @param deadline of request in millis, 0 if request has no deadline
+     * @throws InterruptedException if thread was interrupted while waiting
+     * @throws SocketTimeoutException if request could not get permit before its deadline
+     */
+    void acquire(String accessToken, Priority priority, long deadline)
+            throws InterruptedException, SocketTimeoutException {
+        final TokenQueue queue;
+        synchronized (queues) {
+            TokenQueue existingQueue = queues.get(accessToken);
+            if (existingQueue == null) {
+                existingQueue = new TokenQueue();
+                queues.put(accessToken, existingQueue);
+            }
+            queue = existingQueue;
+        }
+
+        final int laneIndex = priority.ordinal();
+        final Waiter waiter = new Waiter();
+
+        synchronized (queue) {
+            final Lane lane = queue.lanes[laneIndex];
+            if (lane.waiters.isEmpty()) {
+                lane.pass = Math.max(lane.pass, queue.virtualTime);
+            }
+            lane.waiters.add(waiter);
+            onEnqueued(laneIndex);
+            // Waiting request of other lane could lose its turn to new one
+            queue.notifyAll();
+
+            boolean acquired = false;
+            try {
+                while (true) {
+                    // 0 means waiting without timeout for wait()
+                    final long timeLeft = deadline != 0 ? deadline - System.currentTimeMillis() : 0;
+                    if (deadline != 0 && timeLeft <= 0)
+                        throw new SocketTimeoutException("Request deadline exceeded");
+                    final Lane nextLane = queue.nextLane();
+                    if (nextLane != lane || lane.waiters.getFirst() != waiter) {
+                        queue.wait(timeLeft);
+                        continue;
+                    }
+                    final long now = System.nanoTime();
+                    final long waitNanos = queue.nextFreeTime - now;
+                    if (waitNanos > 0) {
+                        // Request is the next one, so it is known that it would not get permit before deadline
+                        if (deadline != 0 && waitNanos / 1000000 >= timeLeft)
+                            throw new SocketTimeoutException("Request deadline exceeded");
+                        queue.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                        continue;
+                    }
+                    lane.waiters.removeFirst();
+                    queue.virtualTime = lane.pass;
+                    lane.pass += STRIDE / weights[laneIndex];
+                    queue.nextFreeTime = Math.max(now, queue.nextFreeTime) + (long) intervalNanos;
+                    queue.notifyAll();
+                    onAcquired(laneIndex, (now - waiter.enqueueTime) / 1000000);
+                    acquired = true;
+                    return;
+                }
+            } finally {
+                if (!acquired) {
+                    // Request left queue without permit, its turn goes to next one
+                    lane.waiters.remove(waiter);
+                    queue.notifyAll();
+                    onAcquired(laneIndex, -1);
+                }
+            }
+        }
+    }
+
+    private synchronized void onEnqueued(int laneIndex) {
+        final LaneStats stats = laneStats[laneIndex];
+        stats.waitingCount++;
+        if (stats.waitingCount > stats.maxWaitingCount) {
+            stats.maxWaitingCount = stats.waitingCount;
+        }
+    }
+
+    /**
+     * @param waitTime in millis, -1 if request left queue without permit
+     */
+    private synchronized void onAcquired(int laneIndex, long waitTime) {
+        final LaneStats stats = laneStats[laneIndex];
+        stats.waitingCount--;
+        if (waitTime < 0)
+            return;
+        stats.acquiredCount++;
+        stats.totalWaitTime += waitTime;
+        if (waitTime > stats.maxWaitTime) {
+            stats.maxWaitTime = waitTime;
+        }
+    }
+
+    /**
+     * Container for statistics of one lane
+     */
+    public static class LaneStatistics {
+
+        private LaneStatistics() {}
+
+        private long acquiredCount;
+
+        /**
+         * @return count of requests of lane, which passed scheduler
+         */
+        public long getAcquiredCount() {
+            return acquiredCount;
+        }
+
+        private long totalWaitTime;
+
+        /**
+         * @return total time in millis, which requests of lane spent in queue
+         */
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        private long maxWaitTime;
+
+        /**
+         * @return max time in millis, which one request of lane spent in queue
+         */
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        private int waitingCount;
+
+        /**
+         * @return count of requests of lane, which were waiting in queue at the moment of statistics creation
+         */
+        public int getWaitingCount() {
+            return waitingCount;
+        }
+
+        private int maxWaitingCount;
+
+        /**
+         * @return max count of requests of lane, which were waiting in queue at the same time
+         */
+        public int getMaxWaitingCount() {
+            return maxWaitingCount;
+        }
+
+        /**
+         * @return average time in millis, which request of lane spent in queue
+         */
+        public double getAverageWaitTime() {
+            return acquiredCount == 0 ? 0 : (double) totalWaitTime / acquiredCount;
+        }
+    }
+
+    /**
+     * Container for scheduler statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private LaneStatistics[] lanes;
+
+        /**
+         * @param priority of lane, null is denied
+         * @return statistics of lane
+         */
+        public LaneStatistics getLane(Priority priority) {
+            return lanes[priority.ordinal()];
+        }
+    }
+
+    /**
+     * @return snapshot of scheduler statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        final Statistics statistics = new Statistics();
+        statistics.lanes = new LaneStatistics[laneStats.length];
+        for (int i = 0; i < laneStats.length; i++) {
+            final LaneStats stats = laneStats[i];
+            final LaneStatistics laneStatistics = new LaneStatistics();
+            laneStatistics.acquiredCount = stats.acquiredCount;
+            laneStatistics.totalWaitTime = stats.totalWaitTime;
+            laneStatistics.maxWaitTime = stats.maxWaitTime;
+            laneStatistics.waitingCount = stats.waitingCount;
+            laneStatistics.maxWaitingCount = stats.maxWaitingCount;
+            statistics.lanes[i] = laneStatistics;
+        }
+        return statistics;
+    }
+}
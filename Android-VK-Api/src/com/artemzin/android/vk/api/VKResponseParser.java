@@ -0,0 +1,18 @@
+package com.artemzin.android.vk.api;
+
+/**
+ * Parser of "response" field of vk.com server reply
+ * Used by streaming requests, which parse server reply directly from the response stream
+ * @author Artem Zinnatullin
+ * @see VKApi#sendRequest(VKRequestParams, VKResponseParser)
+ */
+interface VKResponseParser<T> {
+
+    /**
+     * Parsing value of "response" field
+     * @param reader positioned at value of "response" field, parser should consume whole value
+     * @return parsed result
+     * @throws Exception if response is incorrect
+     */
+    T parseResponse(VKJSONReader reader) throws Exception;
+}
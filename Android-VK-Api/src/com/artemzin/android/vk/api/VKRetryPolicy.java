@@ -0,0 +1,389 @@
+package com.artemzin.android.vk.api;
+
+import java.security.InvalidParameterException;
+import java.util.Random;
+
+/**
+ * Policy of retrying of failed requests <br/>
+ * Failed request is retried after exponential backoff with random jitter, so retries of many clients
+ * do not come to server at the same time <br/>
+ * Network errors (SSLException, SocketException, SocketTimeoutException) and vk.com errors with retryable codes
+ * (by default 6 "Too many requests per second" and 10 "Internal server error") are retried <br/>
+ * Count of retries is limited by budget per time window, so retries do not multiply load on server
+ * when most of requests are failed <br/>
+ * One policy could be shared between several VKApi instances, then they share the budget
+ * @author Artem Zinnatullin
+ * @see VKApi#setRetryPolicy(VKRetryPolicy)
+ */
+public class VKRetryPolicy {
+
+    /**
+     * Default max count of attempts of one request, including the first one
+     */
+    public static final int MAX_ATTEMPTS_DEFAULT;
+
+    /**
+     * Default delay in millis before the first retry
+     */
+    public static final long INITIAL_BACKOFF_DEFAULT;
+
+    /**
+     * Default max delay in millis before retry
+     */
+    public static final long MAX_BACKOFF_DEFAULT;
+
+    /**
+     * Default multiplier of delay for every next retry
+     */
+    public static final double BACKOFF_MULTIPLIER_DEFAULT;
+
+    /**
+     * Default part of delay, which is randomized
+     */
+    public static final double JITTER_DEFAULT;
+
+    /**
+     * Default max count of retries per budget window
+     */
+    public static final int RETRY_BUDGET_DEFAULT;
+
+    /**
+     * Default budget window in millis
+     */
+    public static final long RETRY_BUDGET_WINDOW_DEFAULT;
+
+    /**
+     * Default timeout of one attempt in millis, 0 means connection timeout of VKApi
+     */
+    public static final int ATTEMPT_TIMEOUT_DEFAULT;
+
+    static {
+        MAX_ATTEMPTS_DEFAULT = 3;
+        INITIAL_BACKOFF_DEFAULT = 200;
+        MAX_BACKOFF_DEFAULT = 10000;
+        BACKOFF_MULTIPLIER_DEFAULT = 2;
+        JITTER_DEFAULT = 0.5;
+        RETRY_BUDGET_DEFAULT = 10;
+        RETRY_BUDGET_WINDOW_DEFAULT = 10000;
+        ATTEMPT_TIMEOUT_DEFAULT = 0;
+    }
+
+    private volatile int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+
+    private volatile long initialBackoff = INITIAL_BACKOFF_DEFAULT;
+
+    private volatile long maxBackoff = MAX_BACKOFF_DEFAULT;
+
+    private volatile double backoffMultiplier = BACKOFF_MULTIPLIER_DEFAULT;
+
+    private volatile double jitter = JITTER_DEFAULT;
+
+    private volatile int attemptTimeout = ATTEMPT_TIMEOUT_DEFAULT;
+
+    private volatile int[] retryableErrorCodes = {6, 10};
+
+    private final Random random = new Random();
+
+    private int retryBudget = RETRY_BUDGET_DEFAULT;
+
+    private long retryBudgetWindow = RETRY_BUDGET_WINDOW_DEFAULT;
+
+    private long budgetWindowStart;
+
+    private int budgetWindowRetryCount;
+
+    private long attemptCount;
+
+    private long retryCount;
+
+    private long budgetExhaustedCount;
+
+    private long retryDelayTime;
+
+    private long failedAttemptTime;
+
+    /**
+     * Setting max count of attempts of one request
+     * @param maxAttempts including the first one, should be positive, 1 disables retries
+     * @return this policy
+     * @throws InvalidParameterException if maxAttempts is not positive
+     */
+    public VKRetryPolicy setMaxAttempts(int maxAttempts) throws InvalidParameterException {
+        if (maxAttempts <= 0)
+            throw new InvalidParameterException("maxAttempts should be positive");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @return max count of attempts of one request, including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Setting exponential backoff: delay before n-th retry is initialBackoff * multiplier^(n - 1), but not bigger than maxBackoff
+     * @param initialBackoff delay in millis before the first retry, could not be negative
+     * @param maxBackoff max delay in millis, could not be less than initialBackoff
+     * @param multiplier of delay for every next retry, could not be less than 1
+     * @return this policy
+     * @throws InvalidParameterException if params are incorrect
+     */
+    public VKRetryPolicy setBackoff(long initialBackoff, long maxBackoff, double multiplier) throws InvalidParameterException {
+        if (initialBackoff < 0)
+            throw new InvalidParameterException("initialBackoff could not be negative");
+        if (maxBackoff < initialBackoff)
+            throw new InvalidParameterException("maxBackoff could not be less than initialBackoff");
+        if (multiplier < 1)
+            throw new InvalidParameterException("multiplier could not be less than 1");
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.backoffMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @return delay in millis before the first retry
+     */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @return max delay in millis before retry
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @return multiplier of delay for every next retry
+     */
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * Setting jitter: delay is chosen randomly from [delay * (1 - jitter), delay]
+     * @param jitter from 0 (no randomization) to 1
+     * @return this policy
+     * @throws InvalidParameterException if jitter is not from 0 to 1
+     */
+    public VKRetryPolicy setJitter(double jitter) throws InvalidParameterException {
+        if (jitter < 0 || jitter > 1)
+            throw new InvalidParameterException("jitter should be from 0 to 1");
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @return part of delay, which is randomized
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Setting budget of retries: if it is exhausted, failed requests are not retried until the end of window
+     * @param retryBudget max count of retries per window, could not be negative, 0 disables retries
+     * @param window in millis, should be positive
+     * @return this policy
+     * @throws InvalidParameterException if retryBudget is negative or window is not positive
+     */
+    public synchronized VKRetryPolicy setRetryBudget(int retryBudget, long window) throws InvalidParameterException {
+        if (retryBudget < 0)
+            throw new InvalidParameterException("retryBudget could not be negative");
+        if (window <= 0)
+            throw new InvalidParameterException("window should be positive");
+        this.retryBudget = retryBudget;
+        this.retryBudgetWindow = window;
+        return this;
+    }
+
+    /**
+     * @return max count of retries per budget window
+     */
+    public synchronized int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @return budget window in millis
+     */
+    public synchronized long getRetryBudgetWindow() {
+        return retryBudgetWindow;
+    }
+
+    /**
+     * Setting vk.com error codes, which are retried
+     * @param errorCodes of VKException, for example 6 "Too many requests per second"
+     * @return this policy
+     */
+    public VKRetryPolicy setRetryableErrorCodes(int... errorCodes) {
+        this.retryableErrorCodes = errorCodes == null ? new int[0] : errorCodes.clone();
+        return this;
+    }
+
+    /**
+     * @return copy of vk.com error codes, which are retried
+     */
+    public int[] getRetryableErrorCodes() {
+        return retryableErrorCodes.clone();
+    }
+
+    /**
+     * Setting timeout of one attempt, it is used as connect and read timeouts instead of VKApi connection timeout
+     * @param attemptTimeout in millis, 0 to use connection timeout of VKApi
+     * @return this policy
+     * @throws InvalidParameterException if attemptTimeout is negative
+     */
+    public VKRetryPolicy setAttemptTimeout(int attemptTimeout) throws InvalidParameterException {
+        if (attemptTimeout < 0)
+            throw new InvalidParameterException("attemptTimeout could not be negative");
+        this.attemptTimeout = attemptTimeout;
+        return this;
+    }
+
+    /**
+     * @return timeout of one attempt in millis, 0 means connection timeout of VKApi
+     */
+    public int getAttemptTimeout() {
+        return attemptTimeout;
+    }
+
+    /**
+     * @param e exception of failed attempt
+     * @return true if request could be retried after such exception
+     */
+    boolean isRetryable(Exception e) {
+        if (e instanceof VKException) {
+            final int errorCode = ((VKException) e).errorCode;
+            for (int retryableErrorCode : retryableErrorCodes) {
+                if (retryableErrorCode == errorCode)
+                    return true;
+            }
+            return false;
+        }
+        return e instanceof javax.net.ssl.SSLException
+                || e instanceof java.net.SocketException
+                || e instanceof java.net.SocketTimeoutException;
+    }
+
+    /**
+     * Counting attempt of request
+     */
+    synchronized void onAttempt() {
+        attemptCount++;
+    }
+
+    /**
+     * Taking retry from budget
+     * @param attemptTime time in millis of failed attempt
+     * @return true if retry is allowed, false if budget is exhausted
+     */
+    synchronized boolean tryAcquireRetry(long attemptTime) {
+        final long now = System.currentTimeMillis();
+        if (now - budgetWindowStart >= retryBudgetWindow) {
+            budgetWindowStart = now;
+            budgetWindowRetryCount = 0;
+        }
+        if (budgetWindowRetryCount >= retryBudget) {
+            budgetExhaustedCount++;
+            return false;
+        }
+        budgetWindowRetryCount++;
+        retryCount++;
+        failedAttemptTime += attemptTime;
+        return true;
+    }
+
+    /**
+     * Calculating delay before retry and counting it
+     * @param retry number of retry, starting from 1
+     * @return delay in millis
+     */
+    synchronized long nextBackoff(int retry) {
+        double backoff = initialBackoff;
+        for (int i = 1; i < retry && backoff < maxBackoff; i++) {
+            backoff *= backoffMultiplier;
+        }
+        backoff = Math.min(backoff, maxBackoff);
+        final long delay = (long) (backoff * (1 - jitter * random.nextDouble()));
+        retryDelayTime += delay;
+        return delay;
+    }
+
+    /**
+     * Snapshot of retry policy statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private long attemptCount;
+
+        /**
+         * @return count of attempts of requests, including first attempts
+         */
+        public long getAttemptCount() {
+            return attemptCount;
+        }
+
+        private long retryCount;
+
+        /**
+         * @return count of retries
+         */
+        public long getRetryCount() {
+            return retryCount;
+        }
+
+        private long budgetExhaustedCount;
+
+        /**
+         * @return count of failed requests, which were not retried because budget was exhausted
+         */
+        public long getBudgetExhaustedCount() {
+            return budgetExhaustedCount;
+        }
+
+        private long retryDelayTime;
+
+        /**
+         * @return total time in millis of backoff delays
+         */
+        public long getRetryDelayTime() {
+            return retryDelayTime;
+        }
+
+        private long failedAttemptTime;
+
+        /**
+         * @return total time in millis of attempts, which were failed and retried
+         */
+        public long getFailedAttemptTime() {
+            return failedAttemptTime;
+        }
+
+        /**
+         * @return total time in millis spent because of retries: failed attempts and backoff delays
+         */
+        public long getRetryTime() {
+            return retryDelayTime + failedAttemptTime;
+        }
+    }
+
+    /**
+     * @return snapshot of retry policy statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        final Statistics statistics = new Statistics();
+        statistics.attemptCount = attemptCount;
+        statistics.retryCount = retryCount;
+        statistics.budgetExhaustedCount = budgetExhaustedCount;
+        statistics.retryDelayTime = retryDelayTime;
+        statistics.failedAttemptTime = failedAttemptTime;
+        return statistics;
+    }
+}
@@ -0,0 +1,118 @@
+package com.artemzin.android.vk.api;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of request, which is shared between several callers, for example coalesced or batched query <br/>
+ * Request is executed by detached thread, not by one of callers,
+ * so every caller, even the first one, waits for it only until its own deadline or cancellation of its call
+ * @author Artem Zinnatullin
+ * @see VKCall#newShared()
+ */
+class VKSharedResult {
+
+    /**
+     * Executor of shared requests, it is not bounded,
+     * because shared request could wait for another shared request, for example coalesced query could be batched
+     */
+    private static final Executor EXECUTOR;
+
+    static {
+        EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "VKApi-shared-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Executing shared request by detached thread
+     * @param request which sends request and completes its shared result
+     */
+    static void execute(Runnable request) {
+        EXECUTOR.execute(request);
+    }
+
+    private Object result;
+
+    private Exception error;
+
+    private boolean done;
+
+    /**
+     * Completing request and waking up waiting callers
+     * @param result of request, null if request failed
+     * @param error of request, null if request succeeded
+     */
+    synchronized void complete(Object result, Exception error) {
+        this.result = result;
+        this.error = error;
+        this.done = true;
+        notifyAll();
+    }
+
+    /**
+     * @return true if request was completed
+     */
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waiting for result by caller, call of current thread is caller's call
+     * @param deadline of caller in millis, 0 if caller has no deadline
+     * @return result of request
+     * @throws SocketTimeoutException if caller's deadline was exceeded
+     * @throws java.io.InterruptedIOException if caller's call was canceled
+     * @throws Exception of request
+     */
+    Object await(long deadline) throws Exception {
+        final VKCall call = VKCall.current();
+
+        if (call != null) {
+            // Cancellation of caller's call wakes up waiting
+            call.setAbortHook(new VKCall.Abortable() {
+                @Override
+                public void abort() {
+                    synchronized (VKSharedResult.this) {
+                        VKSharedResult.this.notifyAll();
+                    }
+                }
+            });
+        }
+
+        try {
+            synchronized (this) {
+                while (!done) {
+                    if (call != null) {
+                        call.throwIfCanceled();
+                    }
+                    if (deadline == 0) {
+                        wait();
+                    } else {
+                        final long timeLeft = deadline - System.currentTimeMillis();
+                        if (timeLeft <= 0)
+                            throw new SocketTimeoutException("Request deadline exceeded");
+                        wait(timeLeft);
+                    }
+                }
+                if (error != null)
+                    throw error;
+                return result;
+            }
+        } finally {
+            if (call != null) {
+                call.setAbortHook(null);
+            }
+        }
+    }
+}
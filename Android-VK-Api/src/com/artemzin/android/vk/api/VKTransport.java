@@ -0,0 +1,93 @@
+package com.artemzin.android.vk.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Transport, which sends http requests of VKApi <br/>
+ * VKHttpURLConnectionTransport is used by default, VKConnectionPool is alternative with keep-alive connections,
+ * you can implement your own transport, for example, to use other http client or to test your code with stub server <br/>
+ * VKApi handles response codes, gzip decoding and retries, transport only sends request and returns raw response
+ * @author Artem Zinnatullin
+ * @see VKApi#setTransport(VKTransport)
+ * @see VKHttpURLConnectionTransport
+ * @see VKConnectionPool
+ */
+public interface VKTransport {
+
+    /**
+     * Http GET request
+     */
+    public static class Request {
+
+        /**
+         * Full url of request with GET params
+         */
+        public final String url;
+
+        /**
+         * True if "Accept-Encoding: gzip" header should be sent
+         */
+        public final boolean gzip;
+
+        /**
+         * Connect timeout in millis
+         */
+        public final int connectTimeout;
+
+        /**
+         * Read timeout in millis
+         */
+        public final int readTimeout;
+
+        public Request(String url, boolean gzip, int connectTimeout, int readTimeout) {
+            this.url = url;
+            this.gzip = gzip;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    /**
+     * Http response
+     */
+    public static class Response {
+
+        /**
+         * Http response code, -1 if it could not be read
+         */
+        public final int code;
+
+        /**
+         * Value of Content-Encoding header, could be null
+         */
+        public final String contentEncoding;
+
+        /**
+         * Value of Content-Length header, -1 if it is unknown
+         */
+        public final long contentLength;
+
+        /**
+         * Response body, not decoded if it is gzipped, VKApi closes it after reading to release connection
+         */
+        public final InputStream body;
+
+        public Response(int code, String contentEncoding, long contentLength, InputStream body) {
+            if (body == null)
+                throw new IllegalArgumentException("body param could not be null");
+            this.code = code;
+            this.contentEncoding = contentEncoding;
+            this.contentLength = contentLength;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Sending request, it is called concurrently by different threads
+     * @param request to send
+     * @return response with opened body
+     * @throws IOException if problems with connection, SocketException and SSLException are retried by VKApi
+     */
+    Response execute(Request request) throws IOException;
+}
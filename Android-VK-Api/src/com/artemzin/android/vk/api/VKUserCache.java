@@ -0,0 +1,318 @@
+package com.artemzin.android.vk.api;
+
+import com.artemzin.android.vk.api.elements.VKUser;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory LRU cache of users <br/>
+ * Users are cached by uId, requested fields and name case, so users requested with
+ * different fields do not replace each other <br/>
+ * Time of caching is stored in VKUser.updateTime (millis), user expires after time to live since it <br/>
+ * Cached VKUser objects are shared between callers, so they should not be modified
+ * @author Artem Zinnatullin
+ * @see VKApi#setUserCache(VKUserCache)
+ */
+public class VKUserCache {
+
+    /**
+     * Default max count of cached users
+     */
+    public static final int MAX_SIZE_DEFAULT;
+
+    /**
+     * Default time to live of cached user in millis
+     */
+    public static final long TIME_TO_LIVE_DEFAULT;
+
+    /**
+     * Fields, which vk.com returns if fields param was not sent
+     */
+    private static final String[] DEFAULT_FIELDS;
+
+    static {
+        MAX_SIZE_DEFAULT = 10000;
+        // By default, user is cached for 5 minutes
+        TIME_TO_LIVE_DEFAULT = 5 * 60 * 1000;
+        DEFAULT_FIELDS = new String[] {"uid", "first_name", "last_name"};
+    }
+
+    private final int maxSize;
+
+    private final long timeToLive;
+
+    private final LinkedHashMap<Key, VKUser> users;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long expirationCount;
+
+    /**
+     * Creating cache with default params
+     */
+    public VKUserCache() {
+        this(MAX_SIZE_DEFAULT, TIME_TO_LIVE_DEFAULT);
+    }
+
+    /**
+     * Creating cache
+     * @param maxSize max count of cached users, should be positive
+     * @param timeToLive of cached user in millis, should be positive
+     * @throws InvalidParameterException if maxSize or timeToLive is not positive
+     */
+    public VKUserCache(final int maxSize, long timeToLive) throws InvalidParameterException {
+        if (maxSize <= 0)
+            throw new InvalidParameterException("maxSize should be positive");
+        if (timeToLive <= 0)
+            throw new InvalidParameterException("timeToLive should be positive");
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        // Access order makes LinkedHashMap LRU
+        this.users = new LinkedHashMap<Key, VKUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, VKUser> eldest) {
+                if (size() > maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return max count of cached users
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return time to live of cached user in millis
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Key of cached user
+     */
+    private static class Key {
+
+        final long uId;
+
+        final String fields;
+
+        final VKUser.NameCase nameCase;
+
+        Key(long uId, String fields, VKUser.NameCase nameCase) {
+            this.uId = uId;
+            this.fields = fields;
+            this.nameCase = nameCase;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return uId == other.uId && nameCase == other.nameCase && fields.equals(other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (uId ^ (uId >>> 32));
+            result = 31 * result + fields.hashCode();
+            result = 31 * result + (nameCase != null ? nameCase.hashCode() : 0);
+            return result;
+        }
+    }
+
+    /**
+     * Creating canonical form of requested fields, so order and duplicates of fields do not matter
+     * @param fields requested fields, null means default fields
+     * @return sorted fields separated by commas
+     */
+    static String fieldsToKey(String[] fields) {
+        final String[] sortedFields = (fields != null ? fields : DEFAULT_FIELDS).clone();
+        Arrays.sort(sortedFields);
+        StringBuilder key = new StringBuilder(sortedFields.length * 8);
+        for (int i = 0; i < sortedFields.length; i++) {
+            if (i != 0 && sortedFields[i].equals(sortedFields[i - 1]))
+                continue;
+            if (key.length() != 0)
+                key.append(',');
+            key.append(sortedFields[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Getting user from cache
+     * @param uId of user
+     * @param fieldsKey canonical form of requested fields
+     * @param nameCase requested name case, null is allowed
+     * @return cached user or null if user is not cached or expired
+     */
+    synchronized VKUser get(long uId, String fieldsKey, VKUser.NameCase nameCase) {
+        final Key key = new Key(uId, fieldsKey, nameCase);
+        final VKUser user = users.get(key);
+
+        if (user == null) {
+            missCount++;
+            return null;
+        }
+
+        if (isExpired(user, System.currentTimeMillis())) {
+            users.remove(key);
+            expirationCount++;
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return user;
+    }
+
+    /**
+     * Putting user to cache, if user has no updateTime, current time is set
+     * @param user to put, users without uId are ignored
+     * @param fieldsKey canonical form of requested fields
+     * @param nameCase requested name case, null is allowed
+     */
+    synchronized void put(VKUser user, String fieldsKey, VKUser.NameCase nameCase) {
+        final Long uId = user.getUId();
+        if (uId == null)
+            return;
+        if (user.getUpdateTime() == null)
+            user.setUpdateTime(System.currentTimeMillis());
+        users.put(new Key(uId, fieldsKey, nameCase), user);
+    }
+
+    private boolean isExpired(VKUser user, long now) {
+        final Long updateTime = user.getUpdateTime();
+        return updateTime == null || now - updateTime >= timeToLive;
+    }
+
+    /**
+     * Removing all cached versions of user
+     * @param uId of user to remove
+     */
+    public synchronized void invalidate(long uId) {
+        for (Iterator<Key> iterator = users.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().uId == uId)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Removing expired users, useful to free memory, because expired users are removed lazily
+     */
+    public synchronized void removeExpired() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<VKUser> iterator = users.values().iterator(); iterator.hasNext();) {
+            if (isExpired(iterator.next(), now)) {
+                iterator.remove();
+                expirationCount++;
+            }
+        }
+    }
+
+    /**
+     * Removing all users from cache
+     */
+    public synchronized void clear() {
+        users.clear();
+    }
+
+    /**
+     * @return count of cached users, including expired but not removed yet
+     */
+    public synchronized int size() {
+        return users.size();
+    }
+
+    /**
+     * Container for cache statistics
+     */
+    public static class Statistics {
+
+        private Statistics() {}
+
+        private long hitCount;
+
+        /**
+         * @return count of users, which were taken from cache
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        private long missCount;
+
+        /**
+         * @return count of users, which were not found in cache or were expired
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        private long evictionCount;
+
+        /**
+         * @return count of users, which were removed from cache because of max size
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        private long expirationCount;
+
+        /**
+         * @return count of users, which were removed from cache because of time to live
+         */
+        public long getExpirationCount() {
+            return expirationCount;
+        }
+
+        private int size;
+
+        /**
+         * @return count of cached users at the moment of statistics creation
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return part of users taken from cache, from 0 to 1
+         */
+        public double getHitRate() {
+            final long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+        }
+    }
+
+    /**
+     * @return snapshot of cache statistics, never returns null
+     */
+    public synchronized Statistics getStatistics() {
+        Statistics statistics = new Statistics();
+        statistics.hitCount = hitCount;
+        statistics.missCount = missCount;
+        statistics.evictionCount = evictionCount;
+        statistics.expirationCount = expirationCount;
+        statistics.size = users.size();
+        return statistics;
+    }
+}
@@ -0,0 +1,269 @@
+package com.artemzin.android.vk.api;
+
+import com.artemzin.android.vk.api.elements.VKUser;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loader of single users, which collects uIds from different threads during load window
+ * and requests them by users.get chunks of up to 1000 uIds <br/>
+ * Every uId is requested once per chunk, even if it was loaded several times <br/>
+ * Chunks are sent by VKApi async executor
+ * @author Artem Zinnatullin
+ * @see VKApi#setAsyncExecutor(java.util.concurrent.Executor)
+ */
+public class VKUserLoader {
+
+    /**
+     * Default time in millis, while uIds are collected
+     */
+    public static final int LOAD_WINDOW_DEFAULT;
+
+    /**
+     * Max count of uIds in one users.get query
+     */
+    public static final int MAX_CHUNK_SIZE;
+
+    static {
+        LOAD_WINDOW_DEFAULT = 10;
+        MAX_CHUNK_SIZE = 1000;
+    }
+
+    /**
+     * Timer of load windows, shared between all loaders
+     */
+    private static ScheduledExecutorService windowTimer;
+
+    private final VKApi api;
+
+    private final String[] fields;
+
+    private final VKUser.NameCase nameCase;
+
+    private final int window;
+
+    /**
+     * Futures of collected uIds in order of loading
+     */
+    private LinkedHashMap<Long, ArrayList<LoadFuture>> pendingUIds = new LinkedHashMap<Long, ArrayList<LoadFuture>>();
+
+    private boolean flushScheduled;
+
+    private long loadCount;
+
+    private long requestCount;
+
+    /**
+     * Creating loader with default load window
+     * @param api to send queries, null is denied
+     * @param fields of users to load, put null to load default fields
+     * @param nameCase of users names, put null to use default
+     */
+    public VKUserLoader(VKApi api, String[] fields, VKUser.NameCase nameCase) {
+        this(api, fields, nameCase, LOAD_WINDOW_DEFAULT);
+    }
+
+    /**
+     * Creating loader
+     * @param api to send queries, null is denied
+     * @param fields of users to load, put null to load default fields
+     * @param nameCase of users names, put null to use default
+     * @param window time in millis, while uIds are collected, could not be negative
+     * @throws InvalidParameterException if window is negative
+     */
+    public VKUserLoader(VKApi api, String[] fields, VKUser.NameCase nameCase, int window) throws InvalidParameterException {
+        if (api == null)
+            throw new IllegalArgumentException("api param could not be null");
+        if (window < 0)
+            throw new InvalidParameterException("window could not be negative");
+        this.api = api;
+        this.fields = fields != null ? fields.clone() : null;
+        this.nameCase = nameCase;
+        this.window = window;
+    }
+
+    /**
+     * Future of loaded user, completed by loader
+     */
+    private static class LoadFuture extends FutureTask<VKUser> {
+
+        private static final Callable<VKUser> NOTHING = new Callable<VKUser>() {
+            @Override
+            public VKUser call() throws Exception {
+                return null;
+            }
+        };
+
+        LoadFuture() {
+            super(NOTHING);
+        }
+
+        void complete(VKUser user) {
+            set(user);
+        }
+
+        void fail(Exception e) {
+            setException(e);
+        }
+    }
+
+    /**
+     * Loading user
+     * @param uId of user to load
+     * @return Future with loaded user, its result is null if vk.com did not return user with this uId
+     */
+    public Future<VKUser> load(long uId) {
+        final LoadFuture future = new LoadFuture();
+        LinkedHashMap<Long, ArrayList<LoadFuture>> fullChunk = null;
+
+        synchronized (this) {
+            loadCount++;
+            ArrayList<LoadFuture> futures = pendingUIds.get(uId);
+            if (futures == null) {
+                futures = new ArrayList<LoadFuture>(1);
+                pendingUIds.put(uId, futures);
+            }
+            futures.add(future);
+
+            if (pendingUIds.size() >= MAX_CHUNK_SIZE) {
+                // Chunk is full, there is no need to wait for window
+                fullChunk = takePendingUIds();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                getWindowTimer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (fullChunk != null)
+            sendChunk(fullChunk);
+
+        return future;
+    }
+
+    /**
+     * Loading several users
+     * @param uIds of users to load, null is denied
+     * @return Futures of users in order of uIds
+     */
+    public ArrayList<Future<VKUser>> loadAll(long[] uIds) {
+        if (uIds == null)
+            throw new IllegalArgumentException("uIds param could not be null");
+        ArrayList<Future<VKUser>> futures = new ArrayList<Future<VKUser>>(uIds.length);
+        for (long uId : uIds) {
+            futures.add(load(uId));
+        }
+        return futures;
+    }
+
+    /**
+     * Sending collected uIds without waiting for the end of load window
+     */
+    public void flush() {
+        final LinkedHashMap<Long, ArrayList<LoadFuture>> chunk;
+        synchronized (this) {
+            if (pendingUIds.isEmpty())
+                return;
+            chunk = takePendingUIds();
+        }
+        sendChunk(chunk);
+    }
+
+    private LinkedHashMap<Long, ArrayList<LoadFuture>> takePendingUIds() {
+        final LinkedHashMap<Long, ArrayList<LoadFuture>> chunk = pendingUIds;
+        pendingUIds = new LinkedHashMap<Long, ArrayList<LoadFuture>>();
+        flushScheduled = false;
+        requestCount++;
+        return chunk;
+    }
+
+    private void sendChunk(final LinkedHashMap<Long, ArrayList<LoadFuture>> chunk) {
+        try {
+            api.getAsyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadChunk(chunk);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Executor rejected chunk, futures should not wait forever
+            failChunk(chunk, e);
+        }
+    }
+
+    private void loadChunk(LinkedHashMap<Long, ArrayList<LoadFuture>> chunk) {
+        final ArrayList<VKUser> users;
+
+        try {
+            users = api.users.get(new ArrayList<Long>(chunk.keySet()), fields, nameCase);
+        } catch (Exception e) {
+            failChunk(chunk, e);
+            return;
+        }
+
+        final HashMap<Long, VKUser> usersByUId = new HashMap<Long, VKUser>(users.size() * 2);
+
+        for (VKUser user : users) {
+            if (user.getUId() != null)
+                usersByUId.put(user.getUId(), user);
+        }
+
+        for (Map.Entry<Long, ArrayList<LoadFuture>> entry : chunk.entrySet()) {
+            final VKUser user = usersByUId.get(entry.getKey());
+            for (LoadFuture future : entry.getValue()) {
+                future.complete(user);
+            }
+        }
+    }
+
+    private static void failChunk(LinkedHashMap<Long, ArrayList<LoadFuture>> chunk, Exception e) {
+        for (ArrayList<LoadFuture> futures : chunk.values()) {
+            for (LoadFuture future : futures) {
+                future.fail(e);
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWindowTimer() {
+        if (windowTimer == null) {
+            windowTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VKUserLoader-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return windowTimer;
+    }
+
+    /**
+     * @return count of load() calls
+     */
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * @return count of users.get queries sent by loader
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+}
@@ -1,11 +1,12 @@
 package com.artemzin.android.vk.api;
 
 import com.artemzin.android.vk.api.elements.VKUser;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 
 /**
  * Implements api working with users
@@ -19,6 +20,18 @@ class VKUsersApi {
         this.api = api;
     }
 
+    /**
+     * Parser of users array, skips count of users if it is first element of array
+     */
+    static final VKResponseParser<ArrayList<VKUser>> USERS_PARSER = new VKResponseParser<ArrayList<VKUser>>() {
+        @Override
+        public ArrayList<VKUser> parseResponse(VKJSONReader reader) throws Exception {
+            if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+            return VKJSONParser.parseUsersFromJSON(reader);
+        }
+    };
+
     /**
      * Gets information about has user installed this application
      * @param uId of user, who you want to know about, put null to use uId of current user
@@ -47,7 +60,8 @@ class VKUsersApi {
     }
 
     /**
-     * Gets users by uIds
+     * Gets users by uIds <br/>
+     * If user cache of VKApi is set, only uIds missed in cache are requested
      * @param uIds of users which you want to get, maximum count == 1000, null is denied
      * @param fields of users to get,
      *               put null if you want to get default fields only: VKUser.uId, VKUser.firstName, VKUser.lastName
@@ -72,25 +86,93 @@ class VKUsersApi {
         else if (uIds.size() > 1000)
             throw new InvalidParameterException("Maximum count of uIds is 1000");
 
-        params.putParam("uids", VKUtils.listToParams(uIds));
+        final VKUserCache userCache = api.getUserCache();
+
+        if (userCache != null)
+            return getWithCache(userCache, uIds, fields, nameCase);
+
+        params.putListParam("uids", uIds);
 
         if (fields != null)
-            params.putParam("fields", VKUtils.arrayToParams(fields));
+            params.putArrayParam("fields", fields);
 
         if (nameCase != null)
             params.putParam("name_case", nameCase.toString());
 
-        JSONArray jsonUsers = api.sendRequest(params).optJSONArray("response");
+        return api.sendRequest(params, USERS_PARSER);
+    }
 
-        if (jsonUsers == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+    /**
+     * Gets users by any count of uIds <br/>
+     * uIds are split into chunks of 1000, chunks are sent concurrently
+     * @param uIds of users which you want to get, null is denied
+     * @param fields of users to get, put null if you want to get default fields only
+     * @param nameCase of VKUser.firstName and VKUser.lastName which you needed, put null to use default
+     * @return users of successful chunks in order of uIds and uIds of failed chunks with errors, never returns null
+     * @throws InterruptedException if thread was interrupted while waiting for chunks
+     * @see #get(java.util.ArrayList, String[], com.artemzin.android.vk.api.elements.VKUser.NameCase)
+     * @see VKApi#setBulkParallelism(int)
+     */
+    public VKBulkResult<VKUser> getBulk(Collection<Long> uIds,
+                                        final String[] fields,
+                                        final VKUser.NameCase nameCase) throws InterruptedException {
+        if (uIds == null)
+            throw new IllegalArgumentException("uIds param can not be null");
 
-        ArrayList<VKUser> users = new ArrayList<VKUser>(jsonUsers.length());
+        return new VKBulkRequest<VKUser>(uIds, 1000, new VKBulkRequest.ChunkQuery<VKUser>() {
+            @Override
+            public ArrayList<VKUser> query(ArrayList<Long> ids) throws Exception {
+                return get(ids, fields, nameCase);
+            }
+        }).execute(api, api.getBulkParallelism());
+    }
 
-        for (int i = 0; i < jsonUsers.length(); i++) {
-            JSONObject jsonUser = (JSONObject) jsonUsers.get(i);
-            users.add(VKJSONParser.parseUserFromJSON(jsonUser));
+    /**
+     * Takes cached users from cache and requests only missed uIds,
+     * result contains users in order of uIds
+     */
+    private ArrayList<VKUser> getWithCache(VKUserCache userCache, ArrayList<Long> uIds,
+                                           String[] fields, VKUser.NameCase nameCase) throws Exception {
+        final String fieldsKey = VKUserCache.fieldsToKey(fields);
+        final HashMap<Long, VKUser> foundUsers = new HashMap<Long, VKUser>(uIds.size() * 2);
+        final ArrayList<Long> missedUIds = new ArrayList<Long>();
+
+        for (Long uId : uIds) {
+            if (uId == null || foundUsers.containsKey(uId))
+                continue;
+            final VKUser cachedUser = userCache.get(uId, fieldsKey, nameCase);
+            // Null value marks uId as already checked, so duplicated uIds are requested once
+            foundUsers.put(uId, cachedUser);
+            if (cachedUser == null)
+                missedUIds.add(uId);
         }
+
+        if (missedUIds.size() != 0) {
+            VKRequestParams params = new VKRequestParams("users.get");
+
+            params.putListParam("uids", missedUIds);
+
+            if (fields != null)
+                params.putArrayParam("fields", fields);
+
+            if (nameCase != null)
+                params.putParam("name_case", nameCase.toString());
+
+            for (VKUser user : api.sendRequest(params, USERS_PARSER)) {
+                userCache.put(user, fieldsKey, nameCase);
+                if (user.getUId() != null)
+                    foundUsers.put(user.getUId(), user);
+            }
+        }
+
+        final ArrayList<VKUser> users = new ArrayList<VKUser>(uIds.size());
+
+        for (Long uId : uIds) {
+            final VKUser user = uId != null ? foundUsers.get(uId) : null;
+            if (user != null)
+                users.add(user);
+        }
+
         return users;
     }
 
@@ -108,6 +190,61 @@ class VKUsersApi {
      */
     public ArrayList<VKUser> search(String q, String[] fields,
                                     Integer count, Integer offset) throws Exception {
+        // Zero element contains count of users, parser skips it
+        return api.sendRequest(createSearchParams(q, fields, count, offset), USERS_PARSER);
+    }
+
+    /**
+     * Gets all users found page by page
+     * @param q string to search, null is denied
+     * @param fields to get, put null to get VKUser.uId, VKUser.firstName and VKUser.lastName by default
+     * @param pageSize count of users requested by one query, maximum is 1000
+     * @return lazy pager, which loads pages while it is iterated, never returns null
+     * @see #search(String, String[], Integer, Integer)
+     * @see <a href="http://vk.com/developers.php?oid=-1&p=users.search">Documentation on vk.com</a>
+     */
+    public VKPager<VKUser> searchPager(final String q, final String[] fields, int pageSize) {
+        // Params are checked before first page is requested
+        createSearchParams(q, fields, pageSize, null);
+
+        return new VKPager<VKUser>(api, pageSize, new VKPager.PageLoader<VKUser>() {
+            @Override
+            public VKPager.Page<VKUser> loadPage(int offset, int count) throws Exception {
+                return api.sendRequest(createSearchParams(q, fields, count, offset), USERS_PAGE_PARSER);
+            }
+        });
+    }
+
+    /**
+     * Parser of users array, which first element is total count of users
+     */
+    private static final VKResponseParser<VKPager.Page<VKUser>> USERS_PAGE_PARSER
+            = new VKResponseParser<VKPager.Page<VKUser>>() {
+        @Override
+        public VKPager.Page<VKUser> parseResponse(VKJSONReader reader) throws Exception {
+            if (reader.peek() != VKJSONReader.Token.BEGIN_ARRAY)
+                throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
+
+            final ArrayList<VKUser> users = new ArrayList<VKUser>();
+            int totalCount = -1;
+
+            reader.beginArray();
+            if (reader.hasNext() && reader.peek() == VKJSONReader.Token.NUMBER)
+                totalCount = reader.nextInt();
+            while (reader.hasNext()) {
+                if (reader.peek() == VKJSONReader.Token.BEGIN_OBJECT)
+                    users.add(VKJSONParser.parseUserFromJSON(reader));
+                else
+                    reader.skipValue();
+            }
+            reader.endArray();
+
+            return new VKPager.Page<VKUser>(users, totalCount);
+        }
+    };
+
+    private static VKRequestParams createSearchParams(String q, String[] fields,
+                                                      Integer count, Integer offset) {
         VKRequestParams params = new VKRequestParams("users.search");
 
         if (q == null)
@@ -119,7 +256,7 @@ class VKUsersApi {
         params.putParam("q", q);
 
         if (fields != null)
-            params.putParam("fields", VKUtils.arrayToParams(fields));
+            params.putArrayParam("fields", fields);
 
         if (count != null && count > 1000)
             throw new InvalidParameterException("Maximum value of count param is 1000");
@@ -130,20 +267,7 @@ class VKUsersApi {
         if (offset != null)
             params.putParam("offset", offset.toString());
 
-        JSONArray jsonUsers = api.sendRequest(params).optJSONArray("response");
-
-        if (jsonUsers == null)
-            throw new Exception(VKApi.EXCEPTION_MESSAGE_INCORRECT_RESPONSE);
-
-        ArrayList<VKUser> users = new ArrayList<VKUser>(jsonUsers.length() - 1);
-
-        // Skipping zero element, it contains count of users
-        for (int i = 1; i < jsonUsers.length(); i++) {
-            JSONObject jsonUser = (JSONObject) jsonUsers.get(i);
-            users.add(VKJSONParser.parseUserFromJSON(jsonUser));
-        }
-
-        return users;
+        return params;
     }
 
     /**
@@ -0,0 +1,243 @@
+package com.artemzin.android.vk.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reader, which decodes UTF-8 bytes of server response <br/>
+ * Unlike InputStreamReader it does not create charset decoder and byte buffer for every response:
+ * byte buffer is taken from current thread and returned back by close() <br/>
+ * Malformed bytes are replaced with U+FFFD same as InputStreamReader does
+ * @author Artem Zinnatullin
+ * @see VKUtils#convertStreamToString(java.io.InputStream, long)
+ */
+class VKUtf8Reader extends Reader {
+
+    private static final char REPLACEMENT_CHAR;
+
+    private static final int BYTE_BUFFER_SIZE;
+
+    /**
+     * Initial size of char buffer if length of stream content is unknown
+     */
+    private static final int CHAR_BUFFER_SIZE_DEFAULT;
+
+    /**
+     * Max size of char buffer, which is allocated up front by expected length of stream content,
+     * so wrong Content-Length does not cause allocation of huge buffer
+     */
+    private static final int MAX_PRESIZED_CHAR_BUFFER_SIZE;
+
+    /**
+     * Char buffers bigger than this size are not reused, so thread does not keep big buffer after big response
+     */
+    private static final int MAX_REUSED_CHAR_BUFFER_SIZE;
+
+    /**
+     * Free buffers of threads, buffer is taken from here while it is used, so nested readers do not share it
+     */
+    private static final ThreadLocal<byte[]> BYTE_BUFFERS;
+
+    private static final ThreadLocal<char[]> CHAR_BUFFERS;
+
+    static {
+        REPLACEMENT_CHAR = '\uFFFD';
+        BYTE_BUFFER_SIZE = 8192;
+        CHAR_BUFFER_SIZE_DEFAULT = 8192;
+        MAX_PRESIZED_CHAR_BUFFER_SIZE = 4 * 1024 * 1024;
+        MAX_REUSED_CHAR_BUFFER_SIZE = 64 * 1024;
+        BYTE_BUFFERS = new ThreadLocal<byte[]>();
+        CHAR_BUFFERS = new ThreadLocal<char[]>();
+    }
+
+    private final InputStream in;
+
+    private byte[] buffer;
+
+    private int pos;
+
+    private int limit;
+
+    /**
+     * Second char of surrogate pair, which did not fit to destination of previous read(), 0 if there is no such char
+     */
+    private char pendingLowSurrogate;
+
+    /**
+     * Creating reader
+     * @param in stream to read bytes from, reader does not close it
+     */
+    VKUtf8Reader(InputStream in) {
+        if (in == null)
+            throw new IllegalArgumentException("in param could not be null");
+        this.in = in;
+        buffer = BYTE_BUFFERS.get();
+        if (buffer == null)
+            buffer = new byte[BYTE_BUFFER_SIZE];
+        else
+            BYTE_BUFFERS.set(null);
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (buffer == null)
+            throw new IOException("Reader is closed");
+        if (length == 0)
+            return 0;
+
+        int count = 0;
+
+        if (pendingLowSurrogate != 0) {
+            chars[offset + count++] = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+        }
+
+        while (count < length) {
+            if (pos == limit) {
+                // Returning decoded chars instead of blocking on stream
+                if (count != 0 || !fill(1))
+                    break;
+            }
+
+            final int b = buffer[pos] & 0xFF;
+
+            if (b < 0x80) {
+                chars[offset + count++] = (char) b;
+                pos++;
+                continue;
+            }
+
+            final int needed;
+            final int min;
+            int codePoint;
+
+            if ((b & 0xE0) == 0xC0) {
+                needed = 1;
+                min = 0x80;
+                codePoint = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                needed = 2;
+                min = 0x800;
+                codePoint = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                needed = 3;
+                min = 0x10000;
+                codePoint = b & 0x07;
+            } else {
+                pos++;
+                chars[offset + count++] = REPLACEMENT_CHAR;
+                continue;
+            }
+
+            if (limit - pos <= needed && !fill(needed + 1)) {
+                // Stream ends inside of sequence, whole its beginning is replaced with one char
+                pos++;
+                while (pos < limit && (buffer[pos] & 0xC0) == 0x80)
+                    pos++;
+                chars[offset + count++] = REPLACEMENT_CHAR;
+                continue;
+            }
+
+            int i = 1;
+            for (; i <= needed; i++) {
+                final int next = buffer[pos + i] & 0xFF;
+                if ((next & 0xC0) != 0x80)
+                    break;
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+
+            if (i <= needed) {
+                // Sequence is interrupted, next byte is decoded separately
+                pos += i;
+                chars[offset + count++] = REPLACEMENT_CHAR;
+                continue;
+            }
+
+            pos += needed + 1;
+
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                chars[offset + count++] = REPLACEMENT_CHAR;
+            } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[offset + count++] = (char) codePoint;
+            } else {
+                final int shifted = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+                chars[offset + count++] = (char) ((shifted >>> 10) + Character.MIN_HIGH_SURROGATE);
+                final char low = (char) ((shifted & 0x3FF) + Character.MIN_LOW_SURROGATE);
+                if (count < length)
+                    chars[offset + count++] = low;
+                else
+                    pendingLowSurrogate = low;
+            }
+        }
+
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Reading bytes to buffer until it contains at least minimum unread bytes
+     * @return false if stream ended before
+     */
+    private boolean fill(int minimum) throws IOException {
+        if (pos != 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < minimum) {
+            final int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1)
+                return false;
+            limit += read;
+        }
+        return true;
+    }
+
+    /**
+     * Reading the rest of stream as String
+     * @param expectedLength of the rest of stream in bytes, for example Content-Length, -1 if it is unknown,
+     *                       char buffer is sized by it, because UTF-8 text has no more chars than bytes
+     * @return decoded string
+     * @throws IOException if problems with reading stream
+     */
+    String readString(long expectedLength) throws IOException {
+        char[] chars = CHAR_BUFFERS.get();
+        if (chars != null)
+            CHAR_BUFFERS.set(null);
+
+        // One extra char, so end of stream is detected without growing of buffer
+        final int capacity = expectedLength >= 0
+                ? (int) Math.min(expectedLength + 1, MAX_PRESIZED_CHAR_BUFFER_SIZE)
+                : CHAR_BUFFER_SIZE_DEFAULT;
+
+        if (chars == null || chars.length < capacity)
+            chars = new char[capacity];
+
+        int length = 0;
+        for (int read; (read = read(chars, length, chars.length - length)) != -1;) {
+            length += read;
+            if (length == chars.length) {
+                final char[] bigger = new char[chars.length * 2];
+                System.arraycopy(chars, 0, bigger, 0, length);
+                chars = bigger;
+            }
+        }
+
+        final String result = new String(chars, 0, length);
+        if (chars.length <= MAX_REUSED_CHAR_BUFFER_SIZE)
+            CHAR_BUFFERS.set(chars);
+        return result;
+    }
+
+    /**
+     * Returning byte buffer to current thread, stream is not closed, it should be closed by its owner
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            BYTE_BUFFERS.set(buffer);
+            buffer = null;
+        }
+    }
+}
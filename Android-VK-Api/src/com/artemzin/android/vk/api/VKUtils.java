@@ -2,10 +2,9 @@ package com.artemzin.android.vk.api;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
 import java.util.List;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -23,28 +22,36 @@ public class VKUtils {
 	}
 	
 	/**
-	 * Converting input stream content to string
+	 * Converting input stream content to string, content is decoded as UTF-8
 	 * @param is input stream to convert
 	 * @return String with stream content
 	 * @throws IOException if problems with reading input stream
 	 */
 	public static String convertStreamToString(InputStream is) throws IOException {
-        InputStreamReader r = new InputStreamReader(is);
-        StringWriter sw = new StringWriter();
-        char[] buffer = new char[1024];
-        try {
-            for (int n; (n = r.read(buffer)) != -1;)
-                sw.write(buffer, 0, n);
-        }
-        finally{
-            try {
-                is.close();
-            } catch (IOException e1) {
-                e1.printStackTrace();
-            }
-        }
-        return sw.toString();
-    }
+		return convertStreamToString(is, -1);
+	}
+	
+	/**
+	 * Converting input stream content to string, content is decoded as UTF-8 <br/>
+	 * Buffers of current thread are reused, so there is only one copy of content: the result
+	 * @param is input stream to convert, it is closed after reading
+	 * @param expectedLength of stream content in bytes, for example Content-Length header, -1 if it is unknown
+	 * @return String with stream content
+	 * @throws IOException if problems with reading input stream
+	 */
+	public static String convertStreamToString(InputStream is, long expectedLength) throws IOException {
+		final VKUtf8Reader reader = new VKUtf8Reader(is);
+		try {
+			return reader.readString(expectedLength);
+		} finally {
+			reader.close();
+			try {
+				is.close();
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+		}
+	}
 	
 	/**
 	 * Checking JSON server response for errors
@@ -67,14 +74,152 @@ public class VKUtils {
     }
 	
 	/**
-	 * Unescaping some chars and symbols
+	 * Reading vk.com error object from streaming JSON reader
+	 * @param reader positioned at value of "error" field
+	 * @return VKException, which explains error
+	 * @throws IOException if problems with reading stream
+	 * @throws JSONException if JSON is incorrect
+	 */
+	public static VKException readVKError(VKJSONReader reader) throws IOException, JSONException {
+		int errorCode = 0;
+		String message = "";
+		String captchaSId = "";
+		String captchaImg = "";
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			if (reader.skipNull())
+				continue;
+			if (name.equals("error_code"))
+				errorCode = reader.nextInt();
+			else if (name.equals("error_msg"))
+				message = reader.nextString();
+			else if (name.equals("captcha_sid"))
+				captchaSId = reader.nextString();
+			else if (name.equals("captcha_img"))
+				captchaImg = reader.nextString();
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		VKException e = new VKException(errorCode, message);
+		// Needed when captcha problem
+		if (errorCode == 14) {
+			e.attachCaptcha(new VKCaptcha(captchaSId, captchaImg));
+		}
+		return e;
+	}
+	
+	/**
+	 * Max length of entity name between '&' and ';', longer sequences are not treated as entities
+	 */
+	private static final int MAX_ENTITY_NAME_LENGTH = 8;
+	
+	/**
+	 * Unescaping some chars and symbols: &amp;amp; &amp;quot; &amp;gt; &amp;lt; &amp;ndash; &lt;br&gt; &lt;br/&gt;
+	 * and numeric entities like &amp;#39; or &amp;#x21; <br/>
+	 * Text is scanned once, every entity is decoded once, so "&amp;amp;quot;" becomes "&amp;quot;"
 	 * @param text to unescape
-	 * @return unescaped string
+	 * @return unescaped and trimmed string, the same instance if there is nothing to change
 	 */
-	public static String unescape(String text){
-        return text.replace("&amp;", "&").replace("&quot;", "\"").replace("<br>", "\n").replace("&gt;", ">").replace("&lt;", "<")
-        .replace("&#39;", "'").replace("<br/>", "\n").replace("&ndash;","-").replace("&#33;", "!").trim();
-    }
+	public static String unescape(String text) {
+		final int length = text.length();
+		StringBuilder out = null;
+		// Index of first char, which is not copied to out yet
+		int copied = 0;
+		// Entities start only with '&' or '<', text between them is skipped by indexOf()
+		int nextAmpersand = text.indexOf('&');
+		int nextBracket = text.indexOf('<');
+		for (int i = 0; nextAmpersand >= 0 || nextBracket >= 0; i++) {
+			if (nextAmpersand >= 0 && nextAmpersand < i)
+				nextAmpersand = text.indexOf('&', i);
+			if (nextBracket >= 0 && nextBracket < i)
+				nextBracket = text.indexOf('<', i);
+			if (nextAmpersand < 0 && nextBracket < 0)
+				break;
+			i = nextAmpersand < 0 ? nextBracket : nextBracket < 0 ? nextAmpersand : Math.min(nextAmpersand, nextBracket);
+			final char c = text.charAt(i);
+			int codePoint = -1;
+			int entityEnd = 0;
+			if (c == '&') {
+				final int limit = Math.min(length, i + 2 + MAX_ENTITY_NAME_LENGTH);
+				for (int j = i + 1; j < limit; j++) {
+					if (text.charAt(j) == ';') {
+						codePoint = decodeEntity(text, i + 1, j);
+						entityEnd = j + 1;
+						break;
+					}
+				}
+			} else if (c == '<') {
+				if (text.startsWith("<br>", i)) {
+					codePoint = '\n';
+					entityEnd = i + 4;
+				} else if (text.startsWith("<br/>", i)) {
+					codePoint = '\n';
+					entityEnd = i + 5;
+				}
+			}
+			if (codePoint < 0)
+				continue;
+			if (out == null)
+				out = new StringBuilder(length);
+			out.append(text, copied, i).appendCodePoint(codePoint);
+			copied = entityEnd;
+			i = entityEnd - 1;
+		}
+		
+		if (out == null)
+			return text.trim();
+		
+		out.append(text, copied, length);
+		
+		// Same as trim(), but without intermediate string
+		int start = 0;
+		int end = out.length();
+		while (start < end && out.charAt(start) <= ' ')
+			start++;
+		while (end > start && out.charAt(end - 1) <= ' ')
+			end--;
+		return out.substring(start, end);
+	}
+	
+	/**
+	 * Decoding entity name without '&' and ';'
+	 * @return code point or -1 if entity is unknown
+	 */
+	private static int decodeEntity(String text, int start, int end) {
+		final int nameLength = end - start;
+		if (nameLength >= 2 && text.charAt(start) == '#') {
+			int radix = 10;
+			int digitsStart = start + 1;
+			if (text.charAt(digitsStart) == 'x' || text.charAt(digitsStart) == 'X') {
+				radix = 16;
+				digitsStart++;
+			}
+			if (digitsStart == end)
+				return -1;
+			int codePoint = 0;
+			for (int i = digitsStart; i < end; i++) {
+				final int digit = Character.digit(text.charAt(i), radix);
+				if (digit < 0)
+					return -1;
+				codePoint = codePoint * radix + digit;
+			}
+			// MAX_ENTITY_NAME_LENGTH does not allow overflow of codePoint
+			return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+		}
+		if (nameLength == 3 && text.regionMatches(start, "amp", 0, nameLength))
+			return '&';
+		if (nameLength == 4 && text.regionMatches(start, "quot", 0, nameLength))
+			return '"';
+		if (nameLength == 2 && text.regionMatches(start, "gt", 0, nameLength))
+			return '>';
+		if (nameLength == 2 && text.regionMatches(start, "lt", 0, nameLength))
+			return '<';
+		if (nameLength == 5 && text.regionMatches(start, "ndash", 0, nameLength))
+			return '-';
+		return -1;
+	}
 	
 	/**
 	 * Checking param for positive value
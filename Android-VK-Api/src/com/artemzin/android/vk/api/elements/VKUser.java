@@ -3,7 +3,9 @@ package com.artemzin.android.vk.api.elements;
 import org.json.JSONObject;
 
 /**
- * VKUser class
+ * VKUser class <br/>
+ * Numeric and boolean fields are stored as primitives with presence mask,
+ * so getters return null for fields, which were not set, and every user costs only one object plus its strings
  * @author Artem Zinnatullin
  * @see <a href="http://vk.com/developers.php?oid=-1&p=%D0%9E%D0%BF%D0%B8%D1%81%D0%B0%D0%BD%D0%B8%D0%B5_%D0%BF%D0%BE%D0%BB%D0%B5%D0%B9_%D0%BF%D0%B0%D1%80%D0%B0%D0%BC%D0%B5%D1%82%D1%80%D0%B0_fields">
  *     VK User docs</a>
@@ -84,21 +86,47 @@ public class VKUser {
         abl,
     }
 
-    private Long updateTime;
+    // Bits of presence mask, boxed getters return null if bit of field is not set
+    private static final int PRESENT_UPDATE_TIME = 1;
+    private static final int PRESENT_UID = 1 << 1;
+    private static final int PRESENT_SEX = 1 << 2;
+    private static final int PRESENT_CITY = 1 << 3;
+    private static final int PRESENT_COUNTRY = 1 << 4;
+    private static final int PRESENT_ONLINE = 1 << 5;
+    private static final int PRESENT_ONLINE_MOBILE = 1 << 6;
+    private static final int PRESENT_ONLINE_APP = 1 << 7;
+    private static final int PRESENT_HAS_MOBILE = 1 << 8;
+    private static final int PRESENT_LAST_SEEN = 1 << 9;
+    private static final int PRESENT_RELATION = 1 << 10;
+
+    // Bits of boolean values mask
+    private static final int VALUE_ONLINE = 1;
+    private static final int VALUE_ONLINE_MOBILE = 1 << 1;
+    private static final int VALUE_HAS_MOBILE = 1 << 2;
 
-    private Long uId;
+    /**
+     * Numeric and boolean fields are stored as primitives to keep users compact in memory,
+     * presence of every such field is stored in this mask
+     */
+    private int presentMask;
+
+    private int booleanValuesMask;
+
+    private long updateTime;
+
+    private long uId;
 
     private String firstName;
 
     private String lastName;
 
-    private Integer sex;
+    private int sex;
 
     private String bDate;
 
-    private Long city;
+    private long city;
 
-    private Long country;
+    private long country;
 
     private String photo50;
 
@@ -114,18 +142,12 @@ public class VKUser {
 
     private String photoMaxOrig;
 
-    private Boolean online;
-
-    private Boolean onlineMobile;
-
-    private Long onlineApp;
+    private long onlineApp;
 
     // TODO Add lists
 
     private String screenName;
 
-    private Boolean hasMobile;
-
     // TODO Add contacts
 
     // TODO Add education
@@ -142,9 +164,9 @@ public class VKUser {
 
     private String activity;
 
-    private Long lastSeen;
+    private long lastSeen;
 
-    private Integer relation;
+    private int relation;
 
     // TODO Add counters
 
@@ -174,17 +196,39 @@ public class VKUser {
      * Information update time, needed for most apps
      */
     public Long getUpdateTime() {
-        return updateTime;
+        return (presentMask & PRESENT_UPDATE_TIME) != 0 ? updateTime : null;
+    }
+
+    public void setUpdateTime(Long updateTime) {
+        presentMask = updateTime != null ? presentMask | PRESENT_UPDATE_TIME : presentMask & ~PRESENT_UPDATE_TIME;
+        this.updateTime = updateTime != null ? updateTime : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setUpdateTime(long updateTime) {
+        presentMask |= PRESENT_UPDATE_TIME;
+        this.updateTime = updateTime;
     }
 
     /**
      * vk.com user id
      */
     public Long getUId() {
-        return uId;
+        return (presentMask & PRESENT_UID) != 0 ? uId : null;
     }
 
     public void setUId(Long uId) {
+        presentMask = uId != null ? presentMask | PRESENT_UID : presentMask & ~PRESENT_UID;
+        this.uId = uId != null ? uId : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setUId(long uId) {
+        presentMask |= PRESENT_UID;
         this.uId = uId;
     }
 
@@ -218,10 +262,19 @@ public class VKUser {
      * 0 - unknown
      */
     public Integer getSex() {
-        return sex;
+        return (presentMask & PRESENT_SEX) != 0 ? Integer.valueOf(sex) : null;
     }
 
     public void setSex(Integer sex) {
+        presentMask = sex != null ? presentMask | PRESENT_SEX : presentMask & ~PRESENT_SEX;
+        this.sex = sex != null ? sex : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setSex(int sex) {
+        presentMask |= PRESENT_SEX;
         this.sex = sex;
     }
 
@@ -242,10 +295,19 @@ public class VKUser {
      * @see com.artemzin.android.vk.api.VKApi# getCities
      */
     public Long getCity() {
-        return city;
+        return (presentMask & PRESENT_CITY) != 0 ? city : null;
     }
 
     public void setCity(Long city) {
+        presentMask = city != null ? presentMask | PRESENT_CITY : presentMask & ~PRESENT_CITY;
+        this.city = city != null ? city : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setCity(long city) {
+        presentMask |= PRESENT_CITY;
         this.city = city;
     }
 
@@ -254,10 +316,19 @@ public class VKUser {
      * @see com.artemzin.android.vk.api.VKApi# getCountries
      */
     public Long getCountry() {
-        return country;
+        return (presentMask & PRESENT_COUNTRY) != 0 ? country : null;
     }
 
     public void setCountry(Long country) {
+        presentMask = country != null ? presentMask | PRESENT_COUNTRY : presentMask & ~PRESENT_COUNTRY;
+        this.country = country != null ? country : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setCountry(long country) {
+        presentMask |= PRESENT_COUNTRY;
         this.country = country;
     }
 
@@ -342,22 +413,40 @@ public class VKUser {
      * Is user online
      */
     public Boolean getOnline() {
-        return online;
+        return (presentMask & PRESENT_ONLINE) != 0 ? Boolean.valueOf((booleanValuesMask & VALUE_ONLINE) != 0) : null;
     }
 
     public void setOnline(Boolean online) {
-        this.online = online;
+        presentMask = online != null ? presentMask | PRESENT_ONLINE : presentMask & ~PRESENT_ONLINE;
+        booleanValuesMask = online != null && online ? booleanValuesMask | VALUE_ONLINE : booleanValuesMask & ~VALUE_ONLINE;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setOnline(boolean online) {
+        presentMask |= PRESENT_ONLINE;
+        booleanValuesMask = online ? booleanValuesMask | VALUE_ONLINE : booleanValuesMask & ~VALUE_ONLINE;
     }
 
     /**
      * If user is online from mobile device
      */
     public Boolean getOnlineMobile() {
-        return onlineMobile;
+        return (presentMask & PRESENT_ONLINE_MOBILE) != 0 ? Boolean.valueOf((booleanValuesMask & VALUE_ONLINE_MOBILE) != 0) : null;
     }
 
     public void setOnlineMobile(Boolean onlineMobile) {
-        this.onlineMobile = onlineMobile;
+        presentMask = onlineMobile != null ? presentMask | PRESENT_ONLINE_MOBILE : presentMask & ~PRESENT_ONLINE_MOBILE;
+        booleanValuesMask = onlineMobile != null && onlineMobile ? booleanValuesMask | VALUE_ONLINE_MOBILE : booleanValuesMask & ~VALUE_ONLINE_MOBILE;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setOnlineMobile(boolean onlineMobile) {
+        presentMask |= PRESENT_ONLINE_MOBILE;
+        booleanValuesMask = onlineMobile ? booleanValuesMask | VALUE_ONLINE_MOBILE : booleanValuesMask & ~VALUE_ONLINE_MOBILE;
     }
 
     /**
@@ -365,10 +454,19 @@ public class VKUser {
      * Exists only if user using some application, not web site
      */
     public Long getOnlineApp() {
-        return onlineApp;
+        return (presentMask & PRESENT_ONLINE_APP) != 0 ? onlineApp : null;
     }
 
     public void setOnlineApp(Long onlineApp) {
+        presentMask = onlineApp != null ? presentMask | PRESENT_ONLINE_APP : presentMask & ~PRESENT_ONLINE_APP;
+        this.onlineApp = onlineApp != null ? onlineApp : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setOnlineApp(long onlineApp) {
+        presentMask |= PRESENT_ONLINE_APP;
         this.onlineApp = onlineApp;
     }
 
@@ -388,11 +486,20 @@ public class VKUser {
      * Is user`s mobile phone number known
      */
     public Boolean getHasMobile() {
-        return hasMobile;
+        return (presentMask & PRESENT_HAS_MOBILE) != 0 ? Boolean.valueOf((booleanValuesMask & VALUE_HAS_MOBILE) != 0) : null;
     }
 
     public void setHasMobile(Boolean hasMobile) {
-        this.hasMobile = hasMobile;
+        presentMask = hasMobile != null ? presentMask | PRESENT_HAS_MOBILE : presentMask & ~PRESENT_HAS_MOBILE;
+        booleanValuesMask = hasMobile != null && hasMobile ? booleanValuesMask | VALUE_HAS_MOBILE : booleanValuesMask & ~VALUE_HAS_MOBILE;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setHasMobile(boolean hasMobile) {
+        presentMask |= PRESENT_HAS_MOBILE;
+        booleanValuesMask = hasMobile ? booleanValuesMask | VALUE_HAS_MOBILE : booleanValuesMask & ~VALUE_HAS_MOBILE;
     }
 
     /**
@@ -411,10 +518,19 @@ public class VKUser {
      * Last seen time when user was online in UNIX TIMESTAMP format / 1000
      */
     public Long getLastSeen() {
-        return lastSeen;
+        return (presentMask & PRESENT_LAST_SEEN) != 0 ? lastSeen : null;
     }
 
     public void setLastSeen(Long lastSeen) {
+        presentMask = lastSeen != null ? presentMask | PRESENT_LAST_SEEN : presentMask & ~PRESENT_LAST_SEEN;
+        this.lastSeen = lastSeen != null ? lastSeen : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setLastSeen(long lastSeen) {
+        presentMask |= PRESENT_LAST_SEEN;
         this.lastSeen = lastSeen;
     }
 
@@ -429,10 +545,19 @@ public class VKUser {
      * 7 - In love
      */
     public Integer getRelation() {
-        return relation;
+        return (presentMask & PRESENT_RELATION) != 0 ? Integer.valueOf(relation) : null;
     }
 
     public void setRelation(Integer relation) {
+        presentMask = relation != null ? presentMask | PRESENT_RELATION : presentMask & ~PRESENT_RELATION;
+        this.relation = relation != null ? relation : 0;
+    }
+
+    /**
+     * Same as boxed setter, but without boxing
+     */
+    public void setRelation(int relation) {
+        presentMask |= PRESENT_RELATION;
         this.relation = relation;
     }
 